@@ -43,6 +43,7 @@ import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.transition.TransitionManager;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -765,16 +766,15 @@ public class SettingsActivity extends SettingsDrawerActivity
         PackageManager pm = getPackageManager();
         final UserManager um = UserManager.get(this);
         final boolean isAdmin = um.isAdminUser();
-        boolean somethingChanged = false;
+        final ArrayMap<ComponentName, Boolean> tileStates = new ArrayMap<>();
         String packageName = getPackageName();
-        somethingChanged = setTileEnabled(
+        addTileState(tileStates,
                 new ComponentName(packageName, WifiSettingsActivity.class.getName()),
-                pm.hasSystemFeature(PackageManager.FEATURE_WIFI), isAdmin) || somethingChanged;
+                pm.hasSystemFeature(PackageManager.FEATURE_WIFI), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        addTileState(tileStates, new ComponentName(packageName,
                         Settings.BluetoothSettingsActivity.class.getName()),
-                pm.hasSystemFeature(PackageManager.FEATURE_BLUETOOTH), isAdmin)
-                || somethingChanged;
+                pm.hasSystemFeature(PackageManager.FEATURE_BLUETOOTH), isAdmin);
 
         boolean isDataPlanFeatureEnabled = FeatureFactory.getFactory(this)
                 .getDataPlanFeatureProvider()
@@ -786,76 +786,65 @@ public class SettingsActivity extends SettingsDrawerActivity
 
         // Disable DataUsageSummaryActivity if the data plan feature flag is turned on otherwise
         // disable DataPlanUsageSummaryActivity.
-        somethingChanged = setTileEnabled(
+        addTileState(tileStates,
                 new ComponentName(packageName,
                         isDataPlanFeatureEnabled
                                 ? Settings.DataUsageSummaryActivity.class.getName()
                                 : Settings.DataPlanUsageSummaryActivity.class.getName()),
-                false /* enabled */,
-                isAdmin) || somethingChanged;
+                false /* enabled */, isAdmin);
 
         // Enable DataUsageSummaryActivity if the data plan feature flag is turned on otherwise
         // enable DataPlanUsageSummaryActivity.
-        somethingChanged = setTileEnabled(
+        addTileState(tileStates,
                 new ComponentName(packageName,
                         isDataPlanFeatureEnabled
                                 ? Settings.DataPlanUsageSummaryActivity.class.getName()
                                 : Settings.DataUsageSummaryActivity.class.getName()),
-                Utils.isBandwidthControlEnabled() /* enabled */,
-                isAdmin) || somethingChanged;
+                Utils.isBandwidthControlEnabled() /* enabled */, isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        addTileState(tileStates, new ComponentName(packageName,
                         Settings.SimSettingsActivity.class.getName()),
-                Utils.showSimCardTile(this), isAdmin)
-                || somethingChanged;
+                Utils.showSimCardTile(this), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        addTileState(tileStates, new ComponentName(packageName,
                         Settings.PowerUsageSummaryActivity.class.getName()),
-                mBatteryPresent, isAdmin) || somethingChanged;
+                mBatteryPresent, isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        addTileState(tileStates, new ComponentName(packageName,
                         Settings.UserSettingsActivity.class.getName()),
                 UserHandle.MU_ENABLED && UserManager.supportsMultipleUsers()
-                        && !Utils.isMonkeyRunning(), isAdmin)
-                || somethingChanged;
+                        && !Utils.isMonkeyRunning(), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        addTileState(tileStates, new ComponentName(packageName,
                         Settings.NetworkDashboardActivity.class.getName()),
-                !UserManager.isDeviceInDemoMode(this), isAdmin)
-                || somethingChanged;
+                !UserManager.isDeviceInDemoMode(this), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        addTileState(tileStates, new ComponentName(packageName,
                         Settings.ConnectedDeviceDashboardActivity.class.getName()),
-                !UserManager.isDeviceInDemoMode(this), isAdmin)
-                || somethingChanged;
+                !UserManager.isDeviceInDemoMode(this), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        addTileState(tileStates, new ComponentName(packageName,
                         Settings.DateTimeSettingsActivity.class.getName()),
-                !UserManager.isDeviceInDemoMode(this), isAdmin)
-                || somethingChanged;
+                !UserManager.isDeviceInDemoMode(this), isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        addTileState(tileStates, new ComponentName(packageName,
                         Settings.PrintSettingsActivity.class.getName()),
-                pm.hasSystemFeature(PackageManager.FEATURE_PRINTING), isAdmin)
-                || somethingChanged;
+                pm.hasSystemFeature(PackageManager.FEATURE_PRINTING), isAdmin);
 
         final boolean showDev = mDevelopmentPreferences.getBoolean(
                 DevelopmentSettings.PREF_SHOW, android.os.Build.TYPE.equals("eng"))
                 && !um.hasUserRestriction(UserManager.DISALLOW_DEBUGGING_FEATURES);
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        addTileState(tileStates, new ComponentName(packageName,
                         Settings.DevelopmentSettingsActivity.class.getName()),
-                showDev, isAdmin)
-                || somethingChanged;
+                showDev, isAdmin);
 
         // Enable/disable backup settings depending on whether the user is admin.
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
-                BackupSettingsActivity.class.getName()), true, isAdmin)
-                || somethingChanged;
+        addTileState(tileStates, new ComponentName(packageName,
+                BackupSettingsActivity.class.getName()), true, isAdmin);
 
-        somethingChanged = setTileEnabled(new ComponentName(packageName,
+        addTileState(tileStates, new ComponentName(packageName,
                         Settings.WifiDisplaySettingsActivity.class.getName()),
-                WifiDisplaySettings.isAvailable(this), isAdmin)
-                || somethingChanged;
+                WifiDisplaySettings.isAvailable(this), isAdmin);
 
         if (UserHandle.MU_ENABLED && !isAdmin) {
 
@@ -872,14 +861,17 @@ public class SettingsActivity extends SettingsDrawerActivity
                                 SettingsGateway.SETTINGS_FOR_RESTRICTED, name);
                         if (packageName.equals(component.getPackageName())
                                 && !isEnabledForRestricted) {
-                            somethingChanged = setTileEnabled(component, false, isAdmin)
-                                    || somethingChanged;
+                            addTileState(tileStates, component, false, isAdmin);
                         }
                     }
                 }
             }
         }
 
+        // Only the tiles whose state changed since the last update are written.
+        final boolean somethingChanged = TileStateManager.getInstance(this)
+                .applyTileStates(tileStates, this::setTileEnabled);
+
         // Final step, refresh categories.
         if (somethingChanged) {
             Log.d(LOG_TAG, "Enabled state changed for some tiles, reloading all categories");
@@ -890,15 +882,17 @@ public class SettingsActivity extends SettingsDrawerActivity
     }
 
     /**
-     * @return whether or not the enabled state actually changed.
+     * Adds the desired enabled state of a tile to {@param tileStates}, disabling it for
+     * restricted users if needed.
      */
-    private boolean setTileEnabled(ComponentName component, boolean enabled, boolean isAdmin) {
+    private void addTileState(ArrayMap<ComponentName, Boolean> tileStates,
+            ComponentName component, boolean enabled, boolean isAdmin) {
         if (UserHandle.MU_ENABLED && !isAdmin && getPackageName().equals(component.getPackageName())
                 && !ArrayUtils.contains(SettingsGateway.SETTINGS_FOR_RESTRICTED,
                 component.getClassName())) {
             enabled = false;
         }
-        return setTileEnabled(component, enabled);
+        tileStates.put(component, enabled);
     }
 
     private void getMetaData() {
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.UserHandle;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import java.util.Map;
+
+/**
+ * Remembers the enabled state last applied to each Settings tile, so that
+ * {@link SettingsActivity} only goes to the PackageManager for the tiles whose desired state
+ * changed, and not at all when nothing changed.
+ *
+ * The states are dropped when the build, the user or the Settings package changes, as the
+ * PackageManager may then no longer have the component states last applied, e.g. an update of
+ * the package resets them.
+ */
+public class TileStateManager {
+
+    private static final String TAG = "TileStateManager";
+
+    @VisibleForTesting
+    static final String SHARED_PREFERENCES_NAME = "tile_states";
+    @VisibleForTesting
+    static final String KEY_BUILD = "build";
+
+    private static TileStateManager sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final String mBuildKey;
+    // Last applied state by flattened component name. Loaded lazily.
+    private ArrayMap<String, Boolean> mAppliedStates;
+
+    /**
+     * Enables or disables a tile, see {@link SettingsActivity}.
+     */
+    public interface TileSetter {
+        /**
+         * @return whether or not the enabled state actually changed.
+         */
+        boolean setTileEnabled(ComponentName component, boolean enabled);
+    }
+
+    public static synchronized TileStateManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TileStateManager(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void clearInstance() {
+        sInstance = null;
+    }
+
+    @VisibleForTesting
+    TileStateManager(Context context) {
+        mPrefs = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+        mBuildKey = Build.FINGERPRINT + "/" + UserHandle.myUserId() + "/"
+                + getLastUpdateTime(context);
+    }
+
+    private static long getLastUpdateTime(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0 /* flags */).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Cannot find own package", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Applies {@param tileStates} through {@param setter}, skipping the tiles whose state is
+     * the one last applied.
+     *
+     * @return whether or not the enabled state of any tile actually changed.
+     */
+    public synchronized boolean applyTileStates(Map<ComponentName, Boolean> tileStates,
+            TileSetter setter) {
+        ensureLoaded();
+        boolean somethingChanged = false;
+        boolean statesChanged = false;
+        for (Map.Entry<ComponentName, Boolean> entry : tileStates.entrySet()) {
+            final String key = entry.getKey().flattenToString();
+            final boolean enabled = entry.getValue();
+            final Boolean applied = mAppliedStates.get(key);
+            if (applied != null && applied == enabled) {
+                continue;
+            }
+            somethingChanged = setter.setTileEnabled(entry.getKey(), enabled) || somethingChanged;
+            mAppliedStates.put(key, enabled);
+            statesChanged = true;
+        }
+        if (statesChanged) {
+            final SharedPreferences.Editor editor = mPrefs.edit();
+            for (int i = 0; i < mAppliedStates.size(); i++) {
+                editor.putBoolean(mAppliedStates.keyAt(i), mAppliedStates.valueAt(i));
+            }
+            editor.putString(KEY_BUILD, mBuildKey).apply();
+        }
+        return somethingChanged;
+    }
+
+    private void ensureLoaded() {
+        if (mAppliedStates != null) {
+            return;
+        }
+        mAppliedStates = new ArrayMap<>();
+        if (!TextUtils.equals(mPrefs.getString(KEY_BUILD, null), mBuildKey)) {
+            mPrefs.edit().clear().apply();
+            return;
+        }
+        for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+            if (entry.getValue() instanceof Boolean) {
+                mAppliedStates.put(entry.getKey(), (Boolean) entry.getValue());
+            }
+        }
+    }
+}
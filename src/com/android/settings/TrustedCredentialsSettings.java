@@ -42,6 +42,8 @@ import android.os.UserManager;
 import android.security.IKeyChainService;
 import android.security.KeyChain;
 import android.security.KeyChain.KeyChainConnection;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseArray;
 import android.util.ArraySet;
@@ -65,12 +67,17 @@ import com.android.internal.app.UnlaunchableAppActivity;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.internal.widget.LockPatternUtils;
 
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntConsumer;
 
 public class TrustedCredentialsSettings extends OptionsMenuFragment
@@ -88,13 +95,16 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
     private static final String SAVED_CONFIRMING_CREDENTIAL_USER = "ConfirmingCredentialUser";
     private static final String USER_ACTION = "com.android.settings.TRUSTED_CREDENTIALS_USER";
     private static final int REQUEST_CONFIRM_CREDENTIALS = 1;
+    // Number of threads fetching and parsing certificates in AliasLoader.
+    private static final int MAX_LOADER_THREADS = 4;
 
     @Override
     public int getMetricsCategory() {
         return MetricsEvent.TRUSTED_CREDENTIALS;
     }
 
-    private enum Tab {
+    @VisibleForTesting
+    enum Tab {
         SYSTEM("system",
                 R.string.trusted_credentials_system_tab,
                 R.id.system_tab,
@@ -691,7 +701,6 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
                     SparseArray<List<String>> aliasesByProfileId = new SparseArray<
                             List<String>>(n);
                     int max = 0;
-                    int progress = 0;
                     for (int i = 0; i < n; ++i) {
                         UserHandle profile = profiles.get(i);
                         int profileId = profile.getIdentifier();
@@ -703,46 +712,61 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
                         // Saving the connection for later use on the certificate dialog.
                         mKeyChainConnectionByProfileId.put(profileId, keyChainConnection);
                         IKeyChainService service = keyChainConnection.getService();
-                        List<String> aliases = mTab.getAliases(service);
+                        List<String> aliases;
+                        try {
+                            aliases = mTab.getAliases(service);
+                        } catch (RemoteException e) {
+                            // Only this profile is left empty.
+                            Log.e(TAG, "Remote exception while loading aliases of profile "
+                                    + profileId, e);
+                            continue;
+                        }
                         if (isCancelled()) {
                             return new SparseArray<List<CertHolder>>();
                         }
                         max += aliases.size();
                         aliasesByProfileId.put(profileId, aliases);
                     }
-                    for (int i = 0; i < n; ++i) {
-                        UserHandle profile = profiles.get(i);
-                        int profileId = profile.getIdentifier();
-                        List<String> aliases = aliasesByProfileId.get(profileId);
-                        if (isCancelled()) {
-                            return new SparseArray<List<CertHolder>>();
-                        }
-                        KeyChainConnection keyChainConnection = mKeyChainConnectionByProfileId.get(
-                                profileId);
-                        if (shouldSkipProfile(profile) || aliases == null
-                                || keyChainConnection == null) {
-                            certHoldersByProfile.put(profileId, new ArrayList<CertHolder>(0));
-                            continue;
+                    // Then fetch and parse the certificates of all profiles in parallel.
+                    final AtomicInteger progress = new AtomicInteger();
+                    final int progressMax = max;
+                    final Runnable onCertLoaded =
+                            () -> publishProgress(progress.incrementAndGet(), progressMax);
+                    final SparseArray<List<Future<CertHolder>>> futuresByProfileId =
+                            new SparseArray<List<Future<CertHolder>>>(n);
+                    final ExecutorService executor = Executors.newFixedThreadPool(
+                            Math.max(1, Math.min(MAX_LOADER_THREADS, max)));
+                    try {
+                        for (int i = 0; i < n; ++i) {
+                            UserHandle profile = profiles.get(i);
+                            final int profileId = profile.getIdentifier();
+                            List<String> aliases = aliasesByProfileId.get(profileId);
+                            KeyChainConnection keyChainConnection =
+                                    mKeyChainConnectionByProfileId.get(profileId);
+                            if (shouldSkipProfile(profile) || aliases == null
+                                    || keyChainConnection == null) {
+                                continue;
+                            }
+                            futuresByProfileId.put(profileId, submitCertHolders(executor,
+                                    keyChainConnection.getService(), mAdapter, mTab, aliases,
+                                    profileId, onCertLoaded));
                         }
-                        IKeyChainService service = keyChainConnection.getService();
-                        List<CertHolder> certHolders = new ArrayList<CertHolder>(max);
-                        final int aliasMax = aliases.size();
-                        for (int j = 0; j < aliasMax; ++j) {
-                            String alias = aliases.get(j);
-                            byte[] encodedCertificate = service.getEncodedCaCertificate(alias,
-                                    true);
-                            X509Certificate cert = KeyChain.toCertificate(encodedCertificate);
-                            certHolders.add(new CertHolder(service, mAdapter,
-                                    mTab, alias, cert, profileId));
-                            publishProgress(++progress, max);
+                        for (int i = 0; i < n; ++i) {
+                            int profileId = profiles.get(i).getIdentifier();
+                            List<Future<CertHolder>> futures = futuresByProfileId.get(profileId);
+                            if (isCancelled()) {
+                                return new SparseArray<List<CertHolder>>();
+                            }
+                            if (futures == null) {
+                                certHoldersByProfile.put(profileId, new ArrayList<CertHolder>(0));
+                                continue;
+                            }
+                            certHoldersByProfile.put(profileId, getCertHolders(futures));
                         }
-                        Collections.sort(certHolders);
-                        certHoldersByProfile.put(profileId, certHolders);
+                    } finally {
+                        executor.shutdownNow();
                     }
                     return certHoldersByProfile;
-                } catch (RemoteException e) {
-                    Log.e(TAG, "Remote exception while loading aliases.", e);
-                    return new SparseArray<List<CertHolder>>();
                 } catch (InterruptedException e) {
                     Log.e(TAG, "InterruptedException while loading aliases.", e);
                     return new SparseArray<List<CertHolder>>();
@@ -754,7 +778,10 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
                 if (max != mProgressBar.getMax()) {
                     mProgressBar.setMax(max);
                 }
-                mProgressBar.setProgress(progress);
+                // Certificates are loaded in parallel, so updates may arrive out of order.
+                if (progress > mProgressBar.getProgress()) {
+                    mProgressBar.setProgress(progress);
+                }
             }
             @Override protected void onPostExecute(SparseArray<List<CertHolder>> certHolders) {
                 mCertHoldersByUserId.clear();
@@ -811,15 +838,121 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
         }
     }
 
+    /**
+     * Fetches and parses the certificates of {@param aliases} of a profile on {@param executor}.
+     * {@param onLoaded} is run once per certificate, whether or not it could be loaded.
+     */
+    @VisibleForTesting
+    static List<Future<CertHolder>> submitCertHolders(ExecutorService executor,
+            IKeyChainService service, GroupAdapter adapter, Tab tab, List<String> aliases,
+            int profileId, Runnable onLoaded) {
+        final List<Future<CertHolder>> futures = new ArrayList<Future<CertHolder>>(aliases.size());
+        for (final String alias : aliases) {
+            futures.add(executor.submit(() -> {
+                try {
+                    return new CertHolder(service, adapter, tab, alias,
+                            service.getEncodedCaCertificate(alias, true), profileId);
+                } finally {
+                    onLoaded.run();
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * @return the sorted certificates of {@param futures} which could be loaded. The others are
+     * logged and skipped, so that they do not hide the rest of the profile.
+     */
+    @VisibleForTesting
+    static List<CertHolder> getCertHolders(List<Future<CertHolder>> futures)
+            throws InterruptedException {
+        final List<CertHolder> certHolders = new ArrayList<CertHolder>(futures.size());
+        for (Future<CertHolder> future : futures) {
+            try {
+                certHolders.add(future.get());
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Exception while loading certificate.", e.getCause());
+            }
+        }
+        Collections.sort(certHolders);
+        return certHolders;
+    }
+
+    /**
+     * Subject names of a certificate, cached by alias with the encoded certificate they were
+     * parsed from, so that reopening the screen only parses the certificates which changed.
+     */
+    @VisibleForTesting
+    static class CertSummary {
+        // Keyed by alias. Aliases of system certificates are derived from their content, user
+        // ones may be reused for another certificate, hence the encoded certificate check.
+        private static final ArrayMap<String, CertSummary> sCache = new ArrayMap<>();
+
+        private final byte[] mEncodedCert;
+        final String mSubjectPrimary;
+        final String mSubjectSecondary;
+
+        private CertSummary(byte[] encodedCert, String subjectPrimary, String subjectSecondary) {
+            mEncodedCert = encodedCert;
+            mSubjectPrimary = subjectPrimary;
+            mSubjectSecondary = subjectSecondary;
+        }
+
+        static CertSummary get(String alias, byte[] encodedCert) {
+            synchronized (sCache) {
+                final CertSummary summary = sCache.get(alias);
+                if (summary != null && Arrays.equals(summary.mEncodedCert, encodedCert)) {
+                    return summary;
+                }
+            }
+            final CertSummary summary = parse(encodedCert);
+            synchronized (sCache) {
+                sCache.put(alias, summary);
+            }
+            return summary;
+        }
+
+        @VisibleForTesting
+        static void clearCache() {
+            synchronized (sCache) {
+                sCache.clear();
+            }
+        }
+
+        private static CertSummary parse(byte[] encodedCert) {
+            final SslCertificate sslCert = new SslCertificate(
+                    KeyChain.toCertificate(encodedCert));
+            String cn = sslCert.getIssuedTo().getCName();
+            String o = sslCert.getIssuedTo().getOName();
+            String ou = sslCert.getIssuedTo().getUName();
+            // if we have a O, use O as primary subject, secondary prefer CN over OU
+            // if we don't have an O, use CN as primary, empty secondary
+            // if we don't have O or CN, use DName as primary, empty secondary
+            if (!o.isEmpty()) {
+                if (!cn.isEmpty()) {
+                    return new CertSummary(encodedCert, o, cn);
+                } else {
+                    return new CertSummary(encodedCert, o, ou);
+                }
+            } else {
+                if (!cn.isEmpty()) {
+                    return new CertSummary(encodedCert, cn, "");
+                } else {
+                    return new CertSummary(encodedCert, sslCert.getIssuedTo().getDName(), "");
+                }
+            }
+        }
+    }
+
     /* package */ static class CertHolder implements Comparable<CertHolder> {
         public int mProfileId;
         private final IKeyChainService mService;
         private final GroupAdapter mAdapter;
         private final Tab mTab;
         private final String mAlias;
-        private final X509Certificate mX509Cert;
+        private final byte[] mEncodedCert;
 
-        private final SslCertificate mSslCert;
         private final String mSubjectPrimary;
         private final String mSubjectSecondary;
         private boolean mDeleted;
@@ -828,40 +961,18 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
                            GroupAdapter adapter,
                            Tab tab,
                            String alias,
-                           X509Certificate x509Cert,
+                           byte[] encodedCert,
                            int profileId) {
             mProfileId = profileId;
             mService = service;
             mAdapter = adapter;
             mTab = tab;
             mAlias = alias;
-            mX509Cert = x509Cert;
-
-            mSslCert = new SslCertificate(x509Cert);
+            mEncodedCert = encodedCert;
 
-            String cn = mSslCert.getIssuedTo().getCName();
-            String o = mSslCert.getIssuedTo().getOName();
-            String ou = mSslCert.getIssuedTo().getUName();
-            // if we have a O, use O as primary subject, secondary prefer CN over OU
-            // if we don't have an O, use CN as primary, empty secondary
-            // if we don't have O or CN, use DName as primary, empty secondary
-            if (!o.isEmpty()) {
-                if (!cn.isEmpty()) {
-                    mSubjectPrimary = o;
-                    mSubjectSecondary = cn;
-                } else {
-                    mSubjectPrimary = o;
-                    mSubjectSecondary = ou;
-                }
-            } else {
-                if (!cn.isEmpty()) {
-                    mSubjectPrimary = cn;
-                    mSubjectSecondary = "";
-                } else {
-                    mSubjectPrimary = mSslCert.getIssuedTo().getDName();
-                    mSubjectSecondary = "";
-                }
-            }
+            final CertSummary summary = CertSummary.get(alias, encodedCert);
+            mSubjectPrimary = summary.mSubjectPrimary;
+            mSubjectSecondary = summary.mSubjectSecondary;
             try {
                 mDeleted = mTab.deleted(mService, mAlias);
             } catch (RemoteException e) {
@@ -989,14 +1100,12 @@ public class TrustedCredentialsSettings extends OptionsMenuFragment
                         mCertHolder.mProfileId);
                 IKeyChainService service = keyChainConnection.getService();
                 if (mCertHolder.mDeleted) {
-                    byte[] bytes = mCertHolder.mX509Cert.getEncoded();
-                    service.installCaCertificate(bytes);
+                    service.installCaCertificate(mCertHolder.mEncodedCert);
                     return true;
                 } else {
                     return service.deleteCaCertificate(mCertHolder.mAlias);
                 }
-            } catch (CertificateEncodingException | SecurityException | IllegalStateException
-                    | RemoteException e) {
+            } catch (SecurityException | IllegalStateException | RemoteException e) {
                 Log.w(TAG, "Error while toggling alias " + mCertHolder.mAlias, e);
                 return false;
             }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Immutable index of the word starts of the normalized labels of a list of items, used to find
+ * the items matching a filter prefix with a binary search instead of scanning every label.
+ *
+ * An item matches a prefix if its label, or any word of its label following a space, starts with
+ * the prefix.
+ */
+class AppLabelPrefixIndex<T> {
+
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final ArrayList<T> mItems;
+    // Suffixes of the labels starting at a word start, sorted, and the position of their item.
+    private final String[] mSuffixes;
+    private final int[] mSuffixPositions;
+
+    /**
+     * @param items           the indexed items, kept by reference.
+     * @param normalizedLabel returns the normalized label of an item.
+     */
+    AppLabelPrefixIndex(ArrayList<T> items, Function<T, String> normalizedLabel) {
+        mItems = items;
+        final int itemCount = items.size();
+        final List<String> suffixes = new ArrayList<>(itemCount);
+        final List<Integer> positions = new ArrayList<>(itemCount);
+        for (int position = 0; position < itemCount; position++) {
+            final String label = normalizedLabel.apply(items.get(position));
+            if (label == null) {
+                continue;
+            }
+            suffixes.add(label);
+            positions.add(position);
+            for (int i = 1; i < label.length(); i++) {
+                if (label.charAt(i - 1) == ' ') {
+                    suffixes.add(label.substring(i));
+                    positions.add(position);
+                }
+            }
+        }
+
+        final Integer[] order = new Integer[suffixes.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(suffixes::get));
+        mSuffixes = new String[order.length];
+        mSuffixPositions = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            mSuffixes[i] = suffixes.get(order[i]);
+            mSuffixPositions[i] = positions.get(order[i]);
+        }
+    }
+
+    ArrayList<T> getItems() {
+        return mItems;
+    }
+
+    /**
+     * @param normalizedPrefix a prefix normalized like the labels.
+     * @return the positions of the items matching {@param normalizedPrefix}, in ascending order.
+     */
+    int[] getMatchingPositions(String normalizedPrefix) {
+        final BitSet matches = new BitSet(mItems.size());
+        for (int i = lowerBound(normalizedPrefix);
+                i < mSuffixes.length && mSuffixes[i].startsWith(normalizedPrefix); i++) {
+            matches.set(mSuffixPositions[i]);
+        }
+        if (matches.isEmpty()) {
+            return NO_POSITIONS;
+        }
+        final int[] positions = new int[matches.cardinality()];
+        int count = 0;
+        for (int position = matches.nextSetBit(0); position >= 0;
+                position = matches.nextSetBit(position + 1)) {
+            positions[count++] = position;
+        }
+        return positions;
+    }
+
+    /**
+     * @return the index of the first suffix not smaller than {@param prefix}. All suffixes
+     * starting with the prefix follow it contiguously.
+     */
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = mSuffixes.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mSuffixes[mid].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
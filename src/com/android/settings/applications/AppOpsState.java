@@ -30,6 +30,7 @@ import android.graphics.drawable.Drawable;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.format.DateUtils;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseArray;
 
@@ -71,6 +72,8 @@ public class AppOpsState {
     public static class OpsTemplate implements Parcelable {
         public final int[] ops;
         public final boolean[] showPerms;
+        // Built on first use and shared by all calls to buildState() with this template.
+        private PermissionIndex mPermissionIndex;
 
         public OpsTemplate(int[] _ops, boolean[] _showPerms) {
             ops = _ops;
@@ -82,6 +85,13 @@ public class AppOpsState {
             showPerms = src.createBooleanArray();
         }
 
+        synchronized PermissionIndex getPermissionIndex() {
+            if (mPermissionIndex == null) {
+                mPermissionIndex = new PermissionIndex(this);
+            }
+            return mPermissionIndex;
+        }
+
         @Override
         public int describeContents() {
             return 0;
@@ -104,6 +114,47 @@ public class AppOpsState {
         };
     }
 
+    /**
+     * Maps the permissions shown for a template to their op, so that the requested permissions
+     * of each app are looked up instead of compared with every permission of the template.
+     */
+    static class PermissionIndex {
+        // Permissions shown for the template, each with the first op requiring it.
+        final String[] perms;
+        private final ArrayMap<String, Integer> mPermToOp;
+        // Position in the template of the ops of perms, 0 for the other ops.
+        private final int[] mOpToOrder = new int[AppOpsManager._NUM_OP];
+
+        PermissionIndex(OpsTemplate tpl) {
+            mPermToOp = new ArrayMap<>(tpl.ops.length);
+            for (int i=0; i<tpl.ops.length; i++) {
+                if (tpl.showPerms[i]) {
+                    String perm = AppOpsManager.opToPermission(tpl.ops[i]);
+                    if (perm != null && !mPermToOp.containsKey(perm)) {
+                        mPermToOp.put(perm, tpl.ops[i]);
+                        mOpToOrder[tpl.ops[i]] = i;
+                    }
+                }
+            }
+            perms = new String[mPermToOp.size()];
+            for (int i=0; i<perms.length; i++) {
+                perms[i] = mPermToOp.keyAt(i);
+            }
+        }
+
+        /**
+         * @return the op shown for {@param perm}, or -1 if the template doesn't show it.
+         */
+        int getOp(String perm) {
+            final Integer op = mPermToOp.get(perm);
+            return op != null ? op : -1;
+        }
+
+        int getOrder(int op) {
+            return mOpToOrder[op];
+        }
+    }
+
     public static final OpsTemplate LOCATION_TEMPLATE = new OpsTemplate(
             new int[] { AppOpsManager.OP_COARSE_LOCATION,
                     AppOpsManager.OP_FINE_LOCATION,
@@ -671,9 +722,7 @@ public class AppOpsState {
         final HashMap<String, AppEntry> appEntries = new HashMap<String, AppEntry>();
         final List<AppOpEntry> entries = new ArrayList<AppOpEntry>();
 
-        final ArrayList<String> perms = new ArrayList<String>();
-        final ArrayList<Integer> permOps = new ArrayList<Integer>();
-        final int[] opToOrder = new int[AppOpsManager._NUM_OP];
+        final PermissionIndex permIndex = tpl.getPermissionIndex();
 
         final Set<Integer> privacyGuardOps = new HashSet<>();
 
@@ -693,14 +742,6 @@ public class AppOpsState {
                             + " (" + tpl.ops[i] + ") with perm " + perm + " to privacyGuardOps");
                 }
             }
-            if (tpl.showPerms[i]) {
-                String perm = AppOpsManager.opToPermission(tpl.ops[i]);
-                if (perm != null && !perms.contains(perm)) {
-                    perms.add(perm);
-                    permOps.add(tpl.ops[i]);
-                    opToOrder[tpl.ops[i]] = i;
-                }
-            }
         }
 
         // Whether to apply hide user / system app filters
@@ -732,7 +773,7 @@ public class AppOpsState {
                         continue;
                     }
                     addOp(entries, pkgOps, appEntry, opEntry, packageName == null,
-                            packageName == null ? 0 : opToOrder[opEntry.getOp()]);
+                            packageName == null ? 0 : permIndex.getOrder(opEntry.getOp()));
                 }
             }
         }
@@ -746,9 +787,7 @@ public class AppOpsState {
             } catch (NameNotFoundException e) {
             }
         } else {
-            String[] permsArray = new String[perms.size()];
-            perms.toArray(permsArray);
-            apps = mPm.getPackagesHoldingPermissions(permsArray, 0);
+            apps = mPm.getPackagesHoldingPermissions(permIndex.perms, 0);
         }
         for (int i=0; i<apps.size(); i++) {
             PackageInfo appInfo = apps.get(i);
@@ -771,27 +810,27 @@ public class AppOpsState {
                     }
                     if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + ": requested perm "
                             + appInfo.requestedPermissions[j]);
-                    for (int k=0; k<perms.size(); k++) {
-                        if (!perms.get(k).equals(appInfo.requestedPermissions[j])) {
-                            continue;
-                        }
-                        if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + " perm " + perms.get(k)
-                                + " has op " + permOps.get(k) + ": " + appEntry.hasOp(permOps.get(k)));
-                        if (appEntry.hasOp(permOps.get(k))) {
-                            continue;
-                        }
-                        if (dummyOps == null) {
-                            dummyOps = new ArrayList<AppOpsManager.OpEntry>();
-                            pkgOps = new AppOpsManager.PackageOps(
-                                    appInfo.packageName, appInfo.applicationInfo.uid, dummyOps);
+                    final int op = permIndex.getOp(appInfo.requestedPermissions[j]);
+                    if (op < 0) {
+                        continue;
+                    }
+                    if (DEBUG) Log.d(TAG, "Pkg " + appInfo.packageName + " perm "
+                            + appInfo.requestedPermissions[j] + " has op " + op + ": "
+                            + appEntry.hasOp(op));
+                    if (appEntry.hasOp(op)) {
+                        continue;
+                    }
+                    if (dummyOps == null) {
+                        dummyOps = new ArrayList<AppOpsManager.OpEntry>();
+                        pkgOps = new AppOpsManager.PackageOps(
+                                appInfo.packageName, appInfo.applicationInfo.uid, dummyOps);
 
-                        }
-                        AppOpsManager.OpEntry opEntry = new AppOpsManager.OpEntry(
-                                permOps.get(k), AppOpsManager.MODE_ALLOWED, 0, 0, 0, -1, null, 0, 0);
-                        dummyOps.add(opEntry);
-                        addOp(entries, pkgOps, appEntry, opEntry, packageName == null,
-                                packageName == null ? 0 : opToOrder[opEntry.getOp()]);
                     }
+                    AppOpsManager.OpEntry opEntry = new AppOpsManager.OpEntry(
+                            op, AppOpsManager.MODE_ALLOWED, 0, 0, 0, -1, null, 0, 0);
+                    dummyOps.add(opEntry);
+                    addOp(entries, pkgOps, appEntry, opEntry, packageName == null,
+                            packageName == null ? 0 : permIndex.getOrder(opEntry.getOp()));
                 }
             }
         }
@@ -48,6 +48,7 @@ import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.settings.R;
 import com.android.settings.Utils;
 import com.android.settings.deviceinfo.StorageWizardMoveConfirm;
+import com.android.settings.deviceinfo.storage.PackageStorageStatsCache;
 import com.android.settingslib.RestrictedLockUtils;
 import com.android.settingslib.applications.ApplicationsState.Callbacks;
 import com.android.settingslib.applications.StorageStatsSource;
@@ -122,6 +123,7 @@ public class AppStorageSettings extends AppInfoWithHeader
 
     private ClearCacheObserver mClearCacheObserver;
     private ClearUserDataObserver mClearDataObserver;
+    private PackageStorageStatsCache mStatsCache;
 
     private VolumeInfo[] mCandidates;
     private AlertDialog.Builder mDialogBuilder;
@@ -136,6 +138,7 @@ public class AppStorageSettings extends AppInfoWithHeader
             mCacheCleared = mCacheCleared || mDataCleared;
         }
 
+        mStatsCache = PackageStorageStatsCache.getInstance(getContext());
         addPreferencesFromResource(R.xml.app_storage_settings);
         setupViews();
         initMoveDialog();
@@ -592,6 +595,10 @@ public class AppStorageSettings extends AppInfoWithHeader
 
     class ClearCacheObserver extends IPackageDataObserver.Stub {
         public void onRemoveCompleted(final String packageName, final boolean succeeded) {
+            if (succeeded) {
+                // Done here, as the fragment may be gone by the time the message is handled.
+                mStatsCache.invalidatePackage(packageName);
+            }
             final Message msg = mHandler.obtainMessage(MSG_CLEAR_CACHE);
             msg.arg1 = succeeded ? OP_SUCCESSFUL : OP_FAILED;
             mHandler.sendMessage(msg);
@@ -600,6 +607,9 @@ public class AppStorageSettings extends AppInfoWithHeader
 
     class ClearUserDataObserver extends IPackageDataObserver.Stub {
        public void onRemoveCompleted(final String packageName, final boolean succeeded) {
+           if (succeeded) {
+               mStatsCache.invalidatePackage(packageName);
+           }
            final Message msg = mHandler.obtainMessage(MSG_CLEAR_USER_DATA);
            msg.arg1 = succeeded ? OP_SUCCESSFUL : OP_FAILED;
            mHandler.sendMessage(msg);
@@ -913,22 +913,33 @@ public class ManageApplications extends InstrumentedPreferenceFragment
         private SectionInfo[] mSections = EMPTY_SECTIONS;
         private int[] mPositionToSectionIndex;
 
+        // Label index of mBaseEntries, rebuilt with it, and the section bucket of each base entry,
+        // computed once per rebuild when fast scroll is enabled.
+        private AppLabelPrefixIndex<ApplicationsState.AppEntry> mPrefixIndex;
+        private int[] mBaseEntryBuckets;
+        // Position in mBaseEntries of each entry of mEntries, or null if mEntries is unfiltered.
+        private int[] mEntryPositions;
+
         private Filter mFilter = new Filter() {
             @Override
             protected FilterResults performFiltering(CharSequence constraint) {
-                ArrayList<ApplicationsState.AppEntry> entries
-                        = applyPrefixFilter(constraint, mBaseEntries);
+                final PrefixFilterResult result = applyPrefixFilter(constraint, mPrefixIndex);
                 FilterResults fr = new FilterResults();
-                fr.values = entries;
-                fr.count = entries.size();
+                fr.values = result;
+                fr.count = result.entries != null ? result.entries.size() : 0;
                 return fr;
             }
 
             @Override
-            @SuppressWarnings("unchecked")
             protected void publishResults(CharSequence constraint, FilterResults results) {
                 mCurFilterPrefix = constraint;
-                mEntries = (ArrayList<ApplicationsState.AppEntry>) results.values;
+                PrefixFilterResult result = (PrefixFilterResult) results.values;
+                if (result.index != mPrefixIndex) {
+                    // The entries were rebuilt while filtering.
+                    result = applyPrefixFilter(constraint, mPrefixIndex);
+                }
+                mEntries = result.entries;
+                mEntryPositions = result.positions;
                 rebuildSections();
                 notifyDataSetChanged();
             }
@@ -1128,11 +1139,19 @@ public class ManageApplications extends InstrumentedPreferenceFragment
                 entries = removeDuplicateIgnoringUser(entries);
             }
             mBaseEntries = entries;
+            mBaseEntryBuckets = null;
             if (mBaseEntries != null) {
-                mEntries = applyPrefixFilter(mCurFilterPrefix, mBaseEntries);
+                mPrefixIndex = new AppLabelPrefixIndex<>(mBaseEntries,
+                        ApplicationsState.AppEntry::getNormalizedLabel);
+                final PrefixFilterResult result =
+                        applyPrefixFilter(mCurFilterPrefix, mPrefixIndex);
+                mEntries = result.entries;
+                mEntryPositions = result.positions;
                 rebuildSections();
             } else {
+                mPrefixIndex = null;
                 mEntries = null;
+                mEntryPositions = null;
                 mSections = EMPTY_SECTIONS;
                 mPositionToSectionIndex = null;
             }
@@ -1176,14 +1195,25 @@ public class ManageApplications extends InstrumentedPreferenceFragment
                     mIndex = index.buildImmutableIndex();
                 }
 
+                // Buckets only depend on the base entries, filtering just selects among them.
+                if (mBaseEntryBuckets == null) {
+                    final int baseCount = mBaseEntries.size();
+                    mBaseEntryBuckets = new int[baseCount];
+                    for (int pos = 0; pos < baseCount; pos++) {
+                        String label = mBaseEntries.get(pos).label;
+                        mBaseEntryBuckets[pos] =
+                                mIndex.getBucketIndex(TextUtils.isEmpty(label) ? "" : label);
+                    }
+                }
+
                 ArrayList<SectionInfo> sections = new ArrayList<>();
                 int lastSecId = -1;
                 int totalEntries = mEntries.size();
                 mPositionToSectionIndex = new int[totalEntries];
 
                 for (int pos = 0; pos < totalEntries; pos++) {
-                    String label = mEntries.get(pos).label;
-                    int secId = mIndex.getBucketIndex(TextUtils.isEmpty(label) ? "" : label);
+                    int secId = mBaseEntryBuckets[
+                            mEntryPositions != null ? mEntryPositions[pos] : pos];
                     if (secId != lastSecId) {
                         lastSecId = secId;
                         sections.add(new SectionInfo(mIndex.getBucket(secId).getLabel(), pos));
@@ -1207,24 +1237,24 @@ public class ManageApplications extends InstrumentedPreferenceFragment
             }
         }
 
-        ArrayList<ApplicationsState.AppEntry> applyPrefixFilter(CharSequence prefix,
-                ArrayList<ApplicationsState.AppEntry> origEntries) {
+        @VisibleForTesting
+        static PrefixFilterResult applyPrefixFilter(CharSequence prefix,
+                AppLabelPrefixIndex<ApplicationsState.AppEntry> index) {
+            if (index == null) {
+                return new PrefixFilterResult(null, null, null);
+            }
+            final ArrayList<ApplicationsState.AppEntry> origEntries = index.getItems();
             if (prefix == null || prefix.length() == 0) {
-                return origEntries;
-            } else {
-                String prefixStr = ApplicationsState.normalize(prefix.toString());
-                final String spacePrefixStr = " " + prefixStr;
-                ArrayList<ApplicationsState.AppEntry> newEntries
-                        = new ArrayList<ApplicationsState.AppEntry>();
-                for (int i = 0; i < origEntries.size(); i++) {
-                    ApplicationsState.AppEntry entry = origEntries.get(i);
-                    String nlabel = entry.getNormalizedLabel();
-                    if (nlabel.startsWith(prefixStr) || nlabel.indexOf(spacePrefixStr) != -1) {
-                        newEntries.add(entry);
-                    }
-                }
-                return newEntries;
+                return new PrefixFilterResult(index, origEntries, null);
             }
+            final int[] positions = index.getMatchingPositions(
+                    ApplicationsState.normalize(prefix.toString()));
+            final ArrayList<ApplicationsState.AppEntry> newEntries =
+                    new ArrayList<>(positions.length);
+            for (int position : positions) {
+                newEntries.add(origEntries.get(position));
+            }
+            return new PrefixFilterResult(index, newEntries, positions);
         }
 
         @Override
@@ -1511,6 +1541,24 @@ public class ManageApplications extends InstrumentedPreferenceFragment
         }
     }
 
+    /**
+     * Entries matching a filter prefix, along with the index they were looked up in.
+     */
+    @VisibleForTesting
+    static class PrefixFilterResult {
+        final AppLabelPrefixIndex<ApplicationsState.AppEntry> index;
+        final ArrayList<ApplicationsState.AppEntry> entries;
+        // Position of each entry in the indexed entries, or null if all entries matched.
+        final int[] positions;
+
+        PrefixFilterResult(AppLabelPrefixIndex<ApplicationsState.AppEntry> index,
+                ArrayList<ApplicationsState.AppEntry> entries, int[] positions) {
+            this.index = index;
+            this.entries = entries;
+            this.positions = positions;
+        }
+    }
+
     private static class SectionInfo {
         final String label;
         final int position;
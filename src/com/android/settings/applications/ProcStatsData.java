@@ -23,9 +23,11 @@ import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
 import android.text.format.Formatter;
 import android.util.ArrayMap;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.SparseArray;
 
 import com.android.internal.app.ProcessMap;
@@ -42,7 +44,9 @@ import com.android.settings.Utils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
@@ -54,12 +58,22 @@ public class ProcStatsData {
 
     private static ProcessStats sStatsXfer;
 
+    private static final int MAX_SNAPSHOTS = 4;
+
+    // Snapshots by the end time of their stats, shared by all instances, so that the entries
+    // computed from the same stats are reused, e.g. by the screens they are transferred to.
+    // Soft references let the entries be reclaimed once the memory screens are closed.
+    private static final LruCache<Long, SoftReference<Snapshot>> sSnapshots =
+            new LruCache<>(MAX_SNAPSHOTS);
+
     private PackageManager mPm;
     private Context mContext;
     private long memTotalTime;
 
     private IProcessStats mProcessStats;
     private ProcessStats mStats;
+    // Snapshot of mStats, null until the entries are computed.
+    private Snapshot mSnapshot;
 
     private boolean mUseUss;
     private long mDuration;
@@ -136,11 +150,45 @@ public class ProcStatsData {
         return pkgEntries;
     }
 
+    /**
+     * @param forceLoad true to read the stats again instead of using the current ones.
+     */
     public void refreshStats(boolean forceLoad) {
         if (mStats == null || forceLoad) {
-            load();
+            final ProcessStats stats = loadStats();
+            if (stats != null) {
+                mStats = stats;
+            }
+        }
+
+        if (mSnapshot == null || mSnapshot.endTime != mStats.mTimePeriodEndRealtime) {
+            mSnapshot = getSnapshot(mStats);
+        }
+        synchronized (mSnapshot) {
+            final String key = Arrays.toString(mMemStates) + "/" + Arrays.toString(mStates) + "/"
+                    + mUseUss;
+            Aggregation aggregation = mSnapshot.aggregations.get(key);
+            if (aggregation == null) {
+                aggregation = aggregate();
+                mSnapshot.aggregations.put(key, aggregation);
+            } else if (DEBUG) {
+                Log.d(TAG, "Reusing package entries for " + key);
+            }
+            // The cached entries are copied, as the callers update and sort them.
+            memTotalTime = aggregation.memTotalTime;
+            mMemInfo = aggregation.memInfo != null ? new MemInfo(aggregation.memInfo) : null;
+            pkgEntries = new ArrayList<>(aggregation.pkgEntries.size());
+            for (ProcStatsPackageEntry entry : aggregation.pkgEntries) {
+                pkgEntries.add(new ProcStatsPackageEntry(entry));
+            }
         }
+    }
 
+    /**
+     * Combines the processes of mStats into package entries.
+     */
+    @VisibleForTesting
+    Aggregation aggregate() {
         pkgEntries = new ArrayList<>();
 
         long now = SystemClock.uptimeMillis();
@@ -167,6 +215,7 @@ public class ProcStatsData {
         ProcStatsPackageEntry osPkg = createOsEntry(bgTotals, runTotals, totalMem,
                 mMemInfo.baseCacheRam);
         pkgEntries.add(osPkg);
+        return new Aggregation(pkgEntries, mMemInfo, memTotalTime);
     }
 
     private void createPkgMap(ArrayList<ProcStatsEntry> procEntries, ProcessDataCollection bgTotals,
@@ -340,21 +389,81 @@ public class ProcStatsData {
         return procEntries;
     }
 
-    private void load() {
+    /**
+     * @return the stats over mDuration, or null if they could not be loaded.
+     */
+    @VisibleForTesting
+    ProcessStats loadStats() {
         try {
             ParcelFileDescriptor pfd = mProcessStats.getStatsOverTime(mDuration);
-            mStats = new ProcessStats(false);
+            ProcessStats stats = new ProcessStats(false);
             InputStream is = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
-            mStats.read(is);
+            stats.read(is);
             try {
                 is.close();
             } catch (IOException e) {
             }
-            if (mStats.mReadError != null) {
-                Log.w(TAG, "Failure reading process stats: " + mStats.mReadError);
+            if (stats.mReadError != null) {
+                Log.w(TAG, "Failure reading process stats: " + stats.mReadError);
             }
+            return stats;
         } catch (RemoteException e) {
             Log.e(TAG, "RemoteException:", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the snapshot of the stats ending at the same time as {@param stats}, which are
+     * the same stats, or a new one.
+     */
+    private static Snapshot getSnapshot(ProcessStats stats) {
+        final long endTime = stats.mTimePeriodEndRealtime;
+        synchronized (sSnapshots) {
+            final SoftReference<Snapshot> ref = sSnapshots.get(endTime);
+            Snapshot snapshot = ref != null ? ref.get() : null;
+            if (snapshot == null) {
+                snapshot = new Snapshot(endTime);
+                sSnapshots.put(endTime, new SoftReference<>(snapshot));
+            } else if (DEBUG) {
+                Log.d(TAG, "Reusing snapshot of stats ending at " + endTime);
+            }
+            return snapshot;
+        }
+    }
+
+    @VisibleForTesting
+    static void clearSnapshots() {
+        synchronized (sSnapshots) {
+            sSnapshots.evictAll();
+        }
+    }
+
+    /**
+     * Package entries computed from the stats ending at {@link #endTime}. Entries are computed
+     * once per set of states, and copied for each instance using them.
+     */
+    private static class Snapshot {
+        final long endTime;
+        // Keyed by mem states, process states and whether USS is used, see refreshStats().
+        final ArrayMap<String, Aggregation> aggregations = new ArrayMap<>();
+
+        Snapshot(long endTime) {
+            this.endTime = endTime;
+        }
+    }
+
+    @VisibleForTesting
+    static class Aggregation {
+        final ArrayList<ProcStatsPackageEntry> pkgEntries;
+        final MemInfo memInfo;
+        final long memTotalTime;
+
+        Aggregation(ArrayList<ProcStatsPackageEntry> pkgEntries, MemInfo memInfo,
+                long memTotalTime) {
+            this.pkgEntries = pkgEntries;
+            this.memInfo = memInfo;
+            this.memTotalTime = memTotalTime;
         }
     }
 
@@ -372,6 +481,20 @@ public class ProcStatsData {
         double totalScale;
         long memTotalTime;
 
+        private MemInfo(MemInfo other) {
+            realUsedRam = other.realUsedRam;
+            realFreeRam = other.realFreeRam;
+            realTotalRam = other.realTotalRam;
+            baseCacheRam = other.baseCacheRam;
+            mMemStateWeights = other.mMemStateWeights.clone();
+            freeWeight = other.freeWeight;
+            usedWeight = other.usedWeight;
+            weightToRam = other.weightToRam;
+            totalRam = other.totalRam;
+            totalScale = other.totalScale;
+            memTotalTime = other.memTotalTime;
+        }
+
         private MemInfo(Context context, ProcessStats.TotalMemoryUseCollection totalMem,
                 long memTotalTime) {
             this.memTotalTime = memTotalTime;
@@ -22,7 +22,10 @@ import android.content.res.TypedArray;
 import android.graphics.Color;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.Icon;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.LinearLayoutManager;
@@ -31,6 +34,7 @@ import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.Log;
 import android.util.Pair;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -57,6 +61,7 @@ import com.android.settingslib.suggestions.SuggestionParser;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.DashboardItemHolder>
         implements SummaryLoader.SummaryConsumer {
@@ -87,6 +92,23 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
 
     @VisibleForTesting
     DashboardData mDashboardData;
+    // Latest data not yet applied to mDashboardData, see postDashboardDataChanged().
+    private DashboardData mPendingData;
+    // Incremented for every new data, so that a diff computed for older data is dropped.
+    private int mDataGeneration;
+    private boolean mFrameCallbackPosted;
+    @VisibleForTesting
+    Executor mDiffExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Choreographer.FrameCallback mDiffFrameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mFrameCallbackPosted = false;
+                    computeDiffInBackground();
+                }
+            };
 
     private View.OnClickListener mTileClickListener = new View.OnClickListener() {
         @Override
@@ -154,15 +176,14 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
             List<Tile> suggestions) {
         tintIcons(category, suggestions);
 
-        final DashboardData prevData = mDashboardData;
-        mDashboardData = new DashboardData.Builder(prevData)
+        final DashboardData data = new DashboardData.Builder(getLatestData())
                 .setSuggestions(suggestions.subList(0,
                         Math.min(suggestions.size(), MAX_SUGGESTION_TO_SHOW)))
                 .setCategory(category)
                 .build();
-        notifyDashboardDataChanged(prevData);
+        postDashboardDataChanged(data);
         List<Tile> shownSuggestions = null;
-        final int mode = mDashboardData.getSuggestionConditionMode();
+        final int mode = data.getSuggestionConditionMode();
         if (mode == DashboardData.HEADER_MODE_DEFAULT) {
             shownSuggestions = suggestions.subList(0,
                     Math.min(suggestions.size(), DashboardData.DEFAULT_SUGGESTION_COUNT));
@@ -183,21 +204,17 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
 
     public void setCategory(DashboardCategory category) {
         tintIcons(category, null);
-        final DashboardData prevData = mDashboardData;
         Log.d(TAG, "adapter setCategory called");
-        mDashboardData = new DashboardData.Builder(prevData)
+        postDashboardDataChanged(new DashboardData.Builder(getLatestData())
                 .setCategory(category)
-                .build();
-        notifyDashboardDataChanged(prevData);
+                .build());
     }
 
     public void setConditions(List<Condition> conditions) {
-        final DashboardData prevData = mDashboardData;
         Log.d(TAG, "adapter setConditions called");
-        mDashboardData = new DashboardData.Builder(prevData)
+        postDashboardDataChanged(new DashboardData.Builder(getLatestData())
                 .setConditions(conditions)
-                .build();
-        notifyDashboardDataChanged(prevData);
+                .build());
     }
 
     public void onSuggestionDismissed(Tile suggestion) {
@@ -208,11 +225,9 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
         if (suggestions.size() == 1) {
             // The only suggestion is dismissed, and the the empty suggestion container will
             // remain as the dashboard item. Need to refresh the dashboard list.
-            final DashboardData prevData = mDashboardData;
-            mDashboardData = new DashboardData.Builder(prevData)
+            applyDashboardData(new DashboardData.Builder(getLatestData())
                     .setSuggestions(null)
-                    .build();
-            notifyDashboardDataChanged(prevData);
+                    .build());
         } else {
             mSuggestionAdapter.removeSuggestion(suggestion);
         }
@@ -263,10 +278,9 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
                 holder.itemView.setOnClickListener(v -> {
                     mMetricsFeatureProvider.action(mContext,
                             MetricsEvent.ACTION_SETTINGS_CONDITION_EXPAND, false);
-                    DashboardData prevData = mDashboardData;
-                    mDashboardData = new DashboardData.Builder(prevData).setSuggestionConditionMode(
-                            DashboardData.HEADER_MODE_COLLAPSED).build();
-                    notifyDashboardDataChanged(prevData);
+                    applyDashboardData(new DashboardData.Builder(getLatestData())
+                            .setSuggestionConditionMode(DashboardData.HEADER_MODE_COLLAPSED)
+                            .build());
                     mRecyclerView.scrollToPosition(SUGGESTION_CONDITION_HEADER_POSITION);
                 });
                 break;
@@ -320,6 +334,68 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
         return mSuggestionAdapter.getSuggestion(position);
     }
 
+    /**
+     * @return the most recent data, including updates which are not displayed yet.
+     */
+    private DashboardData getLatestData() {
+        return mPendingData != null ? mPendingData : mDashboardData;
+    }
+
+    /**
+     * Displays {@param data} immediately, dropping any update in progress which it supersedes.
+     * Used for changes made by the user, which should be reflected without delay.
+     */
+    private void applyDashboardData(DashboardData data) {
+        mDataGeneration++;
+        mPendingData = null;
+        final DashboardData prevData = mDashboardData;
+        mDashboardData = data;
+        notifyDashboardDataChanged(prevData);
+    }
+
+    /**
+     * Schedules the display of {@param data}. Updates posted within the same frame are coalesced,
+     * and the diff against the displayed data is computed on a background thread.
+     */
+    @VisibleForTesting
+    void postDashboardDataChanged(DashboardData data) {
+        if (!mFirstFrameDrawn) {
+            // Nothing is displayed yet, so there is nothing to diff against.
+            applyDashboardData(data);
+            return;
+        }
+        mDataGeneration++;
+        mPendingData = data;
+        if (!mFrameCallbackPosted) {
+            mFrameCallbackPosted = true;
+            Choreographer.getInstance().postFrameCallback(mDiffFrameCallback);
+        }
+    }
+
+    private void computeDiffInBackground() {
+        final DashboardData prevData = mDashboardData;
+        final DashboardData nextData = mPendingData;
+        if (nextData == null) {
+            return;
+        }
+        final int generation = mDataGeneration;
+        mDiffExecutor.execute(() -> {
+            final DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(
+                    new DashboardData.ItemsDataDiffCallback(
+                            prevData.getItemList(), nextData.getItemList()));
+            mHandler.post(() -> {
+                // Newer data arrived, or the displayed data changed, while diffing: the newer
+                // data will be diffed on its own.
+                if (generation != mDataGeneration || prevData != mDashboardData) {
+                    return;
+                }
+                mPendingData = null;
+                mDashboardData = nextData;
+                diffResult.dispatchUpdatesTo(DashboardAdapter.this);
+            });
+        });
+    }
+
     @VisibleForTesting
     void notifyDashboardDataChanged(DashboardData prevData) {
         if (mFirstFrameDrawn && prevData != null) {
@@ -429,11 +505,9 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
                 mMetricsFeatureProvider.action(mContext,
                         MetricsEvent.ACTION_SETTINGS_CONDITION_EXPAND, true);
             }
-            DashboardData prevData = mDashboardData;
             final boolean wasCollapsed = curMode == DashboardData.HEADER_MODE_COLLAPSED;
-            mDashboardData = new DashboardData.Builder(prevData)
-                    .setSuggestionConditionMode(nextMode).build();
-            notifyDashboardDataChanged(prevData);
+            applyDashboardData(new DashboardData.Builder(getLatestData())
+                    .setSuggestionConditionMode(nextMode).build());
             if (wasCollapsed) {
                 mRecyclerView.scrollToPosition(SUGGESTION_CONDITION_HEADER_POSITION);
             }
@@ -507,8 +581,9 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
     }
 
     void onSaveInstanceState(Bundle outState) {
-        final List<Tile> suggestions = mDashboardData.getSuggestions();
-        final DashboardCategory category = mDashboardData.getCategory();
+        final DashboardData data = getLatestData();
+        final List<Tile> suggestions = data.getSuggestions();
+        final DashboardCategory category = data.getCategory();
         if (suggestions != null) {
             outState.putParcelableArrayList(STATE_SUGGESTION_LIST, new ArrayList<>(suggestions));
         }
@@ -516,8 +591,7 @@ public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.Dash
             outState.putParcelable(STATE_CATEGORY_LIST, category);
         }
         outState.putStringArrayList(STATE_SUGGESTIONS_SHOWN_LOGGED, mSuggestionsShownLogged);
-        outState.putInt(STATE_SUGGESTION_CONDITION_MODE,
-                mDashboardData.getSuggestionConditionMode());
+        outState.putInt(STATE_SUGGESTION_CONDITION_MODE, data.getSuggestionConditionMode());
     }
 
     private void updateConditionIcons(List<Icon> icons, ViewGroup parent) {
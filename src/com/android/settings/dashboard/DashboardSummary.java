@@ -21,12 +21,14 @@ import android.content.Context;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.widget.LinearLayoutManager;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.settings.R;
@@ -36,6 +38,7 @@ import com.android.settings.dashboard.conditional.ConditionManager;
 import com.android.settings.dashboard.conditional.ConditionManager.ConditionListener;
 import com.android.settings.dashboard.conditional.FocusRecyclerView;
 import com.android.settings.dashboard.conditional.FocusRecyclerView.FocusListener;
+import com.android.settings.dashboard.suggestions.EventStore;
 import com.android.settings.dashboard.suggestions.SuggestionDismissController;
 import com.android.settings.dashboard.suggestions.SuggestionFeatureProvider;
 import com.android.settings.dashboard.suggestions.SuggestionsChecks;
@@ -63,6 +66,9 @@ public class DashboardSummary extends InstrumentedFragment
 
     private static final String EXTRA_SCROLL_POSITION = "scroll_position";
 
+    @VisibleForTesting
+    static final String FIRST_RENDER_TIME = "dashboard_first_render_ms";
+
     private final Handler mHandler = new Handler();
 
     private FocusRecyclerView mDashboard;
@@ -76,6 +82,7 @@ public class DashboardSummary extends InstrumentedFragment
     private SuggestionFeatureProvider mSuggestionFeatureProvider;
     private boolean isOnCategoriesChangedCalled;
     private boolean mOnConditionsChangedCalled;
+    private long mCreateTime;
 
     @Override
     public int getMetricsCategory() {
@@ -85,6 +92,7 @@ public class DashboardSummary extends InstrumentedFragment
     @Override
     public void onCreate(Bundle savedInstanceState) {
         long startTime = System.currentTimeMillis();
+        mCreateTime = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
         final Activity activity = getActivity();
         mDashboardFeatureProvider = FeatureFactory.getFactory(activity)
@@ -107,6 +115,26 @@ public class DashboardSummary extends InstrumentedFragment
         }
     }
 
+    /**
+     * Logs the time from the creation of the fragment to the first frame showing dashboard items.
+     */
+    private final ViewTreeObserver.OnPreDrawListener mFirstRenderListener =
+            new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    if (mAdapter == null || mAdapter.getItemCount() == 0) {
+                        return true;
+                    }
+                    mDashboard.getViewTreeObserver().removeOnPreDrawListener(this);
+                    final int elapsed = (int) (SystemClock.elapsedRealtime() - mCreateTime);
+                    mMetricsFeatureProvider.histogram(getContext(), FIRST_RENDER_TIME, elapsed);
+                    if (DEBUG_TIMING) {
+                        Log.d(TAG, "first render took " + elapsed + " ms");
+                    }
+                    return true;
+                }
+            };
+
     @Override
     public void onDestroy() {
         mSummaryLoader.release();
@@ -146,6 +174,7 @@ public class DashboardSummary extends InstrumentedFragment
         if (!getActivity().isChangingConfigurations()) {
             mAdapter.onPause();
         }
+        EventStore.flushPendingEvents();
     }
 
     @Override
@@ -200,6 +229,7 @@ public class DashboardSummary extends InstrumentedFragment
         mDashboard.setAdapter(mAdapter);
         mDashboard.setItemAnimator(new DashboardItemAnimator());
         mSummaryLoader.setSummaryConsumer(mAdapter);
+        mDashboard.getViewTreeObserver().addOnPreDrawListener(mFirstRenderListener);
         ActionBarShadowController.attachToRecyclerView(
                 getActivity().findViewById(R.id.search_bar_container), getLifecycle(), mDashboard);
 
@@ -21,8 +21,8 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
-import android.text.TextUtils;
 import android.util.Log;
+import android.util.Pair;
 
 import com.android.settings.SettingsActivity;
 import com.android.settings.overlay.FeatureFactory;
@@ -33,8 +33,10 @@ import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import static com.android.settings.dashboard.DashboardFragmentRegistry.CATEGORY_KEY_TO_PARENT_MAP;
@@ -64,6 +66,13 @@ public class SiteMapManager {
 
     private final List<SiteMapPair> mPairs = new ArrayList<>();
 
+    /**
+     * Full breadcrumb of every child page in {@link #mPairs}, keyed by (child class, child title).
+     * Built once in {@link #init(Context)} and never modified afterwards, so it can be read
+     * without locking. Null until initialized.
+     */
+    private volatile Map<Pair<String, String>, List<String>> mBreadcrumbs;
+
     private boolean mInitialized;
 
     /**
@@ -72,33 +81,26 @@ public class SiteMapManager {
      * <p/>
      * Not all screens have a full breadcrumb path leading up to root, it's because either some
      * page in the breadcrumb path is not indexed, or it's only reachable via search.
+     * <p/>
+     * The returned list is shared between callers and must not be modified.
      */
     @WorkerThread
-    public synchronized List<String> buildBreadCrumb(Context context, String clazz,
-            String screenTitle) {
-        init(context);
-        final long startTime = System.currentTimeMillis();
-        final List<String> breadcrumbs = new ArrayList<>();
-        if (!mInitialized) {
-            Log.w(TAG, "SiteMap is not initialized yet, skipping");
-            return breadcrumbs;
-        }
-        breadcrumbs.add(screenTitle);
-        String currentClass = clazz;
-        String currentTitle = screenTitle;
-        // Look up current page's parent, if found add it to breadcrumb string list, and repeat.
-        while (true) {
-            final SiteMapPair pair = lookUpParent(currentClass, currentTitle);
-            if (pair == null) {
-                if (DEBUG_TIMING) {
-                    Log.d(TAG, "BreadCrumb timing: " + (System.currentTimeMillis() - startTime));
-                }
-                return breadcrumbs;
+    public List<String> buildBreadCrumb(Context context, String clazz, String screenTitle) {
+        Map<Pair<String, String>, List<String>> breadcrumbs = mBreadcrumbs;
+        if (breadcrumbs == null) {
+            init(context);
+            breadcrumbs = mBreadcrumbs;
+            if (breadcrumbs == null) {
+                Log.w(TAG, "SiteMap is not initialized yet, skipping");
+                return new ArrayList<>();
             }
-            breadcrumbs.add(0, pair.parentTitle);
-            currentClass = pair.parentClass;
-            currentTitle = pair.parentTitle;
         }
+        final List<String> breadcrumb = breadcrumbs.get(Pair.create(clazz, screenTitle));
+        if (breadcrumb != null) {
+            return breadcrumb;
+        }
+        // Page has no known parent.
+        return Collections.singletonList(screenTitle);
     }
 
     /**
@@ -121,8 +123,10 @@ public class SiteMapManager {
         // First load site map from static index table.
         final Context appContext = context.getApplicationContext();
         final SQLiteDatabase db = IndexDatabaseHelper.getInstance(appContext).getReadableDatabase();
-        Cursor sitemap = db.query(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, SITE_MAP_COLUMNS, null,
-                null, null, null, null);
+        // The index keeps the rows of several locales, only use those of the current one.
+        final String[] localeArgs = {Locale.getDefault().toString()};
+        Cursor sitemap = db.query(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, SITE_MAP_COLUMNS,
+                SiteMapColumns.LOCALE + " = ?", localeArgs, null, null, null);
         while (sitemap.moveToNext()) {
             final SiteMapPair pair = new SiteMapPair(
                     sitemap.getString(sitemap.getColumnIndex(SiteMapColumns.PARENT_CLASS)),
@@ -137,7 +141,8 @@ public class SiteMapManager {
         // to figure out the display name for any fragment if it's injected dynamically through IA.
         final Map<String, String> classToTitleMap = new HashMap<>();
         final Cursor titleQuery = db.query(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX,
-                CLASS_TO_SCREEN_TITLE_COLUMNS, null, null, null, null, null);
+                CLASS_TO_SCREEN_TITLE_COLUMNS, IndexColumns.LOCALE + " = ?", localeArgs, null, null,
+                null);
         while (titleQuery.moveToNext()) {
             classToTitleMap.put(
                     titleQuery.getString(titleQuery.getColumnIndex(IndexColumns.CLASS_NAME)),
@@ -174,6 +179,7 @@ public class SiteMapManager {
                 mPairs.add(new SiteMapPair(parentClass, parentName, childClass, childTitle));
             }
         }
+        mBreadcrumbs = buildBreadcrumbIndex(mPairs);
         // Done.
         mInitialized = true;
         if (DEBUG_TIMING) {
@@ -181,21 +187,66 @@ public class SiteMapManager {
         }
     }
 
-    @WorkerThread
-    private SiteMapPair lookUpParent(String clazz, String title) {
-        for (SiteMapPair pair : mPairs) {
-            if (TextUtils.equals(pair.childClass, clazz)
-                    && TextUtils.equals(title, pair.childTitle)) {
-                return pair;
+    /**
+     * Materializes the breadcrumb of every child page from the list of parent-child pairs.
+     * When several pairs share the same child, the first one is used as its parent.
+     */
+    @VisibleForTesting
+    static Map<Pair<String, String>, List<String>> buildBreadcrumbIndex(
+            List<SiteMapPair> pairs) {
+        final Map<Pair<String, String>, SiteMapPair> parents = new HashMap<>();
+        for (SiteMapPair pair : pairs) {
+            parents.putIfAbsent(Pair.create(pair.childClass, pair.childTitle), pair);
+        }
+
+        final Map<Pair<String, String>, List<String>> breadcrumbs = new HashMap<>();
+        final List<Pair<String, String>> path = new ArrayList<>();
+        for (Pair<String, String> child : parents.keySet()) {
+            if (breadcrumbs.containsKey(child)) {
+                continue;
+            }
+            // Walk up until the root, or a page whose breadcrumb is already known.
+            path.clear();
+            Pair<String, String> current = child;
+            List<String> rootBreadcrumb;
+            while (true) {
+                rootBreadcrumb = breadcrumbs.get(current);
+                if (rootBreadcrumb != null) {
+                    break;
+                }
+                final SiteMapPair pair = parents.get(current);
+                if (pair == null) {
+                    // Reached a page without parent.
+                    rootBreadcrumb = Collections.singletonList(current.second);
+                    break;
+                }
+                if (path.contains(current)) {
+                    // The site map has a cycle, stop climbing.
+                    rootBreadcrumb = Collections.emptyList();
+                    break;
+                }
+                path.add(current);
+                current = Pair.create(pair.parentClass, pair.parentTitle);
+            }
+            // Then materialize the breadcrumb of each page on the way back down.
+            List<String> breadcrumb = rootBreadcrumb;
+            for (int i = path.size() - 1; i >= 0; i--) {
+                final Pair<String, String> page = path.get(i);
+                final List<String> pageBreadcrumb = new ArrayList<>(breadcrumb.size() + 1);
+                pageBreadcrumb.addAll(breadcrumb);
+                pageBreadcrumb.add(page.second);
+                breadcrumb = Collections.unmodifiableList(pageBreadcrumb);
+                breadcrumbs.put(page, breadcrumb);
             }
         }
-        return null;
+        return Collections.unmodifiableMap(breadcrumbs);
     }
 
     /**
      * Data model for a parent-child page pair.
      */
-    private static class SiteMapPair {
+    @VisibleForTesting
+    static class SiteMapPair {
         public final String parentClass;
         public final String parentTitle;
         public final String childClass;
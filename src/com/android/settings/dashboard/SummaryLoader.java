@@ -19,6 +19,7 @@ import android.app.Activity;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.IntentFilter;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -30,6 +31,7 @@ import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
+import android.view.Choreographer;
 
 import com.android.settings.SettingsActivity;
 import com.android.settings.overlay.FeatureFactory;
@@ -37,7 +39,11 @@ import com.android.settingslib.drawer.DashboardCategory;
 import com.android.settingslib.drawer.Tile;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 public class SummaryLoader {
     private static final boolean DEBUG = DashboardSummary.DEBUG;
@@ -45,6 +51,11 @@ public class SummaryLoader {
 
     public static final String SUMMARY_PROVIDER_FACTORY = "SUMMARY_PROVIDER_FACTORY";
 
+    // Factories by fragment class name, shared by all activities. Fragments without a factory
+    // map to NO_FACTORY, so that the reflective lookup is only done once per class.
+    private static final ArrayMap<String, SummaryProviderFactory> sFactories = new ArrayMap<>();
+    private static final SummaryProviderFactory NO_FACTORY = (activity, summaryLoader) -> null;
+
     private final Activity mActivity;
     private final ArrayMap<SummaryProvider, ComponentName> mSummaryProviderMap = new ArrayMap<>();
     private final ArrayMap<String, CharSequence> mSummaryTextMap = new ArrayMap<>();
@@ -60,22 +71,32 @@ public class SummaryLoader {
     private boolean mWorkerListening;
     private ArraySet<BroadcastReceiver> mReceivers = new ArraySet<>();
 
+    private final Choreographer mChoreographer;
+    // Summaries set since the last frame, by tile component. Guarded by itself.
+    private final ArrayMap<ComponentName, CharSequence> mPendingSummaries = new ArrayMap<>();
+    private final Choreographer.FrameCallback mDeliverSummaries =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    deliverPendingSummaries();
+                }
+            };
+
     public SummaryLoader(Activity activity, List<DashboardCategory> categories) {
         mDashboardFeatureProvider = FeatureFactory.getFactory(activity)
                 .getDashboardFeatureProvider(activity);
         mCategoryKey = null;
         mHandler = new Handler();
+        mChoreographer = Choreographer.getInstance();
         mWorkerThread = new HandlerThread("SummaryLoader", Process.THREAD_PRIORITY_BACKGROUND);
         mWorkerThread.start();
         mWorker = new Worker(mWorkerThread.getLooper());
         mActivity = activity;
+        final List<Tile> allTiles = new ArrayList<>();
         for (int i = 0; i < categories.size(); i++) {
-            List<Tile> tiles = categories.get(i).tiles;
-            for (int j = 0; j < tiles.size(); j++) {
-                Tile tile = tiles.get(j);
-                mWorker.obtainMessage(Worker.MSG_GET_PROVIDER, tile).sendToTarget();
-            }
+            allTiles.addAll(categories.get(i).tiles);
         }
+        mWorker.obtainMessage(Worker.MSG_GET_PROVIDERS, allTiles).sendToTarget();
     }
 
     public SummaryLoader(Activity activity, String categoryKey) {
@@ -83,6 +104,7 @@ public class SummaryLoader {
                 .getDashboardFeatureProvider(activity);
         mCategoryKey = categoryKey;
         mHandler = new Handler();
+        mChoreographer = Choreographer.getInstance();
         mWorkerThread = new HandlerThread("SummaryLoader", Process.THREAD_PRIORITY_BACKGROUND);
         mWorkerThread.start();
         mWorker = new Worker(mWorkerThread.getLooper());
@@ -94,10 +116,8 @@ public class SummaryLoader {
             return;
         }
 
-        List<Tile> tiles = category.tiles;
-        for (Tile tile : tiles) {
-            mWorker.obtainMessage(Worker.MSG_GET_PROVIDER, tile).sendToTarget();
-        }
+        mWorker.obtainMessage(Worker.MSG_GET_PROVIDERS, new ArrayList<>(category.tiles))
+                .sendToTarget();
     }
 
     public void release() {
@@ -110,28 +130,58 @@ public class SummaryLoader {
         mSummaryConsumer = summaryConsumer;
     }
 
+    /**
+     * Sets the summary of the tile of {@param provider}. Can be called from any thread; the
+     * summaries set within a frame are delivered together at the next frame.
+     */
     public void setSummary(SummaryProvider provider, final CharSequence summary) {
-        final ComponentName component = mSummaryProviderMap.get(provider);
-        mHandler.post(new Runnable() {
-            @Override
-            public void run() {
-
-                final Tile tile = getTileFromCategory(
-                        mDashboardFeatureProvider.getTilesForCategory(mCategoryKey), component);
+        final ComponentName component;
+        synchronized (this) {
+            component = mSummaryProviderMap.get(provider);
+        }
+        if (component == null) {
+            if (DEBUG) {
+                Log.d(TAG, "Unknown provider " + provider);
+            }
+            return;
+        }
+        synchronized (mPendingSummaries) {
+            final boolean scheduled = !mPendingSummaries.isEmpty();
+            mPendingSummaries.put(component, summary);
+            if (!scheduled) {
+                mChoreographer.postFrameCallback(mDeliverSummaries);
+            }
+        }
+    }
 
-                if (tile == null) {
-                    if (DEBUG) {
-                        Log.d(TAG, "Can't find tile for " + component);
-                    }
-                    return;
-                }
+    @VisibleForTesting
+    void deliverPendingSummaries() {
+        final ArrayMap<ComponentName, CharSequence> summaries;
+        synchronized (mPendingSummaries) {
+            summaries = new ArrayMap<>(mPendingSummaries);
+            mPendingSummaries.clear();
+        }
+        if (summaries.isEmpty()) {
+            return;
+        }
+        final DashboardCategory category =
+                mDashboardFeatureProvider.getTilesForCategory(mCategoryKey);
+        for (int i = 0; i < summaries.size(); i++) {
+            final ComponentName component = summaries.keyAt(i);
+            final CharSequence summary = summaries.valueAt(i);
+            final Tile tile = getTileFromCategory(category, component);
+            if (tile == null) {
                 if (DEBUG) {
-                    Log.d(TAG, "setSummary " + tile.title + " - " + summary);
+                    Log.d(TAG, "Can't find tile for " + component);
                 }
-
-                updateSummaryIfNeeded(tile, summary);
+                continue;
             }
-        });
+            if (DEBUG) {
+                Log.d(TAG, "setSummary " + tile.title + " - " + summary);
+            }
+
+            updateSummaryIfNeeded(tile, summary);
+        }
     }
 
     @VisibleForTesting
@@ -170,6 +220,15 @@ public class SummaryLoader {
     }
 
     private SummaryProvider getSummaryProvider(Tile tile) {
+        final String clsName = getFragmentClassName(tile);
+        if (clsName == null) {
+            return null;
+        }
+        final SummaryProviderFactory factory = getSummaryProviderFactory(clsName);
+        return factory != null ? factory.createSummaryProvider(mActivity, this) : null;
+    }
+
+    private String getFragmentClassName(Tile tile) {
         if (!mActivity.getPackageName().equals(tile.intent.getComponent().getPackageName())) {
             // Not within Settings, can't load Summary directly.
             // TODO: Load summary indirectly.
@@ -185,11 +244,39 @@ public class SummaryLoader {
             if (DEBUG) Log.d(TAG, "No fragment specified for " + tile.intent.getComponent());
             return null;
         }
+        return clsName;
+    }
+
+    /**
+     * @return the {@link #SUMMARY_PROVIDER_FACTORY} of {@param clsName}, or null if it has none.
+     * The result is cached for the lifetime of the process.
+     */
+    @VisibleForTesting
+    static SummaryProviderFactory getSummaryProviderFactory(String clsName) {
+        synchronized (sFactories) {
+            final SummaryProviderFactory cached = sFactories.get(clsName);
+            if (cached != null) {
+                return cached != NO_FACTORY ? cached : null;
+            }
+        }
+        final SummaryProviderFactory factory = loadSummaryProviderFactory(clsName);
+        synchronized (sFactories) {
+            sFactories.put(clsName, factory != null ? factory : NO_FACTORY);
+        }
+        return factory;
+    }
+
+    private static boolean hasSummaryProviderFactory(String clsName) {
+        synchronized (sFactories) {
+            return sFactories.containsKey(clsName);
+        }
+    }
+
+    private static SummaryProviderFactory loadSummaryProviderFactory(String clsName) {
         try {
             Class<?> cls = Class.forName(clsName);
             Field field = cls.getField(SUMMARY_PROVIDER_FACTORY);
-            SummaryProviderFactory factory = (SummaryProviderFactory) field.get(null);
-            return factory.createSummaryProvider(mActivity, this);
+            return (SummaryProviderFactory) field.get(null);
         } catch (ClassNotFoundException e) {
             if (DEBUG) Log.d(TAG, "Couldn't find " + clsName, e);
         } catch (NoSuchFieldException e) {
@@ -253,8 +340,47 @@ public class SummaryLoader {
         }
     }
 
-    private synchronized void makeProviderW(Tile tile) {
-        SummaryProvider provider = getSummaryProvider(tile);
+    /**
+     * Creates the providers of {@param tiles} on the worker thread. The reflective lookups of
+     * factories that are not cached yet are done in parallel on the shared
+     * {@link AsyncTask#THREAD_POOL_EXECUTOR} first; the providers themselves are always created
+     * here, as they may create handlers or register receivers on this thread's looper.
+     */
+    private void makeProvidersW(List<Tile> tiles) {
+        final ArraySet<String> uncached = new ArraySet<>();
+        for (Tile tile : tiles) {
+            final String clsName = getFragmentClassName(tile);
+            if (clsName != null && !hasSummaryProviderFactory(clsName)) {
+                uncached.add(clsName);
+            }
+        }
+        if (uncached.size() > 1) {
+            final List<Future<SummaryProviderFactory>> lookups = new ArrayList<>(uncached.size());
+            for (String clsName : uncached) {
+                final FutureTask<SummaryProviderFactory> lookup =
+                        new FutureTask<>(() -> getSummaryProviderFactory(clsName));
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(lookup);
+                lookups.add(lookup);
+            }
+            try {
+                for (Future<SummaryProviderFactory> lookup : lookups) {
+                    lookup.get();
+                }
+            } catch (ExecutionException e) {
+                // The lookup is retried below, where its failure is logged per tile.
+                Log.w(TAG, "Problem looking up summary provider factory", e.getCause());
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while looking up summary provider factories", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Tile tile : tiles) {
+            addProviderW(tile, getSummaryProvider(tile));
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void addProviderW(Tile tile, SummaryProvider provider) {
         if (provider != null) {
             if (DEBUG) Log.d(TAG, "Creating " + tile);
             mSummaryProviderMap.put(provider, tile.intent.getComponent());
@@ -290,7 +416,7 @@ public class SummaryLoader {
     }
 
     private class Worker extends Handler {
-        private static final int MSG_GET_PROVIDER = 1;
+        private static final int MSG_GET_PROVIDERS = 1;
         private static final int MSG_SET_LISTENING = 2;
 
         public Worker(Looper looper) {
@@ -300,9 +426,9 @@ public class SummaryLoader {
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
-                case MSG_GET_PROVIDER:
-                    Tile tile = (Tile) msg.obj;
-                    makeProviderW(tile);
+                case MSG_GET_PROVIDERS:
+                    List<Tile> tiles = (List<Tile>) msg.obj;
+                    makeProvidersW(tiles);
                     break;
                 case MSG_SET_LISTENING:
                     boolean listening = msg.arg1 != 0;
@@ -17,14 +17,23 @@ package com.android.settings.dashboard.suggestions;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Stores suggestion related statistics.
+ *
+ * Metrics are kept in memory, shared by all instances in the process, as one long[] per package.
+ * Writes are coalesced and persisted in a single batch, either {@link #FLUSH_DELAY_MS} after the
+ * first pending write or when {@link #flushPendingEvents()} is called.
  */
 public class EventStore {
 
@@ -36,15 +45,25 @@ public class EventStore {
     public static final String METRIC_LAST_EVENT_TIME = "last_event_time";
     public static final String METRIC_COUNT = "count";
 
-    private static final Set<String> EVENTS = new HashSet<String>(
-            Arrays.asList(new String[] {EVENT_SHOWN, EVENT_DISMISSED, EVENT_CLICKED}));
-    private static final Set<String> METRICS = new HashSet<String>(
-            Arrays.asList(new String[] {METRIC_LAST_EVENT_TIME, METRIC_COUNT}));
+    private static final String[] EVENTS = {EVENT_SHOWN, EVENT_DISMISSED, EVENT_CLICKED};
+    private static final String[] METRICS = {METRIC_LAST_EVENT_TIME, METRIC_COUNT};
+    private static final int METRIC_INDEX_LAST_EVENT_TIME = 0;
+    private static final int METRIC_INDEX_COUNT = 1;
+    private static final int METRICS_PER_PACKAGE = EVENTS.length * METRICS.length;
+
+    @VisibleForTesting
+    static final long FLUSH_DELAY_MS = 10000;
+
+    private static final String PREF_KEY_PREFIX = "setting_suggestion_";
+    private static final String PREF_KEY_EVENTS_PREFIX = "setting_suggestion_events_";
+    private static final String VALUE_SEPARATOR = ",";
 
-    private final SharedPreferences mSharedPrefs;
+    private static Backend sBackend;
+
+    private final Backend mBackend;
 
     public EventStore(Context context) {
-        mSharedPrefs = context.getSharedPreferences(TAG, Context.MODE_PRIVATE);
+        mBackend = getBackend(context);
     }
 
     /**
@@ -53,14 +72,12 @@ public class EventStore {
      * @param eventType: Type of event (one of {@link #EVENTS}).
      */
     public void writeEvent(String pkgName, String eventType) {
-        if (!EVENTS.contains(eventType)) {
+        final int eventIndex = indexOf(EVENTS, eventType);
+        if (eventIndex < 0) {
             Log.w(TAG, "Reported event type " + eventType + " is not a valid type!");
             return;
         }
-        final String lastTimePrefKey = getPrefKey(pkgName, eventType, METRIC_LAST_EVENT_TIME);
-        final String countPrefKey = getPrefKey(pkgName, eventType, METRIC_COUNT);
-        writePref(lastTimePrefKey, System.currentTimeMillis());
-        writePref(countPrefKey, readPref(countPrefKey, (long) 0) + 1);
+        mBackend.writeEvent(pkgName, eventIndex, System.currentTimeMillis());
     }
 
     /**
@@ -71,32 +88,196 @@ public class EventStore {
      * @return the corresponding metric.
      */
     public long readMetric(String pkgName, String eventType, String metricType) {
-        if (!EVENTS.contains(eventType)) {
+        final int eventIndex = indexOf(EVENTS, eventType);
+        final int metricIndex = indexOf(METRICS, metricType);
+        if (eventIndex < 0) {
             Log.w(TAG, "Reported event type " + eventType + " is not a valid event!");
             return 0;
-        } else if (!METRICS.contains(metricType)) {
+        } else if (metricIndex < 0) {
             Log.w(TAG, "Required stat type + " + metricType + " is not a valid stat!");
             return 0;
         }
-        return readPref(getPrefKey(pkgName, eventType, metricType), (long) 0);
+        return mBackend.readMetric(pkgName, getMetricIndex(eventIndex, metricIndex));
     }
 
-    private void writePref(String prefKey, long value) {
-        mSharedPrefs.edit().putLong(prefKey, value).apply();
+    /**
+     * Persists the pending events right away, e.g. when the dashboard is paused.
+     */
+    public static void flushPendingEvents() {
+        final Backend backend;
+        synchronized (EventStore.class) {
+            backend = sBackend;
+        }
+        if (backend != null) {
+            backend.flush();
+        }
     }
 
-    private long readPref(String prefKey, Long defaultValue) {
-        return mSharedPrefs.getLong(prefKey, defaultValue);
+    @VisibleForTesting
+    static synchronized void clearBackend() {
+        sBackend = null;
     }
 
-    private String getPrefKey(String pkgName, String eventType, String statType) {
-        return new StringBuilder()
-                .append("setting_suggestion_")
-                .append(pkgName)
-                .append("_")
-                .append(eventType)
-                .append("_")
-                .append(statType)
-                .toString();
+    private static synchronized Backend getBackend(Context context) {
+        if (sBackend == null) {
+            sBackend = new Backend(context.getSharedPreferences(TAG, Context.MODE_PRIVATE));
+        }
+        return sBackend;
+    }
+
+    private static int getMetricIndex(int eventIndex, int metricIndex) {
+        return eventIndex * METRICS.length + metricIndex;
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * In-memory metrics of all packages, loaded from {@link SharedPreferences} on first access.
+     */
+    private static class Backend {
+        private final SharedPreferences mSharedPrefs;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+        private final Runnable mFlushRunnable = this::flush;
+
+        private final Map<String, long[]> mMetrics = new ArrayMap<>();
+        private final Set<String> mDirtyPackages = new ArraySet<>();
+        // Keys of the legacy one-pref-per-metric format, removed on the first flush.
+        private final Set<String> mLegacyKeys = new ArraySet<>();
+        private boolean mLoaded;
+
+        Backend(SharedPreferences sharedPrefs) {
+            mSharedPrefs = sharedPrefs;
+        }
+
+        synchronized void writeEvent(String pkgName, int eventIndex, long timeMs) {
+            ensureLoaded();
+            long[] metrics = mMetrics.get(pkgName);
+            if (metrics == null) {
+                metrics = new long[METRICS_PER_PACKAGE];
+                mMetrics.put(pkgName, metrics);
+            }
+            metrics[getMetricIndex(eventIndex, METRIC_INDEX_LAST_EVENT_TIME)] = timeMs;
+            metrics[getMetricIndex(eventIndex, METRIC_INDEX_COUNT)]++;
+            if (mDirtyPackages.isEmpty() && mLegacyKeys.isEmpty()) {
+                mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+            }
+            mDirtyPackages.add(pkgName);
+        }
+
+        synchronized long readMetric(String pkgName, int index) {
+            ensureLoaded();
+            final long[] metrics = mMetrics.get(pkgName);
+            return metrics == null ? 0 : metrics[index];
+        }
+
+        synchronized void flush() {
+            mHandler.removeCallbacks(mFlushRunnable);
+            if (mDirtyPackages.isEmpty() && mLegacyKeys.isEmpty()) {
+                return;
+            }
+            final SharedPreferences.Editor editor = mSharedPrefs.edit();
+            for (String legacyKey : mLegacyKeys) {
+                editor.remove(legacyKey);
+            }
+            for (String pkgName : mDirtyPackages) {
+                editor.putString(PREF_KEY_EVENTS_PREFIX + pkgName,
+                        serialize(mMetrics.get(pkgName)));
+            }
+            editor.apply();
+            mLegacyKeys.clear();
+            mDirtyPackages.clear();
+        }
+
+        private void ensureLoaded() {
+            if (mLoaded) {
+                return;
+            }
+            mLoaded = true;
+            for (Map.Entry<String, ?> entry : mSharedPrefs.getAll().entrySet()) {
+                final String key = entry.getKey();
+                final Object value = entry.getValue();
+                if (key.startsWith(PREF_KEY_EVENTS_PREFIX) && value instanceof String) {
+                    final long[] metrics = deserialize((String) value);
+                    if (metrics != null) {
+                        mergeMetrics(key.substring(PREF_KEY_EVENTS_PREFIX.length()), metrics);
+                    }
+                } else if (key.startsWith(PREF_KEY_PREFIX) && value instanceof Long) {
+                    migrateLegacyMetric(key, (Long) value);
+                }
+            }
+            if (!mLegacyKeys.isEmpty()) {
+                mDirtyPackages.addAll(mMetrics.keySet());
+                mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+            }
+        }
+
+        /**
+         * Parses a key of the form "setting_suggestion_<pkg>_<event>_<metric>".
+         */
+        private void migrateLegacyMetric(String key, long value) {
+            for (int eventIndex = 0; eventIndex < EVENTS.length; eventIndex++) {
+                for (int metricIndex = 0; metricIndex < METRICS.length; metricIndex++) {
+                    final String suffix = "_" + EVENTS[eventIndex] + "_" + METRICS[metricIndex];
+                    if (!key.endsWith(suffix)
+                            || key.length() <= PREF_KEY_PREFIX.length() + suffix.length()) {
+                        continue;
+                    }
+                    final String pkgName = key.substring(PREF_KEY_PREFIX.length(),
+                            key.length() - suffix.length());
+                    final long[] metrics = new long[METRICS_PER_PACKAGE];
+                    metrics[getMetricIndex(eventIndex, metricIndex)] = value;
+                    mergeMetrics(pkgName, metrics);
+                    mLegacyKeys.add(key);
+                    return;
+                }
+            }
+        }
+
+        private void mergeMetrics(String pkgName, long[] metrics) {
+            final long[] existing = mMetrics.get(pkgName);
+            if (existing == null) {
+                mMetrics.put(pkgName, metrics);
+                return;
+            }
+            for (int i = 0; i < METRICS_PER_PACKAGE; i++) {
+                existing[i] = Math.max(existing[i], metrics[i]);
+            }
+        }
+
+        private static String serialize(long[] metrics) {
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < metrics.length; i++) {
+                if (i > 0) {
+                    builder.append(VALUE_SEPARATOR);
+                }
+                builder.append(metrics[i]);
+            }
+            return builder.toString();
+        }
+
+        private static long[] deserialize(String value) {
+            final String[] parts = TextUtils.split(value, VALUE_SEPARATOR);
+            if (parts.length != METRICS_PER_PACKAGE) {
+                Log.w(TAG, "Dropping malformed metrics: " + value);
+                return null;
+            }
+            final long[] metrics = new long[METRICS_PER_PACKAGE];
+            try {
+                for (int i = 0; i < METRICS_PER_PACKAGE; i++) {
+                    metrics[i] = Long.parseLong(parts[i]);
+                }
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Dropping malformed metrics: " + value);
+                return null;
+            }
+            return metrics;
+        }
     }
 }
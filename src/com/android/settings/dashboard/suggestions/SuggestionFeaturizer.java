@@ -38,6 +38,32 @@ public class SuggestionFeaturizer {
     public static final String FEATURE_DISMISSED_COUNT = "dismissed_count";
     public static final String FEATURE_CLICKED_COUNT = "clicked_count";
 
+    /**
+     * Features in the order of their ordinal, i.e. their column in {@link #featurizeToMatrix}.
+     */
+    public static final String[] FEATURES = {
+            FEATURE_IS_SHOWN,
+            FEATURE_IS_DISMISSED,
+            FEATURE_IS_CLICKED,
+            FEATURE_TIME_FROM_LAST_SHOWN,
+            FEATURE_TIME_FROM_LAST_DISMISSED,
+            FEATURE_TIME_FROM_LAST_CLICKED,
+            FEATURE_SHOWN_COUNT,
+            FEATURE_DISMISSED_COUNT,
+            FEATURE_CLICKED_COUNT,
+    };
+    public static final int FEATURE_COUNT = FEATURES.length;
+
+    private static final int INDEX_IS_SHOWN = 0;
+    private static final int INDEX_IS_DISMISSED = 1;
+    private static final int INDEX_IS_CLICKED = 2;
+    private static final int INDEX_TIME_FROM_LAST_SHOWN = 3;
+    private static final int INDEX_TIME_FROM_LAST_DISMISSED = 4;
+    private static final int INDEX_TIME_FROM_LAST_CLICKED = 5;
+    private static final int INDEX_SHOWN_COUNT = 6;
+    private static final int INDEX_DISMISSED_COUNT = 7;
+    private static final int INDEX_CLICKED_COUNT = 8;
+
     // The following numbers are estimated from histograms.
     public static final double TIME_NORMALIZATION_FACTOR = 2e10;
     public static final double COUNT_NORMALIZATION_FACTOR = 500;
@@ -62,34 +88,55 @@ public class SuggestionFeaturizer {
      * another map with key-value pairs of the features.
      */
     public Map<String, Map<String, Double>> featurize(List<String> pkgNames) {
-        Map<String, Map<String, Double>> features = new HashMap<>();
-        Long curTimeMs = System.currentTimeMillis();
-        for (String pkgName : pkgNames) {
-            Map<String, Double> featureMap = new HashMap<>();
-            features.put(pkgName, featureMap);
-            Long lastShownTime = mEventStore
+        final Map<String, Map<String, Double>> features = new HashMap<>();
+        final double[] matrix = featurizeToMatrix(pkgNames);
+        for (int i = 0; i < pkgNames.size(); i++) {
+            final Map<String, Double> featureMap = new HashMap<>();
+            for (int feature = 0; feature < FEATURE_COUNT; feature++) {
+                featureMap.put(FEATURES[feature], matrix[i * FEATURE_COUNT + feature]);
+            }
+            features.put(pkgNames.get(i), featureMap);
+        }
+        return features;
+    }
+
+    /**
+     * Extracts the features for each package name into a flat row-major matrix.
+     *
+     * @param pkgNames: List of package names for which features are queried.
+     * @return A matrix with one row per package, in the order of {@param pkgNames}, and one column
+     * per feature, in the order of {@link #FEATURES}. The features of the i-th package start at
+     * {@code i * FEATURE_COUNT}.
+     */
+    public double[] featurizeToMatrix(List<String> pkgNames) {
+        final double[] matrix = new double[pkgNames.size() * FEATURE_COUNT];
+        final long curTimeMs = System.currentTimeMillis();
+        for (int i = 0; i < pkgNames.size(); i++) {
+            final String pkgName = pkgNames.get(i);
+            final int row = i * FEATURE_COUNT;
+            final long lastShownTime = mEventStore
                     .readMetric(pkgName, EventStore.EVENT_SHOWN, EventStore.METRIC_LAST_EVENT_TIME);
-            Long lastDismissedTime = mEventStore.readMetric(pkgName, EventStore.EVENT_DISMISSED,
-                    EventStore.METRIC_LAST_EVENT_TIME);
-            Long lastClickedTime = mEventStore.readMetric(pkgName, EventStore.EVENT_CLICKED,
+            final long lastDismissedTime = mEventStore.readMetric(pkgName,
+                    EventStore.EVENT_DISMISSED, EventStore.METRIC_LAST_EVENT_TIME);
+            final long lastClickedTime = mEventStore.readMetric(pkgName, EventStore.EVENT_CLICKED,
                     EventStore.METRIC_LAST_EVENT_TIME);
-            featureMap.put(FEATURE_IS_SHOWN, booleanToDouble(lastShownTime > 0));
-            featureMap.put(FEATURE_IS_DISMISSED, booleanToDouble(lastDismissedTime > 0));
-            featureMap.put(FEATURE_IS_CLICKED, booleanToDouble(lastClickedTime > 0));
-            featureMap.put(FEATURE_TIME_FROM_LAST_SHOWN,
-                    normalizedTimeDiff(curTimeMs, lastShownTime));
-            featureMap.put(FEATURE_TIME_FROM_LAST_DISMISSED,
-                    normalizedTimeDiff(curTimeMs, lastDismissedTime));
-            featureMap.put(FEATURE_TIME_FROM_LAST_CLICKED,
-                    normalizedTimeDiff(curTimeMs, lastClickedTime));
-            featureMap.put(FEATURE_SHOWN_COUNT, normalizedCount(mEventStore
-                    .readMetric(pkgName, EventStore.EVENT_SHOWN, EventStore.METRIC_COUNT)));
-            featureMap.put(FEATURE_DISMISSED_COUNT, normalizedCount(mEventStore
-                    .readMetric(pkgName, EventStore.EVENT_DISMISSED, EventStore.METRIC_COUNT)));
-            featureMap.put(FEATURE_CLICKED_COUNT, normalizedCount(mEventStore
-                    .readMetric(pkgName, EventStore.EVENT_CLICKED, EventStore.METRIC_COUNT)));
+            matrix[row + INDEX_IS_SHOWN] = booleanToDouble(lastShownTime > 0);
+            matrix[row + INDEX_IS_DISMISSED] = booleanToDouble(lastDismissedTime > 0);
+            matrix[row + INDEX_IS_CLICKED] = booleanToDouble(lastClickedTime > 0);
+            matrix[row + INDEX_TIME_FROM_LAST_SHOWN] =
+                    normalizedTimeDiff(curTimeMs, lastShownTime);
+            matrix[row + INDEX_TIME_FROM_LAST_DISMISSED] =
+                    normalizedTimeDiff(curTimeMs, lastDismissedTime);
+            matrix[row + INDEX_TIME_FROM_LAST_CLICKED] =
+                    normalizedTimeDiff(curTimeMs, lastClickedTime);
+            matrix[row + INDEX_SHOWN_COUNT] = normalizedCount(mEventStore
+                    .readMetric(pkgName, EventStore.EVENT_SHOWN, EventStore.METRIC_COUNT));
+            matrix[row + INDEX_DISMISSED_COUNT] = normalizedCount(mEventStore
+                    .readMetric(pkgName, EventStore.EVENT_DISMISSED, EventStore.METRIC_COUNT));
+            matrix[row + INDEX_CLICKED_COUNT] = normalizedCount(mEventStore
+                    .readMetric(pkgName, EventStore.EVENT_CLICKED, EventStore.METRIC_COUNT));
         }
-        return features;
+        return matrix;
     }
 
     private static double booleanToDouble(boolean bool) {
@@ -19,9 +19,7 @@ import com.android.settingslib.drawer.Tile;
 
 import android.support.annotation.VisibleForTesting;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -33,40 +31,104 @@ public class SuggestionRanker {
     // relevance metric for ranking the suggestion items. This model is learned with off-line data
     // by training a binary classifier to detect the clicked items. The higher the obtained
     // relevance metric, the higher chance of getting clicked.
-    private static final Map<String, Double> WEIGHTS = new HashMap<String, Double>() {{
-        put(SuggestionFeaturizer.FEATURE_IS_SHOWN, 5.05140842519);
-        put(SuggestionFeaturizer.FEATURE_IS_DISMISSED, 2.29641455171);
-        put(SuggestionFeaturizer.FEATURE_IS_CLICKED, -2.98812233623);
-        put(SuggestionFeaturizer.FEATURE_TIME_FROM_LAST_SHOWN, 5.02807250202);
-        put(SuggestionFeaturizer.FEATURE_TIME_FROM_LAST_DISMISSED, 2.49589700842);
-        put(SuggestionFeaturizer.FEATURE_TIME_FROM_LAST_CLICKED, -4.3377039948);
-        put(SuggestionFeaturizer.FEATURE_SHOWN_COUNT, -2.35993512546);
-    }};
+    // Indexed by feature ordinal, see SuggestionFeaturizer#FEATURES.
+    private static final double[] WEIGHTS = {
+            5.05140842519,  // FEATURE_IS_SHOWN
+            2.29641455171,  // FEATURE_IS_DISMISSED
+            -2.98812233623, // FEATURE_IS_CLICKED
+            5.02807250202,  // FEATURE_TIME_FROM_LAST_SHOWN
+            2.49589700842,  // FEATURE_TIME_FROM_LAST_DISMISSED
+            -4.3377039948,  // FEATURE_TIME_FROM_LAST_CLICKED
+            -2.35993512546, // FEATURE_SHOWN_COUNT
+            0,              // FEATURE_DISMISSED_COUNT
+            0,              // FEATURE_CLICKED_COUNT
+    };
 
     private final SuggestionFeaturizer mSuggestionFeaturizer;
 
-    private final Map<Tile, Double> relevanceMetrics;
-
-    Comparator<Tile> suggestionComparator = new Comparator<Tile>() {
-        @Override
-        public int compare(Tile suggestion1, Tile suggestion2) {
-            return relevanceMetrics.get(suggestion1) < relevanceMetrics.get(suggestion2) ? 1 : -1;
-        }
-    };
-
     public SuggestionRanker(SuggestionFeaturizer suggestionFeaturizer) {
         mSuggestionFeaturizer = suggestionFeaturizer;
-        relevanceMetrics = new HashMap<Tile, Double>();
     }
 
     public void rankSuggestions(final List<Tile> suggestions, List<String> suggestionIds) {
-        relevanceMetrics.clear();
-        Map<String, Map<String, Double>> features = mSuggestionFeaturizer.featurize(suggestionIds);
-        for (int i = 0; i < suggestionIds.size(); i++) {
-            relevanceMetrics.put(suggestions.get(i),
-                    getRelevanceMetric(features.get(suggestionIds.get(i))));
+        final int count = suggestionIds.size();
+        final double[] features = mSuggestionFeaturizer.featurizeToMatrix(suggestionIds);
+        final double[] scores = new double[count];
+        for (int i = 0; i < count; i++) {
+            scores[i] = getRelevanceMetric(features, i);
+        }
+        final int[] slots = getRankSlots(scores);
+
+        final Tile[] ranked = new Tile[count];
+        for (int i = 0; i < count; i++) {
+            ranked[slots[i]] = suggestions.get(i);
+        }
+        for (int i = 0; i < count; i++) {
+            suggestions.set(i, ranked[i]);
+        }
+    }
+
+    /**
+     * @return the position of each score once sorted in descending order. Equal scores keep
+     * their original order.
+     */
+    @VisibleForTesting
+    static int[] getRankSlots(double[] scores) {
+        final int count = scores.length;
+        final double[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        // Number of scores already placed, indexed by the first position of their value in sorted.
+        final int[] placed = new int[count];
+        final int[] slots = new int[count];
+        for (int i = 0; i < count; i++) {
+            final int first = lowerBound(sorted, scores[i]);
+            final int end = upperBound(sorted, scores[i]);
+            // Scores above this one come first.
+            slots[i] = count - end + placed[first]++;
         }
-        Collections.sort(suggestions, suggestionComparator);
+        return slots;
+    }
+
+    private static int lowerBound(double[] sorted, double value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (Double.compare(sorted[mid], value) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int upperBound(double[] sorted, double value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (Double.compare(sorted[mid], value) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the relevance metric of the {@param row}-th suggestion in a feature matrix built by
+     * {@link SuggestionFeaturizer#featurizeToMatrix(List)}.
+     */
+    @VisibleForTesting
+    double getRelevanceMetric(double[] features, int row) {
+        final int offset = row * SuggestionFeaturizer.FEATURE_COUNT;
+        double sum = 0;
+        for (int i = 0; i < WEIGHTS.length; i++) {
+            sum += WEIGHTS[i] * features[offset + i];
+        }
+        return sum;
     }
 
     @VisibleForTesting
@@ -75,8 +137,10 @@ public class SuggestionRanker {
         if (features == null) {
             return sum;
         }
-        for (String feature : WEIGHTS.keySet()) {
-            sum += WEIGHTS.get(feature) * features.get(feature);
+        for (int i = 0; i < WEIGHTS.length; i++) {
+            if (WEIGHTS[i] != 0) {
+                sum += WEIGHTS[i] * features.get(SuggestionFeaturizer.FEATURES[i]);
+            }
         }
         return sum;
     }
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
+import static android.net.TrafficStats.UID_REMOVED;
+import static android.net.TrafficStats.UID_TETHERING;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.net.INetworkStatsSession;
+import android.net.NetworkPolicyManager;
+import android.net.NetworkStats;
+import android.net.NetworkTemplate;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.android.settings.utils.AsyncLoader;
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+
+/**
+ * Loads the data usage of all apps over a range of a network template, collapsed into the items
+ * shown by {@link DataUsageList}.
+ */
+public class AppDataUsageListLoader extends AsyncLoader<AppDataUsageListLoader.Result> {
+
+    private static final String TAG = "AppDataUsageListLoader";
+
+    /**
+     * Sorted items, and the largest total among them.
+     */
+    public static class Result {
+        public final ArrayList<AppItem> items;
+        public final long largest;
+
+        Result(ArrayList<AppItem> items, long largest) {
+            this.items = items;
+            this.largest = largest;
+        }
+    }
+
+    private final INetworkStatsSession mSession;
+    private final NetworkPolicyManager mPolicyManager;
+    private final UserManager mUserManager;
+    private final NetworkTemplate mTemplate;
+    private final long mStart;
+    private final long mEnd;
+
+    public AppDataUsageListLoader(Context context, INetworkStatsSession session,
+            NetworkPolicyManager policyManager, NetworkTemplate template, long start, long end) {
+        super(context);
+        mSession = session;
+        mPolicyManager = policyManager;
+        mUserManager = UserManager.get(context);
+        mTemplate = template;
+        mStart = start;
+        mEnd = end;
+    }
+
+    @Override
+    public Result loadInBackground() {
+        NetworkStats stats = null;
+        try {
+            stats = mSession.getSummaryForAllUid(mTemplate, mStart, mEnd, false);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Failed to load data usage", e);
+        }
+        final int[] restrictedUids = mPolicyManager.getUidsWithPolicy(
+                POLICY_REJECT_METERED_BACKGROUND);
+        final BitSet profileIds = new BitSet();
+        for (UserHandle profile : mUserManager.getUserProfiles()) {
+            profileIds.set(profile.getIdentifier());
+        }
+        return collapse(stats, restrictedUids, ActivityManager.getCurrentUser(), profileIds,
+                mUserManager);
+    }
+
+    @Override
+    protected void onDiscardResult(Result result) {
+    }
+
+    /**
+     * Collapses the entries of {@param stats} into one item per app, profile, other user or
+     * system, and marks the items of {@param restrictedUids} as restricted.
+     *
+     * @param profileIds the ids of the profiles of the current user.
+     */
+    @VisibleForTesting
+    static Result collapse(NetworkStats stats, int[] restrictedUids, int currentUserId,
+            BitSet profileIds, UserManager userManager) {
+        final ArrayList<AppItem> items = new ArrayList<>();
+        final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
+        // Whether each user which isn't a profile still exists, looked up once per user.
+        final SparseBooleanArray existingUsers = new SparseBooleanArray();
+        long largest = 0;
+
+        NetworkStats.Entry entry = null;
+        final int size = stats != null ? stats.size() : 0;
+        for (int i = 0; i < size; i++) {
+            entry = stats.getValues(i, entry);
+
+            // Decide how to collapse items together
+            final int uid = entry.uid;
+
+            final int collapseKey;
+            final int category;
+            final int userId = UserHandle.getUserId(uid);
+            if (UserHandle.isApp(uid)) {
+                if (profileIds.get(userId)) {
+                    if (userId != currentUserId) {
+                        // Add to a managed user item.
+                        final int managedKey = UidDetailProvider.buildKeyForUser(userId);
+                        largest = accumulate(managedKey, knownItems, entry, AppItem.CATEGORY_USER,
+                                items, largest);
+                    }
+                    // Add to app item.
+                    collapseKey = uid;
+                    category = AppItem.CATEGORY_APP;
+                } else {
+                    // If it is a removed user add it to the removed users' key
+                    final int index = existingUsers.indexOfKey(userId);
+                    final boolean exists;
+                    if (index >= 0) {
+                        exists = existingUsers.valueAt(index);
+                    } else {
+                        exists = userManager.getUserInfo(userId) != null;
+                        existingUsers.put(userId, exists);
+                    }
+                    if (!exists) {
+                        collapseKey = UID_REMOVED;
+                        category = AppItem.CATEGORY_APP;
+                    } else {
+                        // Add to other user item.
+                        collapseKey = UidDetailProvider.buildKeyForUser(userId);
+                        category = AppItem.CATEGORY_USER;
+                    }
+                }
+            } else if (uid == UID_REMOVED || uid == UID_TETHERING) {
+                collapseKey = uid;
+                category = AppItem.CATEGORY_APP;
+            } else {
+                collapseKey = android.os.Process.SYSTEM_UID;
+                category = AppItem.CATEGORY_APP;
+            }
+            largest = accumulate(collapseKey, knownItems, entry, category, items, largest);
+        }
+
+        final int restrictedUidsMax = restrictedUids != null ? restrictedUids.length : 0;
+        for (int i = 0; i < restrictedUidsMax; ++i) {
+            final int uid = restrictedUids[i];
+            // Only splice in restricted state for current user or managed users
+            if (!profileIds.get(UserHandle.getUserId(uid))) {
+                continue;
+            }
+
+            AppItem item = knownItems.get(uid);
+            if (item == null) {
+                item = new AppItem(uid);
+                item.total = -1;
+                items.add(item);
+                knownItems.put(item.key, item);
+            }
+            item.restricted = true;
+        }
+
+        Collections.sort(items);
+        return new Result(items, largest);
+    }
+
+    /**
+     * Accumulate data usage of a network stats entry for the item mapped by the collapse key.
+     * Creates the item if needed.
+     *
+     * @param collapseKey  the collapse key used to map the item.
+     * @param knownItems   collection of known (already existing) items.
+     * @param entry        the network stats entry to extract data usage from.
+     * @param itemCategory the item is categorized on the list view by this category. Must be
+     */
+    private static long accumulate(int collapseKey, final SparseArray<AppItem> knownItems,
+            NetworkStats.Entry entry, int itemCategory, ArrayList<AppItem> items, long largest) {
+        final int uid = entry.uid;
+        AppItem item = knownItems.get(collapseKey);
+        if (item == null) {
+            item = new AppItem(collapseKey);
+            item.category = itemCategory;
+            items.add(item);
+            knownItems.put(item.key, item);
+        }
+        item.addUid(uid);
+        item.total += entry.rxBytes + entry.txBytes;
+        return Math.max(largest, item.total);
+    }
+}
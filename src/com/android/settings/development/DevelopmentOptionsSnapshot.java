@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.development;
+
+import android.app.IActivityManager;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.support.annotation.WorkerThread;
+import android.view.IWindowManager;
+
+import java.util.Arrays;
+
+/**
+ * The developer options which are read from SurfaceFlinger, the window manager and the activity
+ * manager. Each read is a binder call, so {@link DevelopmentSettings} loads them all at once on a
+ * background thread and applies them to its preferences in one batch.
+ *
+ * Values which could not be read are left at {@link #UNKNOWN}, or NaN for animation scales.
+ */
+public class DevelopmentOptionsSnapshot {
+
+    static final int UNKNOWN = Integer.MIN_VALUE;
+    // Window, transition and animator duration scales, see IWindowManager#getAnimationScale().
+    static final int ANIMATION_SCALE_COUNT = 3;
+
+    int showScreenUpdates = UNKNOWN;
+    int disableOverlays = UNKNOWN;
+    final float[] animationScales = new float[ANIMATION_SCALE_COUNT];
+    int processLimit = UNKNOWN;
+
+    DevelopmentOptionsSnapshot() {
+        Arrays.fill(animationScales, Float.NaN);
+    }
+
+    @WorkerThread
+    static DevelopmentOptionsSnapshot load(IWindowManager windowManager,
+            IActivityManager activityManager) {
+        final DevelopmentOptionsSnapshot snapshot = new DevelopmentOptionsSnapshot();
+        snapshot.readFlingerOptions();
+        for (int i = 0; i < ANIMATION_SCALE_COUNT; i++) {
+            snapshot.readAnimationScale(windowManager, i);
+        }
+        snapshot.readProcessLimit(activityManager);
+        return snapshot;
+    }
+
+    void readFlingerOptions() {
+        // magic communication with surface flinger.
+        try {
+            IBinder flinger = ServiceManager.getService("SurfaceFlinger");
+            if (flinger != null) {
+                Parcel data = Parcel.obtain();
+                Parcel reply = Parcel.obtain();
+                data.writeInterfaceToken("android.ui.ISurfaceComposer");
+                flinger.transact(1010, data, reply, 0);
+                @SuppressWarnings("unused")
+                int showCpu = reply.readInt();
+                @SuppressWarnings("unused")
+                int enableGL = reply.readInt();
+                showScreenUpdates = reply.readInt();
+                @SuppressWarnings("unused")
+                int showBackground = reply.readInt();
+                disableOverlays = reply.readInt();
+                reply.recycle();
+                data.recycle();
+            }
+        } catch (RemoteException ex) {
+        }
+    }
+
+    void readAnimationScale(IWindowManager windowManager, int which) {
+        try {
+            animationScales[which] = windowManager.getAnimationScale(which);
+        } catch (RemoteException e) {
+        }
+    }
+
+    void readProcessLimit(IActivityManager activityManager) {
+        try {
+            processLimit = activityManager.getProcessLimit();
+        } catch (RemoteException e) {
+        }
+    }
+}
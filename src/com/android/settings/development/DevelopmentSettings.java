@@ -280,8 +280,12 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
 
     private SwitchBar mSwitchBar;
 
-    private boolean mHaveDebugSettings;
+    @VisibleForTesting
+    boolean mHaveDebugSettings;
     private boolean mDontPokeProperties;
+    // Last values read from system services, and the task loading fresh ones.
+    private DevelopmentOptionsSnapshot mSnapshot;
+    private SnapshotLoader mSnapshotLoader;
     private EnableAdbPreferenceController mEnableAdbController;
     private SwitchPreference mAdbOverNetwork;
     private Preference mClearAdbKeys;
@@ -762,14 +766,11 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
         mSwitchBar.setChecked(lastEnabledState);
         setPrefsEnabledState(lastEnabledState);
 
-        if (mHaveDebugSettings && !lastEnabledState) {
-            // Overall debugging is disabled, but there are some debug
-            // settings that are enabled.  This is an invalid state.  Switch
-            // to debug settings being enabled, so the user knows there is
-            // stuff enabled and can turn it all off if they want.
-            mSettingsEnabler.enableDevelopmentSettings();
-            mSwitchBar.setChecked(lastEnabledState);
-            setPrefsEnabledState(lastEnabledState);
+        enableIfDebugSettingsSet();
+        if (mSnapshotLoader != null) {
+            // Check again once the options read from system services are known. Loads started
+            // later, e.g. when turning development settings off, don't check.
+            mSnapshotLoader.mCheckDebugSettings = true;
         }
         mSwitchBar.show();
 
@@ -785,6 +786,23 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
         if (mColorModePreference != null) {
             mColorModePreference.stopListening();
         }
+        if (mSnapshotLoader != null) {
+            mSnapshotLoader.cancel(false /* mayInterruptIfRunning */);
+            mSnapshotLoader = null;
+        }
+    }
+
+    private void enableIfDebugSettingsSet() {
+        final boolean lastEnabledState = mSettingsEnabler.getLastEnabledState();
+        if (mHaveDebugSettings && !lastEnabledState) {
+            // Overall debugging is disabled, but there are some debug
+            // settings that are enabled.  This is an invalid state.  Switch
+            // to debug settings being enabled, so the user knows there is
+            // stuff enabled and can turn it all off if they want.
+            mSettingsEnabler.enableDevelopmentSettings();
+            mSwitchBar.setChecked(lastEnabledState);
+            setPrefsEnabledState(lastEnabledState);
+        }
     }
 
     @Override
@@ -878,7 +896,6 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
         updateStrictModeVisualOptions();
         updatePointerLocationOptions();
         updateShowTouchesOptions();
-        updateFlingerOptions();
         updateHardwareUiOptions();
         updateMsaaOptions();
         updateTrackFrameTimeOptions();
@@ -888,10 +905,8 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
         updateDebugHwOverdrawOptions();
         updateDebugHwRendererOptions();
         updateDebugLayoutOptions();
-        updateAnimationScaleOptions();
         updateOverlayDisplayDevicesOptions();
         updateImmediatelyDestroyActivitiesOptions();
-        updateAppProcessLimitOptions();
         updateShowAllANRsOptions();
         updateShowNotificationChannelWarningsOptions();
         mVerifyAppsOverUsbController.updatePreference();
@@ -923,6 +938,70 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
         updateBluetoothA2dpConfigurationValues();
         updateAdbOverNetwork();
         updateRootAccessOptions();
+        if (mSnapshot != null) {
+            // Show the last known values until fresh ones are loaded.
+            applySnapshot(mSnapshot);
+        }
+        loadSnapshot();
+    }
+
+    /**
+     * Reads the options which need binder calls to SurfaceFlinger, the window manager or the
+     * activity manager on a background thread, then applies them all at once.
+     */
+    private void loadSnapshot() {
+        if (mSnapshotLoader != null) {
+            mSnapshotLoader.cancel(false /* mayInterruptIfRunning */);
+        }
+        mSnapshotLoader = new SnapshotLoader();
+        mSnapshotLoader.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    @VisibleForTesting
+    void applySnapshot(DevelopmentOptionsSnapshot snapshot) {
+        applyFlingerOptions(snapshot);
+        applyAnimationScaleValue(snapshot.animationScales[0], mWindowAnimationScale);
+        applyAnimationScaleValue(snapshot.animationScales[1], mTransitionAnimationScale);
+        applyAnimationScaleValue(snapshot.animationScales[2], mAnimatorDurationScale);
+        applyAppProcessLimitOptions(snapshot.processLimit);
+    }
+
+    private DevelopmentOptionsSnapshot getSnapshot() {
+        if (mSnapshot == null) {
+            mSnapshot = new DevelopmentOptionsSnapshot();
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * Applies a loaded snapshot. If {@param checkDebugSettings} is set, as for the load started by
+     * {@link #onResume()}, development settings are enabled again if some debug setting is set.
+     */
+    @VisibleForTesting
+    void onSnapshotLoaded(DevelopmentOptionsSnapshot snapshot, boolean checkDebugSettings) {
+        mSnapshot = snapshot;
+        applySnapshot(snapshot);
+        if (checkDebugSettings) {
+            enableIfDebugSettingsSet();
+        }
+    }
+
+    private class SnapshotLoader extends AsyncTask<Void, Void, DevelopmentOptionsSnapshot> {
+        boolean mCheckDebugSettings;
+
+        @Override
+        protected DevelopmentOptionsSnapshot doInBackground(Void... params) {
+            return DevelopmentOptionsSnapshot.load(mWindowManager, ActivityManager.getService());
+        }
+
+        @Override
+        protected void onPostExecute(DevelopmentOptionsSnapshot snapshot) {
+            if (mSnapshotLoader != this || getActivity() == null) {
+                return;
+            }
+            mSnapshotLoader = null;
+            onSnapshotLoaded(snapshot, mCheckDebugSettings);
+        }
     }
 
     private void updateAdbOverNetwork() {
@@ -1292,28 +1371,16 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
     }
 
     private void updateFlingerOptions() {
-        // magic communication with surface flinger.
-        try {
-            IBinder flinger = ServiceManager.getService("SurfaceFlinger");
-            if (flinger != null) {
-                Parcel data = Parcel.obtain();
-                Parcel reply = Parcel.obtain();
-                data.writeInterfaceToken("android.ui.ISurfaceComposer");
-                flinger.transact(1010, data, reply, 0);
-                @SuppressWarnings("unused")
-                int showCpu = reply.readInt();
-                @SuppressWarnings("unused")
-                int enableGL = reply.readInt();
-                int showUpdates = reply.readInt();
-                updateSwitchPreference(mShowScreenUpdates, showUpdates != 0);
-                @SuppressWarnings("unused")
-                int showBackground = reply.readInt();
-                int disableOverlays = reply.readInt();
-                updateSwitchPreference(mDisableOverlays, disableOverlays != 0);
-                reply.recycle();
-                data.recycle();
-            }
-        } catch (RemoteException ex) {
+        getSnapshot().readFlingerOptions();
+        applyFlingerOptions(mSnapshot);
+    }
+
+    private void applyFlingerOptions(DevelopmentOptionsSnapshot snapshot) {
+        if (snapshot.showScreenUpdates != DevelopmentOptionsSnapshot.UNKNOWN) {
+            updateSwitchPreference(mShowScreenUpdates, snapshot.showScreenUpdates != 0);
+        }
+        if (snapshot.disableOverlays != DevelopmentOptionsSnapshot.UNKNOWN) {
+            updateSwitchPreference(mDisableOverlays, snapshot.disableOverlays != 0);
         }
     }
 
@@ -2404,30 +2471,28 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
     }
 
     private void updateAnimationScaleValue(int which, ListPreference pref) {
-        try {
-            float scale = mWindowManager.getAnimationScale(which);
-            if (scale != 1) {
-                mHaveDebugSettings = true;
-            }
-            CharSequence[] values = pref.getEntryValues();
-            for (int i = 0; i < values.length; i++) {
-                float val = Float.parseFloat(values[i].toString());
-                if (scale <= val) {
-                    pref.setValueIndex(i);
-                    pref.setSummary(pref.getEntries()[i]);
-                    return;
-                }
-            }
-            pref.setValueIndex(values.length - 1);
-            pref.setSummary(pref.getEntries()[0]);
-        } catch (RemoteException e) {
-        }
+        getSnapshot().readAnimationScale(mWindowManager, which);
+        applyAnimationScaleValue(mSnapshot.animationScales[which], pref);
     }
 
-    private void updateAnimationScaleOptions() {
-        updateAnimationScaleValue(0, mWindowAnimationScale);
-        updateAnimationScaleValue(1, mTransitionAnimationScale);
-        updateAnimationScaleValue(2, mAnimatorDurationScale);
+    private void applyAnimationScaleValue(float scale, ListPreference pref) {
+        if (Float.isNaN(scale)) {
+            return;
+        }
+        if (scale != 1) {
+            mHaveDebugSettings = true;
+        }
+        CharSequence[] values = pref.getEntryValues();
+        for (int i = 0; i < values.length; i++) {
+            float val = Float.parseFloat(values[i].toString());
+            if (scale <= val) {
+                pref.setValueIndex(i);
+                pref.setSummary(pref.getEntries()[i]);
+                return;
+            }
+        }
+        pref.setValueIndex(values.length - 1);
+        pref.setSummary(pref.getEntries()[0]);
     }
 
     private void writeAnimationScaleOption(int which, ListPreference pref, Object newValue) {
@@ -2465,24 +2530,28 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
     }
 
     private void updateAppProcessLimitOptions() {
-        try {
-            int limit = ActivityManager.getService().getProcessLimit();
-            CharSequence[] values = mAppProcessLimit.getEntryValues();
-            for (int i = 0; i < values.length; i++) {
-                int val = Integer.parseInt(values[i].toString());
-                if (val >= limit) {
-                    if (i != 0) {
-                        mHaveDebugSettings = true;
-                    }
-                    mAppProcessLimit.setValueIndex(i);
-                    mAppProcessLimit.setSummary(mAppProcessLimit.getEntries()[i]);
-                    return;
+        getSnapshot().readProcessLimit(ActivityManager.getService());
+        applyAppProcessLimitOptions(mSnapshot.processLimit);
+    }
+
+    private void applyAppProcessLimitOptions(int limit) {
+        if (limit == DevelopmentOptionsSnapshot.UNKNOWN) {
+            return;
+        }
+        CharSequence[] values = mAppProcessLimit.getEntryValues();
+        for (int i = 0; i < values.length; i++) {
+            int val = Integer.parseInt(values[i].toString());
+            if (val >= limit) {
+                if (i != 0) {
+                    mHaveDebugSettings = true;
                 }
+                mAppProcessLimit.setValueIndex(i);
+                mAppProcessLimit.setSummary(mAppProcessLimit.getEntries()[i]);
+                return;
             }
-            mAppProcessLimit.setValueIndex(0);
-            mAppProcessLimit.setSummary(mAppProcessLimit.getEntries()[0]);
-        } catch (RemoteException e) {
         }
+        mAppProcessLimit.setValueIndex(0);
+        mAppProcessLimit.setSummary(mAppProcessLimit.getEntries()[0]);
     }
 
     private void writeAppProcessLimitOptions(Object newValue) {
@@ -2535,7 +2604,7 @@ public class DevelopmentSettings extends RestrictedSettingsFragment
                         if (getActivity() == null) {
                             return;
                         }
-                        updateAllOptions();
+                        updateOemUnlockOptions();
                     }
                 };
 
@@ -41,6 +41,7 @@ import com.android.settings.applications.UserManagerWrapperImpl;
 import com.android.settings.dashboard.DashboardFragment;
 import com.android.settings.deviceinfo.storage.AutomaticStorageManagementSwitchPreferenceController;
 import com.android.settings.deviceinfo.storage.CachedStorageValuesHelper;
+import com.android.settings.deviceinfo.storage.PackageStorageStatsCache;
 import com.android.settings.deviceinfo.storage.SecondaryUserController;
 import com.android.settings.deviceinfo.storage.StorageAsyncLoader;
 import com.android.settings.deviceinfo.storage.StorageItemPreferenceController;
@@ -69,6 +70,9 @@ public class StorageDashboardFragment extends DashboardFragment
     private VolumeInfo mVolume;
     private PrivateStorageInfo mStorageInfo;
     private SparseArray<StorageAsyncLoader.AppsStorageResult> mAppsResult;
+    // True while mAppsResult only holds the apps measured so far, or if the load did not measure
+    // all apps, in which case it must not be cached.
+    private boolean mAppsResultPartial;
     private CachedStorageValuesHelper mCachedStorageValuesHelper;
 
     private StorageSummaryDonutPreferenceController mSummaryController;
@@ -122,7 +126,8 @@ public class StorageDashboardFragment extends DashboardFragment
         return R.string.help_url_storage_dashboard;
     }
 
-    private void onReceivedSizes() {
+    @VisibleForTesting
+    void onReceivedSizes() {
         if (mStorageInfo != null) {
             long privateUsedBytes = mStorageInfo.totalBytes - mStorageInfo.freeBytes;
             mSummaryController.updateBytes(privateUsedBytes, mStorageInfo.totalBytes);
@@ -243,17 +248,29 @@ public class StorageDashboardFragment extends DashboardFragment
     public Loader<SparseArray<StorageAsyncLoader.AppsStorageResult>> onCreateLoader(int id,
             Bundle args) {
         Context context = getContext();
-        return new StorageAsyncLoader(context,
+        final StorageAsyncLoader loader = new StorageAsyncLoader(context,
                 new UserManagerWrapperImpl(context.getSystemService(UserManager.class)),
                 mVolume.fsUuid,
                 new StorageStatsSource(context),
                 new PackageManagerWrapperImpl(context.getPackageManager()));
+        loader.setStatsCache(PackageStorageStatsCache.getInstance(context));
+        // Fill in the categories as apps are measured; only the final result is cached.
+        loader.setPartialResultHandler(this::onPartialAppsStorageResult);
+        return loader;
+    }
+
+    @VisibleForTesting
+    void onPartialAppsStorageResult(SparseArray<StorageAsyncLoader.AppsStorageResult> result) {
+        mAppsResult = result;
+        mAppsResultPartial = true;
+        onReceivedSizes();
     }
 
     @Override
     public void onLoadFinished(Loader<SparseArray<StorageAsyncLoader.AppsStorageResult>> loader,
             SparseArray<StorageAsyncLoader.AppsStorageResult> data) {
         mAppsResult = data;
+        mAppsResultPartial = isIncomplete(data);
         maybeCacheFreshValues();
         onReceivedSizes();
     }
@@ -285,6 +302,7 @@ public class StorageDashboardFragment extends DashboardFragment
     @VisibleForTesting
     public void setAppsStorageResult(SparseArray<StorageAsyncLoader.AppsStorageResult> info) {
         mAppsResult = info;
+        mAppsResultPartial = false;
     }
 
     @VisibleForTesting
@@ -298,6 +316,7 @@ public class StorageDashboardFragment extends DashboardFragment
 
         mStorageInfo = info;
         mAppsResult = loaderResult;
+        mAppsResultPartial = false;
     }
 
     @VisibleForTesting
@@ -317,8 +336,18 @@ public class StorageDashboardFragment extends DashboardFragment
         onReceivedSizes();
     }
 
-    private void maybeCacheFreshValues() {
-        if (mStorageInfo != null && mAppsResult != null) {
+    private static boolean isIncomplete(SparseArray<StorageAsyncLoader.AppsStorageResult> result) {
+        for (int i = 0; i < result.size(); i++) {
+            if (result.valueAt(i).incomplete) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @VisibleForTesting
+    void maybeCacheFreshValues() {
+        if (mStorageInfo != null && mAppsResult != null && !mAppsResultPartial) {
             mCachedStorageValuesHelper.cacheResult(
                     mStorageInfo, mAppsResult.get(UserHandle.myUserId()));
         }
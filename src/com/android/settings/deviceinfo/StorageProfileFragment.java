@@ -33,6 +33,7 @@ import com.android.settings.Utils;
 import com.android.settings.applications.PackageManagerWrapperImpl;
 import com.android.settings.applications.UserManagerWrapperImpl;
 import com.android.settings.dashboard.DashboardFragment;
+import com.android.settings.deviceinfo.storage.PackageStorageStatsCache;
 import com.android.settings.deviceinfo.storage.StorageAsyncLoader;
 import com.android.settings.deviceinfo.storage.StorageAsyncLoader.AppsStorageResult;
 import com.android.settings.deviceinfo.storage.StorageItemPreferenceController;
@@ -115,11 +116,13 @@ public class StorageProfileFragment extends DashboardFragment
     @Override
     public Loader<SparseArray<AppsStorageResult>> onCreateLoader(int id, Bundle args) {
         Context context = getContext();
-        return new StorageAsyncLoader(context,
+        final StorageAsyncLoader loader = new StorageAsyncLoader(context,
                 new UserManagerWrapperImpl(context.getSystemService(UserManager.class)),
                 mVolume.fsUuid,
                 new StorageStatsSource(context),
                 new PackageManagerWrapperImpl(context.getPackageManager()));
+        loader.setStatsCache(PackageStorageStatsCache.getInstance(context));
+        return loader;
     }
 
     @Override
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo.storage;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.Settings;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disk backed cache of the storage stats of each package, per volume and user, so that the
+ * storage screen only queries the packages which changed since it was last opened.
+ *
+ * Entries are dropped when their package is installed, updated, removed or has its data or cache
+ * cleared. Changes which happened while Settings was not running are found on load with
+ * {@link PackageManager#getChangedPackages(int)}, whose sequence number is stored in the file.
+ * All entries are dropped when the device storage becomes low or ok again, as the system then
+ * trims the caches of apps.
+ *
+ * Caches cleared in other ways, e.g. by another app freeing up space, are not noticed. As apps
+ * also grow without being updated, entries expire after {@link #MAX_ENTRY_AGE_MS}, which bounds
+ * how stale the totals can be.
+ */
+public class PackageStorageStatsCache {
+
+    private static final String TAG = "PackageStorageStatsCache";
+
+    @VisibleForTesting
+    static final String FILE_NAME = "package_storage_stats.bin";
+    // Bump when the file format changes.
+    private static final int FORMAT_VERSION = 1;
+    @VisibleForTesting
+    static final long MAX_ENTRY_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static PackageStorageStatsCache sInstance;
+
+    /**
+     * Storage stats of one package for one user on one volume.
+     */
+    public static class Entry {
+        public final long codeBytes;
+        public final long dataBytes;
+        public final long cacheBytes;
+        public final long cacheQuotaBytes;
+        // Set when the entry is added to the cache.
+        long measuredTime;
+
+        public Entry(long codeBytes, long dataBytes, long cacheBytes, long cacheQuotaBytes) {
+            this.codeBytes = codeBytes;
+            this.dataBytes = dataBytes;
+            this.cacheBytes = cacheBytes;
+            this.cacheQuotaBytes = cacheQuotaBytes;
+        }
+    }
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    // Keyed by userId/volumeUuid/packageName, see getKey().
+    private final Map<String, Entry> mEntries = new ArrayMap<>();
+    private boolean mLoaded;
+    private boolean mDirty;
+    private int mHitCount;
+    private int mMissCount;
+    // This clock is used to provide the time. By default, it uses the system clock, but can be
+    // replaced for test purposes.
+    @VisibleForTesting
+    CachedStorageValuesHelper.Clock mClock = new CachedStorageValuesHelper.Clock();
+
+    // Both receivers run on a background thread, as the first call loads the file.
+    @VisibleForTesting
+    final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            if (!TextUtils.isEmpty(packageName)) {
+                invalidatePackage(packageName);
+            }
+        }
+    };
+
+    @VisibleForTesting
+    final BroadcastReceiver mStorageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidateAll();
+        }
+    };
+
+    public static synchronized PackageStorageStatsCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PackageStorageStatsCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void clearInstance() {
+        sInstance = null;
+    }
+
+    @VisibleForTesting
+    PackageStorageStatsCache(Context context) {
+        mContext = context;
+        mFile = new AtomicFile(new File(context.getCacheDir(), FILE_NAME));
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_DATA_CLEARED);
+        filter.addDataScheme("package");
+        final HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        final Handler handler = new Handler(thread.getLooper());
+        mContext.registerReceiver(mPackageReceiver, filter, null /* permission */, handler);
+
+        final IntentFilter storageFilter = new IntentFilter();
+        storageFilter.addAction(Intent.ACTION_DEVICE_STORAGE_LOW);
+        storageFilter.addAction(Intent.ACTION_DEVICE_STORAGE_OK);
+        mContext.registerReceiver(mStorageReceiver, storageFilter, null /* permission */, handler);
+    }
+
+    /**
+     * @return the cached stats, or null if they have to be queried.
+     */
+    public synchronized Entry get(String volumeUuid, int userId, String packageName) {
+        ensureLoaded();
+        final String key = getKey(volumeUuid, userId, packageName);
+        Entry entry = mEntries.get(key);
+        if (entry != null && mClock.getCurrentTime() - entry.measuredTime >= MAX_ENTRY_AGE_MS) {
+            mEntries.remove(key);
+            mDirty = true;
+            entry = null;
+        }
+        if (entry != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return entry;
+    }
+
+    public synchronized void put(String volumeUuid, int userId, String packageName,
+            Entry entry) {
+        ensureLoaded();
+        entry.measuredTime = mClock.getCurrentTime();
+        mEntries.put(getKey(volumeUuid, userId, packageName), entry);
+        mDirty = true;
+    }
+
+    /**
+     * Drops the stats of {@param packageName} for all users and volumes, e.g. after its cache
+     * was cleared.
+     */
+    public synchronized void invalidatePackage(String packageName) {
+        ensureLoaded();
+        final String suffix = "/" + packageName;
+        final Iterator<String> keys = mEntries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().endsWith(suffix)) {
+                keys.remove();
+                mDirty = true;
+            }
+        }
+    }
+
+    /**
+     * Drops the stats of all packages, e.g. after the system trimmed the caches of apps.
+     */
+    public synchronized void invalidateAll() {
+        ensureLoaded();
+        if (!mEntries.isEmpty()) {
+            mEntries.clear();
+            mDirty = true;
+        }
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Writes the cache to disk if it changed. Must not be called on the main thread.
+     */
+    public synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(getBootCount());
+            out.writeInt(getPackageSequenceNumber());
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Entry> mapEntry : mEntries.entrySet()) {
+                final Entry entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                out.writeLong(entry.codeBytes);
+                out.writeLong(entry.dataBytes);
+                out.writeLong(entry.cacheBytes);
+                out.writeLong(entry.cacheQuotaBytes);
+                out.writeLong(entry.measuredTime);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+            mDirty = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + FILE_NAME, e);
+            mFile.failWrite(fos);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mFile.openRead()))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            // Package sequence numbers restart at each boot.
+            final boolean sameBoot = in.readInt() == getBootCount();
+            final int sequenceNumber = in.readInt();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = in.readUTF();
+                final Entry entry = new Entry(in.readLong(), in.readLong(), in.readLong(),
+                        in.readLong());
+                entry.measuredTime = in.readLong();
+                mEntries.put(key, entry);
+            }
+            if (!sameBoot) {
+                mEntries.clear();
+                return;
+            }
+            final ChangedPackages changedPackages =
+                    mContext.getPackageManager().getChangedPackages(sequenceNumber);
+            if (changedPackages != null) {
+                final List<String> packageNames = changedPackages.getPackageNames();
+                for (int i = 0; i < packageNames.size(); i++) {
+                    invalidatePackage(packageNames.get(i));
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + FILE_NAME, e);
+            mEntries.clear();
+        }
+    }
+
+    private int getPackageSequenceNumber() {
+        final ChangedPackages changedPackages =
+                mContext.getPackageManager().getChangedPackages(0);
+        return changedPackages != null ? changedPackages.getSequenceNumber() : 0;
+    }
+
+    private int getBootCount() {
+        return Settings.Global.getInt(mContext.getContentResolver(), Settings.Global.BOOT_COUNT,
+                0);
+    }
+
+    private static String getKey(String volumeUuid, int userId, String packageName) {
+        return userId + "/" + (volumeUuid != null ? volumeUuid : "") + "/" + packageName;
+    }
+}
@@ -25,7 +25,10 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.UserInfo;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.UserHandle;
+import android.support.annotation.VisibleForTesting;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
@@ -36,23 +39,42 @@ import com.android.settings.utils.AsyncLoader;
 import com.android.settingslib.applications.StorageStatsSource;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * StorageAsyncLoader is a Loader which loads categorized app information and external stats for all
  * users
+ *
+ * Apps of all users are split into batches which are measured in parallel, each into its own
+ * {@link AppsStorageResult}s, and merged as they complete. The running totals are published to
+ * the {@link ResultHandler} set with {@link #setPartialResultHandler(ResultHandler)}, if any.
+ * If a batch fails or the load is interrupted or canceled, the final result only holds the
+ * batches measured so far and is marked {@link AppsStorageResult#incomplete}.
  */
 public class StorageAsyncLoader
         extends AsyncLoader<SparseArray<StorageAsyncLoader.AppsStorageResult>> {
     private UserManagerWrapper mUserManager;
     private static final String TAG = "StorageAsyncLoader";
 
+    @VisibleForTesting
+    static final int MAX_THREADS = 4;
+    @VisibleForTesting
+    static final int BATCH_SIZE = 32;
+
     private String mUuid;
     private StorageStatsSource mStatsManager;
     private PackageManagerWrapper mPackageManager;
-    private ArraySet<String> mSeenPackages;
+    private ResultHandler mPartialResultHandler;
+    private PackageStorageStatsCache mStatsCache;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
 
     public StorageAsyncLoader(Context context, UserManagerWrapper userManager,
             String uuid, StorageStatsSource source, PackageManagerWrapper pm) {
@@ -63,13 +85,28 @@ public class StorageAsyncLoader
         mPackageManager = pm;
     }
 
+    /**
+     * Sets a handler receiving, on the main thread, the totals of the apps measured so far while
+     * the loader is running. The final result is still delivered to the loader callbacks.
+     */
+    public void setPartialResultHandler(ResultHandler handler) {
+        mPartialResultHandler = handler;
+    }
+
+    /**
+     * Sets a cache of the per-package stats, so that only the packages which changed since it was
+     * filled are queried. The cache is written back to disk when the load completes.
+     */
+    public void setStatsCache(PackageStorageStatsCache cache) {
+        mStatsCache = cache;
+    }
+
     @Override
     public SparseArray<AppsStorageResult> loadInBackground() {
         return loadApps();
     }
 
     private SparseArray<AppsStorageResult> loadApps() {
-        mSeenPackages = new ArraySet<>();
         SparseArray<AppsStorageResult> result = new SparseArray<>();
         List<UserInfo> infos = mUserManager.getUsers();
         // Sort the users by user id ascending.
@@ -81,34 +118,102 @@ public class StorageAsyncLoader
                         return Integer.compare(userInfo.id, otherUser.id);
                     }
                 });
+
+        Log.d(TAG, "Loading apps");
+        final List<AppTask> tasks = new ArrayList<>();
+        final ArraySet<String> seenPackages = new ArraySet<>();
         for (int i = 0, userCount = infos.size(); i < userCount; i++) {
-            UserInfo info = infos.get(i);
-            result.put(info.id, getStorageResultForUser(info.id));
+            final int userId = infos.get(i).id;
+            result.put(userId, new AppsStorageResult());
+            List<ApplicationInfo> applicationInfos =
+                    mPackageManager.getInstalledApplicationsAsUser(0, userId);
+            for (int j = 0, size = applicationInfos.size(); j < size; j++) {
+                ApplicationInfo app = applicationInfos.get(j);
+                // This isn't quite right because it slams the first user by user id with the whole
+                // code size, but this ensures that we count all apps seen once. This is decided
+                // up front, in user and app order, so that it does not depend on the order in
+                // which the apps are measured.
+                tasks.add(new AppTask(userId, app, seenPackages.add(app.packageName)));
+            }
+        }
+
+        // External stats are loaded first, so that partial results are complete for display.
+        Log.d(TAG, "Loading external stats");
+        for (int i = 0; i < result.size(); i++) {
+            try {
+                result.valueAt(i).externalStats = mStatsManager.getExternalStorageStats(mUuid,
+                        UserHandle.of(result.keyAt(i)));
+            } catch (IOException e) {
+                Log.w(TAG, e);
+            }
         }
+
+        final int batchCount = (tasks.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        final ExecutorService executor =
+                Executors.newFixedThreadPool(Math.max(1, Math.min(MAX_THREADS, batchCount)));
+        final CompletionService<SparseArray<AppsStorageResult>> completionService =
+                new ExecutorCompletionService<>(executor);
+        boolean complete = true;
+        try {
+            for (int i = 0; i < batchCount; i++) {
+                final List<AppTask> batch =
+                        tasks.subList(i * BATCH_SIZE, Math.min(tasks.size(), (i + 1) * BATCH_SIZE));
+                completionService.submit(() -> measureApps(batch));
+            }
+            for (int i = 0; i < batchCount; i++) {
+                if (isLoadInBackgroundCanceled()) {
+                    complete = false;
+                    break;
+                }
+                try {
+                    mergeResults(result, completionService.take().get());
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Failed to measure apps", e.getCause());
+                    complete = false;
+                }
+                if (i < batchCount - 1) {
+                    publishPartialResult(result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while measuring apps", e);
+            Thread.currentThread().interrupt();
+            complete = false;
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!complete) {
+            for (int i = 0; i < result.size(); i++) {
+                result.valueAt(i).incomplete = true;
+            }
+        }
+
+        if (mStatsCache != null) {
+            Log.d(TAG, "Stats cache hits: " + mStatsCache.getHitCount() + ", misses: "
+                    + mStatsCache.getMissCount());
+            mStatsCache.save();
+        }
+        Log.d(TAG, "Obtaining result completed");
         return result;
     }
 
-    private AppsStorageResult getStorageResultForUser(int userId) {
-        Log.d(TAG, "Loading apps");
-        List<ApplicationInfo> applicationInfos =
-                mPackageManager.getInstalledApplicationsAsUser(0, userId);
-        AppsStorageResult result = new AppsStorageResult();
-        UserHandle myUser = UserHandle.of(userId);
-        for (int i = 0, size = applicationInfos.size(); i < size; i++) {
-            ApplicationInfo app = applicationInfos.get(i);
-
-            StorageStatsSource.AppStorageStats stats;
-            try {
-                stats = mStatsManager.getStatsForPackage(mUuid, app.packageName, myUser);
-            } catch (NameNotFoundException | IOException e) {
-                // This may happen if the package was removed during our calculation.
-                Log.w(TAG, "App unexpectedly not found", e);
+    /**
+     * Measures a batch of apps, accumulating their sizes per user.
+     */
+    private SparseArray<AppsStorageResult> measureApps(List<AppTask> batch) {
+        final SparseArray<AppsStorageResult> results = new SparseArray<>();
+        for (int i = 0, size = batch.size(); i < size; i++) {
+            final AppTask task = batch.get(i);
+            final ApplicationInfo app = task.app;
+
+            final PackageStorageStatsCache.Entry stats = getStats(task);
+            if (stats == null) {
                 continue;
             }
 
-            final long dataSize = stats.getDataBytes();
-            final long cacheQuota = mStatsManager.getCacheQuotaBytes(mUuid, app.uid);
-            final long cacheBytes = stats.getCacheBytes();
+            final long dataSize = stats.dataBytes;
+            final long cacheQuota = stats.cacheQuotaBytes;
+            final long cacheBytes = stats.cacheBytes;
             long blamedSize = dataSize;
             // Technically, we could overages as freeable on the storage settings screen.
             // If the app is using more cache than its quota, we would accidentally subtract the
@@ -118,13 +223,15 @@ public class StorageAsyncLoader
                 blamedSize = blamedSize - cacheBytes + cacheQuota;
             }
 
-            // This isn't quite right because it slams the first user by user id with the whole code
-            // size, but this ensures that we count all apps seen once.
-            if (!mSeenPackages.contains(app.packageName)) {
-                blamedSize += stats.getCodeBytes();
-                mSeenPackages.add(app.packageName);
+            if (task.countCode) {
+                blamedSize += stats.codeBytes;
             }
 
+            AppsStorageResult result = results.get(task.userId);
+            if (result == null) {
+                result = new AppsStorageResult();
+                results.put(task.userId, result);
+            }
             switch (app.category) {
                 case CATEGORY_GAME:
                     result.gamesSize += blamedSize;
@@ -148,16 +255,69 @@ public class StorageAsyncLoader
                     break;
             }
         }
+        return results;
+    }
 
-        Log.d(TAG, "Loading external stats");
+    /**
+     * @return the stats of the app of {@param task}, from the cache if possible, or null if the
+     * app could not be found.
+     */
+    private PackageStorageStatsCache.Entry getStats(AppTask task) {
+        final ApplicationInfo app = task.app;
+        if (mStatsCache != null) {
+            final PackageStorageStatsCache.Entry cached =
+                    mStatsCache.get(mUuid, task.userId, app.packageName);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        StorageStatsSource.AppStorageStats stats;
         try {
-            result.externalStats = mStatsManager.getExternalStorageStats(mUuid,
-                    UserHandle.of(userId));
-        } catch (IOException e) {
-            Log.w(TAG, e);
+            stats = mStatsManager.getStatsForPackage(mUuid, app.packageName,
+                    UserHandle.of(task.userId));
+        } catch (NameNotFoundException | IOException e) {
+            // This may happen if the package was removed during our calculation.
+            Log.w(TAG, "App unexpectedly not found", e);
+            return null;
         }
-        Log.d(TAG, "Obtaining result completed");
-        return result;
+        final PackageStorageStatsCache.Entry entry = new PackageStorageStatsCache.Entry(
+                stats.getCodeBytes(), stats.getDataBytes(), stats.getCacheBytes(),
+                mStatsManager.getCacheQuotaBytes(mUuid, app.uid));
+        if (mStatsCache != null) {
+            mStatsCache.put(mUuid, task.userId, app.packageName, entry);
+        }
+        return entry;
+    }
+
+    private static void mergeResults(SparseArray<AppsStorageResult> total,
+            SparseArray<AppsStorageResult> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            final AppsStorageResult from = batch.valueAt(i);
+            final AppsStorageResult to = total.get(batch.keyAt(i));
+            to.gamesSize += from.gamesSize;
+            to.musicAppsSize += from.musicAppsSize;
+            to.photosAppsSize += from.photosAppsSize;
+            to.videoAppsSize += from.videoAppsSize;
+            to.otherAppsSize += from.otherAppsSize;
+            to.cacheSize += from.cacheSize;
+        }
+    }
+
+    private void publishPartialResult(SparseArray<AppsStorageResult> result) {
+        final ResultHandler handler = mPartialResultHandler;
+        if (handler == null) {
+            return;
+        }
+        final SparseArray<AppsStorageResult> copy = new SparseArray<>(result.size());
+        for (int i = 0; i < result.size(); i++) {
+            copy.put(result.keyAt(i), result.valueAt(i).copy());
+        }
+        mHandler.post(() -> {
+            if (isStarted() && !isAbandoned()) {
+                handler.handleResult(copy);
+            }
+        });
     }
 
     @Override
@@ -172,6 +332,34 @@ public class StorageAsyncLoader
         public long otherAppsSize;
         public long cacheSize;
         public StorageStatsSource.ExternalStorageStats externalStats;
+        // True if some apps could not be measured, in which case the sizes must not be cached.
+        public boolean incomplete;
+
+        AppsStorageResult copy() {
+            final AppsStorageResult copy = new AppsStorageResult();
+            copy.gamesSize = gamesSize;
+            copy.musicAppsSize = musicAppsSize;
+            copy.photosAppsSize = photosAppsSize;
+            copy.videoAppsSize = videoAppsSize;
+            copy.otherAppsSize = otherAppsSize;
+            copy.cacheSize = cacheSize;
+            copy.externalStats = externalStats;
+            copy.incomplete = incomplete;
+            return copy;
+        }
+    }
+
+    private static class AppTask {
+        final int userId;
+        final ApplicationInfo app;
+        // Whether the code size of the app is attributed to this user.
+        final boolean countCode;
+
+        AppTask(int userId, ApplicationInfo app, boolean countCode) {
+            this.userId = userId;
+            this.app = app;
+            this.countCode = countCode;
+        }
     }
 
     /**
@@ -39,13 +39,16 @@ import android.service.notification.NotificationListenerService;
 import android.service.notification.NotificationListenerService.Ranking;
 import android.service.notification.NotificationListenerService.RankingMap;
 import android.service.notification.StatusBarNotification;
+import android.support.annotation.VisibleForTesting;
 import android.support.v7.preference.Preference;
+import android.support.v7.preference.PreferenceScreen;
 import android.support.v7.preference.PreferenceViewHolder;
 import android.support.v7.widget.RecyclerView;
 import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.text.style.StyleSpan;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.view.View;
 import android.widget.DateTimeView;
@@ -62,6 +65,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 public class NotificationStation extends SettingsPreferenceFragment {
     private static final String TAG = NotificationStation.class.getSimpleName();
@@ -71,7 +77,8 @@ public class NotificationStation extends SettingsPreferenceFragment {
     private static final boolean DUMP_PARCEL = true;
     private Handler mHandler;
 
-    private static class HistoricalNotificationInfo {
+    @VisibleForTesting
+    static class HistoricalNotificationInfo {
         public String key;
         public String channel;
         public String pkg;
@@ -83,61 +90,75 @@ public class NotificationStation extends SettingsPreferenceFragment {
         public int user;
         public long timestamp;
         public boolean active;
+        // Built from sbn and payload the first time the row is expanded, see generateExtraText().
         public CharSequence extra;
+        // Light copy of the notification, without its views, bitmaps and parcelable extras.
+        public StatusBarNotification sbn;
+        // Details of the parts of the notification which are not kept in sbn.
+        public CharSequence payload;
+    }
+
+    @VisibleForTesting
+    static class CachedPackageInfo {
+        public Drawable icon;
+        public CharSequence label;
     }
 
     private PackageManager mPm;
     private INotificationManager mNoMan;
     private RankingMap mRanking;
 
-    private Runnable mRefreshListRunnable = new Runnable() {
-        @Override
-        public void run() {
-            refreshList();
-        }
-    };
+    // Notifications are loaded in order on this executor, and the results posted to mHandler.
+    private ExecutorService mLoadExecutor;
+    // Incremented by each full reload, so that the results of older ones are dropped.
+    private int mLoadGeneration;
+    // Package icons and labels by package name. Only accessed on mLoadExecutor.
+    private final ArrayMap<String, CachedPackageInfo> mPackageInfos = new ArrayMap<>();
+    // Shown preferences, sorted like mNotificationSorter. Null until the first load.
+    @VisibleForTesting
+    List<HistoricalNotificationPreference> mPreferences;
+
+    private final Function<HistoricalNotificationInfo, CharSequence> mExtraTextGenerator =
+            new Function<HistoricalNotificationInfo, CharSequence>() {
+                @Override
+                public CharSequence apply(HistoricalNotificationInfo info) {
+                    return generateExtraText(info.sbn, info);
+                }
+            };
 
     private final NotificationListenerService mListener = new NotificationListenerService() {
         @Override
         public void onNotificationPosted(StatusBarNotification sbn, RankingMap ranking) {
             logd("onNotificationPosted: %s, with update for %d", sbn.getNotification(),
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
-            mRanking = ranking;
-            scheduleRefreshList();
+            setRanking(ranking);
+            loadPostedNotification(sbn);
         }
 
         @Override
         public void onNotificationRemoved(StatusBarNotification notification, RankingMap ranking) {
             logd("onNotificationRankingUpdate with update for %d",
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
-            mRanking = ranking;
-            scheduleRefreshList();
+            setRanking(ranking);
+            postRemovedNotification(notification.getKey());
         }
 
         @Override
         public void onNotificationRankingUpdate(RankingMap ranking) {
             logd("onNotificationRankingUpdate with update for %d",
                     ranking == null ? 0 : ranking.getOrderedKeys().length);
-            mRanking = ranking;
-            scheduleRefreshList();
+            setRanking(ranking);
         }
 
         @Override
         public void onListenerConnected() {
-            mRanking = getCurrentRanking();
+            setRanking(getCurrentRanking());
             logd("onListenerConnected with update for %d",
                     mRanking == null ? 0 : mRanking.getOrderedKeys().length);
-            scheduleRefreshList();
+            refreshList();
         }
     };
 
-    private void scheduleRefreshList() {
-        if (mHandler != null) {
-            mHandler.removeCallbacks(mRefreshListRunnable);
-            mHandler.postDelayed(mRefreshListRunnable, 100);
-        }
-    }
-
     private Context mContext;
 
     private final Comparator<HistoricalNotificationInfo> mNotificationSorter
@@ -154,6 +175,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
         logd("onAttach(%s)", activity.getClass().getSimpleName());
         super.onAttach(activity);
         mHandler = new Handler(activity.getMainLooper());
+        mLoadExecutor = Executors.newSingleThreadExecutor();
         mContext = activity;
         mPm = mContext.getPackageManager();
         mNoMan = INotificationManager.Stub.asInterface(
@@ -163,8 +185,9 @@ public class NotificationStation extends SettingsPreferenceFragment {
     @Override
     public void onDetach() {
         logd("onDetach()");
-        mHandler.removeCallbacks(mRefreshListRunnable);
+        mHandler.removeCallbacksAndMessages(null);
         mHandler = null;
+        mLoadExecutor.shutdown();
         super.onDetach();
     }
 
@@ -205,21 +228,197 @@ public class NotificationStation extends SettingsPreferenceFragment {
         refreshList();
     }
 
+    private void setRanking(RankingMap ranking) {
+        mRanking = ranking;
+        // The details of active notifications include their ranking, rebuild them on next expand.
+        if (mPreferences != null) {
+            for (HistoricalNotificationPreference preference : mPreferences) {
+                if (preference.mInfo.active) {
+                    preference.mInfo.extra = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reloads the whole log in the background, then shows it unless it is unchanged.
+     */
     private void refreshList() {
-        List<HistoricalNotificationInfo> infos = loadNotifications();
-        if (infos != null) {
-            final int N = infos.size();
-            logd("adding %d infos", N);
-            Collections.sort(infos, mNotificationSorter);
-            if (getPreferenceScreen() == null) {
-                setPreferenceScreen(getPreferenceManager().createPreferenceScreen(getContext()));
+        final Handler handler = mHandler;
+        if (handler == null) {
+            return;
+        }
+        final int generation = ++mLoadGeneration;
+        mLoadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<HistoricalNotificationInfo> infos = loadNotifications();
+                if (infos == null) {
+                    return;
+                }
+                Collections.sort(infos, mNotificationSorter);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mLoadGeneration && mHandler != null) {
+                            showNotifications(infos);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @VisibleForTesting
+    void showNotifications(List<HistoricalNotificationInfo> infos) {
+        final int N = infos.size();
+        if (isShown(infos)) {
+            logd("%d infos unchanged", N);
+            return;
+        }
+        logd("adding %d infos", N);
+        final PreferenceScreen screen = getOrCreatePreferenceScreen();
+        screen.removeAll();
+        mPreferences = new ArrayList<>(N);
+        for (int i = 0; i < N; i++) {
+            final HistoricalNotificationPreference preference =
+                    new HistoricalNotificationPreference(getPrefContext(), infos.get(i),
+                            mExtraTextGenerator);
+            preference.setOrder(i);
+            mPreferences.add(preference);
+            screen.addPreference(preference);
+        }
+    }
+
+    /**
+     * @return whether {@param infos} are the notifications already shown, in the same order.
+     */
+    private boolean isShown(List<HistoricalNotificationInfo> infos) {
+        if (mPreferences == null || mPreferences.size() != infos.size()) {
+            return false;
+        }
+        for (int i = 0; i < infos.size(); i++) {
+            final HistoricalNotificationInfo shown = mPreferences.get(i).mInfo;
+            final HistoricalNotificationInfo info = infos.get(i);
+            if (!TextUtils.equals(shown.key, info.key) || shown.timestamp != info.timestamp
+                    || shown.active != info.active) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private PreferenceScreen getOrCreatePreferenceScreen() {
+        if (getPreferenceScreen() == null) {
+            setPreferenceScreen(getPreferenceManager().createPreferenceScreen(getContext()));
+        }
+        return getPreferenceScreen();
+    }
+
+    /**
+     * Loads {@param sbn} in the background, then inserts it in the list, replacing the previous
+     * version of the same notification if it is shown.
+     */
+    private void loadPostedNotification(final StatusBarNotification sbn) {
+        final Handler handler = mHandler;
+        if (handler == null) {
+            return;
+        }
+        final int currentUserId = ActivityManager.getCurrentUser();
+        mLoadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final HistoricalNotificationInfo info =
+                        loadNotification(sbn, true /* active */, currentUserId);
+                if (info == null) {
+                    return;
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mHandler != null) {
+                            applyPostedNotification(info);
+                        }
+                    }
+                });
             }
-            getPreferenceScreen().removeAll();
-            for (int i = 0; i < N; i++) {
-                getPreferenceScreen().addPreference(
-                        new HistoricalNotificationPreference(getPrefContext(), infos.get(i)));
+        });
+    }
+
+    @VisibleForTesting
+    void applyPostedNotification(HistoricalNotificationInfo info) {
+        if (mPreferences == null) {
+            // The pending full reload will include it.
+            return;
+        }
+        final PreferenceScreen screen = getOrCreatePreferenceScreen();
+        final HistoricalNotificationPreference previous = findActivePreference(info.key);
+        if (previous != null) {
+            mPreferences.remove(previous);
+            screen.removePreference(previous);
+        }
+        int position = 0;
+        while (position < mPreferences.size()
+                && mNotificationSorter.compare(mPreferences.get(position).mInfo, info) <= 0) {
+            position++;
+        }
+        final HistoricalNotificationPreference preference = new HistoricalNotificationPreference(
+                getPrefContext(), info, mExtraTextGenerator);
+        mPreferences.add(position, preference);
+        for (int i = position + 1; i < mPreferences.size(); i++) {
+            mPreferences.get(i).setOrder(i);
+        }
+        preference.setOrder(position);
+        screen.addPreference(preference);
+    }
+
+    /**
+     * Goes through mLoadExecutor so that the removal is applied after any pending post of the
+     * same notification.
+     */
+    private void postRemovedNotification(final String key) {
+        final Handler handler = mHandler;
+        if (handler == null) {
+            return;
+        }
+        mLoadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mHandler != null) {
+                            applyRemovedNotification(key);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Moves the removed notification to the historical part of the log, as a reload would.
+     */
+    @VisibleForTesting
+    void applyRemovedNotification(String key) {
+        final HistoricalNotificationPreference preference = findActivePreference(key);
+        if (preference != null) {
+            preference.mInfo.active = false;
+            preference.mInfo.extra = null;
+            preference.notifyChanged();
+        }
+    }
+
+    private HistoricalNotificationPreference findActivePreference(String key) {
+        if (mPreferences == null) {
+            return null;
+        }
+        for (HistoricalNotificationPreference preference : mPreferences) {
+            if (preference.mInfo.active && TextUtils.equals(preference.mInfo.key, key)) {
+                return preference;
             }
         }
+        return null;
     }
 
     private static void logd(String msg, Object... args) {
@@ -276,32 +475,11 @@ public class NotificationStation extends SettingsPreferenceFragment {
             for (StatusBarNotification[] resultset
                     : new StatusBarNotification[][] { active, dismissed }) {
                 for (StatusBarNotification sbn : resultset) {
-                    if (sbn.getUserId() != UserHandle.USER_ALL & sbn.getUserId() != currentUserId) {
-                        continue;
+                    final HistoricalNotificationInfo info =
+                            loadNotification(sbn, resultset == active, currentUserId);
+                    if (info != null) {
+                        list.add(info);
                     }
-
-                    final Notification n = sbn.getNotification();
-                    final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
-                    info.pkg = sbn.getPackageName();
-                    info.user = sbn.getUserId();
-                    info.icon = loadIconDrawable(info.pkg, info.user, n.icon);
-                    info.pkgicon = loadPackageIconDrawable(info.pkg, info.user);
-                    info.pkgname = loadPackageName(info.pkg);
-                    info.title = getTitleString(n);
-                    if (TextUtils.isEmpty(info.title)) {
-                        info.title = getString(R.string.notification_log_no_title);
-                    }
-                    info.timestamp = sbn.getPostTime();
-                    info.priority = n.priority;
-                    info.channel = n.getChannelId();
-                    info.key = sbn.getKey();
-
-                    info.active = (resultset == active);
-
-                    info.extra = generateExtraText(sbn, info);
-
-                    logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
-                    list.add(info);
                 }
             }
 
@@ -312,6 +490,52 @@ public class NotificationStation extends SettingsPreferenceFragment {
         return null;
     }
 
+    /**
+     * @return the info shown for {@param sbn}, or null if it belongs to another user.
+     */
+    private HistoricalNotificationInfo loadNotification(StatusBarNotification sbn,
+            boolean active, int currentUserId) {
+        if (sbn.getUserId() != UserHandle.USER_ALL & sbn.getUserId() != currentUserId) {
+            return null;
+        }
+
+        final Notification n = sbn.getNotification();
+        final HistoricalNotificationInfo info = new HistoricalNotificationInfo();
+        info.pkg = sbn.getPackageName();
+        info.user = sbn.getUserId();
+        info.icon = loadIconDrawable(info.pkg, info.user, n.icon);
+        final CachedPackageInfo packageInfo = loadPackageInfo(info.pkg, info.user);
+        info.pkgicon = packageInfo.icon;
+        info.pkgname = packageInfo.label;
+        info.title = getTitleString(n);
+        if (TextUtils.isEmpty(info.title)) {
+            info.title = mContext.getString(R.string.notification_log_no_title);
+        }
+        info.timestamp = sbn.getPostTime();
+        info.priority = n.priority;
+        info.channel = n.getChannelId();
+        info.key = sbn.getKey();
+
+        info.active = active;
+        info.sbn = sbn.cloneLight();
+        info.payload = generatePayloadText(n);
+
+        logd("   [%d] %s: %s", info.timestamp, info.pkg, info.title);
+        return info;
+    }
+
+    @VisibleForTesting
+    CachedPackageInfo loadPackageInfo(String pkg, int userId) {
+        CachedPackageInfo packageInfo = mPackageInfos.get(pkg);
+        if (packageInfo == null) {
+            packageInfo = new CachedPackageInfo();
+            packageInfo.icon = loadPackageIconDrawable(pkg, userId);
+            packageInfo.label = loadPackageName(pkg);
+            mPackageInfos.put(pkg, packageInfo);
+        }
+        return packageInfo;
+    }
+
     private CharSequence generateExtraText(StatusBarNotification sbn,
                                            HistoricalNotificationInfo info) {
         final Ranking rank = new Ranking();
@@ -471,9 +695,21 @@ public class NotificationStation extends SettingsPreferenceFragment {
                 }
             }
         }
+        sb.append(info.payload);
+        return sb;
+    }
+
+    /**
+     * @return the details of the views, extras and parcel size of {@param n}, which are dropped
+     * from the light copy kept by each row. Built when the notification is loaded, in the
+     * background.
+     */
+    private CharSequence generatePayloadText(Notification n) {
+        final SpannableStringBuilder sb = new SpannableStringBuilder();
+        final String delim = mContext.getString(R.string.notification_log_details_delimiter);
         if (n.contentView != null) {
             sb.append("\n")
-                    .append(bold(getString(
+                    .append(bold(mContext.getString(
                             R.string.notification_log_details_content_view)))
                     .append(delim)
                     .append(n.contentView.toString());
@@ -482,7 +718,7 @@ public class NotificationStation extends SettingsPreferenceFragment {
         if (DUMP_EXTRAS) {
             if (n.extras != null && n.extras.size() > 0) {
                 sb.append("\n")
-                        .append(bold(getString(
+                        .append(bold(mContext.getString(
                                 R.string.notification_log_details_extras)));
                 for (String extraKey : n.extras.keySet()) {
                     String val = String.valueOf(n.extras.get(extraKey));
@@ -495,14 +731,15 @@ public class NotificationStation extends SettingsPreferenceFragment {
             final Parcel p = Parcel.obtain();
             n.writeToParcel(p, 0);
             sb.append("\n")
-                    .append(bold(getString(R.string.notification_log_details_parcel)))
+                    .append(bold(mContext.getString(R.string.notification_log_details_parcel)))
                     .append(delim)
                     .append(String.valueOf(p.dataPosition()))
                     .append(' ')
-                    .append(bold(getString(R.string.notification_log_details_ashmem)))
+                    .append(bold(mContext.getString(R.string.notification_log_details_ashmem)))
                     .append(delim)
                     .append(String.valueOf(p.getBlobAshmemSize()))
                     .append("\n");
+            p.recycle();
         }
         return sb;
     }
@@ -566,14 +803,19 @@ public class NotificationStation extends SettingsPreferenceFragment {
         return null;
     }
 
-    private static class HistoricalNotificationPreference extends Preference {
-        private final HistoricalNotificationInfo mInfo;
+    @VisibleForTesting
+    static class HistoricalNotificationPreference extends Preference {
+        @VisibleForTesting
+        final HistoricalNotificationInfo mInfo;
+        private final Function<HistoricalNotificationInfo, CharSequence> mExtraTextGenerator;
         private static long sLastExpandedTimestamp; // quick hack to keep things from collapsing
 
-        public HistoricalNotificationPreference(Context context, HistoricalNotificationInfo info) {
+        public HistoricalNotificationPreference(Context context, HistoricalNotificationInfo info,
+                Function<HistoricalNotificationInfo, CharSequence> extraTextGenerator) {
             super(context);
             setLayoutResource(R.layout.notification_log_row);
             mInfo = info;
+            mExtraTextGenerator = extraTextGenerator;
         }
 
         @Override
@@ -592,16 +834,23 @@ public class NotificationStation extends SettingsPreferenceFragment {
             ((TextView) row.findViewById(R.id.pkgname)).setText(mInfo.pkgname);
 
             final TextView extra = (TextView) row.findViewById(R.id.extra);
-            extra.setText(mInfo.extra);
-            extra.setVisibility(mInfo.timestamp == sLastExpandedTimestamp
-                    ? View.VISIBLE : View.GONE);
+            if (mInfo.timestamp == sLastExpandedTimestamp) {
+                extra.setText(getExtra());
+                extra.setVisibility(View.VISIBLE);
+            } else {
+                extra.setVisibility(View.GONE);
+            }
 
             row.itemView.setOnClickListener(
                     new View.OnClickListener() {
                         @Override
                         public void onClick(View view) {
-                            extra.setVisibility(extra.getVisibility() == View.VISIBLE
-                                    ? View.GONE : View.VISIBLE);
+                            if (extra.getVisibility() == View.VISIBLE) {
+                                extra.setVisibility(View.GONE);
+                            } else {
+                                extra.setText(getExtra());
+                                extra.setVisibility(View.VISIBLE);
+                            }
                             sLastExpandedTimestamp = mInfo.timestamp;
                         }
                     });
@@ -609,6 +858,13 @@ public class NotificationStation extends SettingsPreferenceFragment {
             row.itemView.setAlpha(mInfo.active ? 1.0f : 0.5f);
         }
 
+        private CharSequence getExtra() {
+            if (mInfo.extra == null) {
+                mInfo.extra = mExtraTextGenerator.apply(mInfo);
+            }
+            return mInfo.extra;
+        }
+
         @Override
         public void performClick() {
 //            Intent intent = new Intent(android.provider.Settings.ACTION_APPLICATION_DETAILS_SETTINGS,
@@ -40,7 +40,8 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
-public class AccessibilityServiceResultLoader extends AsyncLoader<Set<? extends SearchResult>> {
+public class AccessibilityServiceResultLoader extends AsyncLoader<Set<? extends SearchResult>>
+        implements SearchQueryLoader {
 
     private static final int NAME_NO_MATCH = -1;
 
@@ -62,6 +63,11 @@ public class AccessibilityServiceResultLoader extends AsyncLoader<Set<? extends
         mQuery = query;
     }
 
+    @Override
+    public String getQuery() {
+        return mQuery;
+    }
+
     @Override
     public Set<? extends SearchResult> loadInBackground() {
         final Set<SearchResult> results = new HashSet<>();
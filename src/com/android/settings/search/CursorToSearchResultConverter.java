@@ -18,8 +18,6 @@
 package com.android.settings.search;
 
 import android.content.Context;
-import android.content.pm.PackageManager;
-import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.drawable.Drawable;
 import android.os.BadParcelableException;
@@ -29,10 +27,8 @@ import android.util.Log;
 import com.android.settings.dashboard.SiteMapManager;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import static com.android.settings.search.DatabaseResultLoader.BASE_RANKS;
@@ -41,6 +37,7 @@ import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_ICON
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_ID;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_INTENT_ACTION_TARGET_PACKAGE;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_KEY;
+import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_MATCH_OFFSETS;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_PAYLOAD;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_PAYLOAD_TYPE;
 import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_SCREEN_TITLE;
@@ -63,6 +60,7 @@ public class CursorToSearchResultConverter {
     private static final String TAG = "CursorConverter";
 
     private final Context mContext;
+    private final SearchIconCache mIconCache;
 
     private final int LONG_TITLE_LENGTH = 20;
 
@@ -83,6 +81,7 @@ public class CursorToSearchResultConverter {
 
     public CursorToSearchResultConverter(Context context) {
         mContext = context;
+        mIconCache = SearchIconCache.getInstance(context);
     }
 
     public Set<SearchResult> convertCursor(SiteMapManager sitemapManager,
@@ -90,12 +89,33 @@ public class CursorToSearchResultConverter {
         if (cursorResults == null) {
             return null;
         }
-        final Map<String, Context> contextMap = new HashMap<>();
         final Set<SearchResult> results = new HashSet<>();
 
         while (cursorResults.moveToNext()) {
             SearchResult result = buildSingleSearchResultFromCursor(sitemapManager,
-                    contextMap, cursorResults, baseRank);
+                    cursorResults, baseRank);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Converts the results of an FTS MATCH query, where the base rank of each row is derived
+     * from the match offsets in {@link DatabaseResultLoader#COLUMN_INDEX_MATCH_OFFSETS}.
+     */
+    public Set<SearchResult> convertCursor(SiteMapManager sitemapManager, Cursor cursorResults) {
+        if (cursorResults == null) {
+            return null;
+        }
+        final Set<SearchResult> results = new HashSet<>();
+
+        while (cursorResults.moveToNext()) {
+            final int baseRank = DatabaseResultLoader.getBaseRankFromOffsets(
+                    cursorResults.getString(COLUMN_INDEX_MATCH_OFFSETS));
+            SearchResult result = buildSingleSearchResultFromCursor(sitemapManager,
+                    cursorResults, baseRank);
             if (result != null) {
                 results.add(result);
             }
@@ -124,7 +144,7 @@ public class CursorToSearchResultConverter {
     }
 
     private SearchResult buildSingleSearchResultFromCursor(SiteMapManager sitemapManager,
-            Map<String, Context> contextMap, Cursor cursor, int baseRank) {
+            Cursor cursor, int baseRank) {
         final int docId = cursor.getInt(COLUMN_INDEX_ID);
         final String pkgName = cursor.getString(COLUMN_INDEX_INTENT_ACTION_TARGET_PACKAGE);
         final String title = cursor.getString(COLUMN_INDEX_TITLE);
@@ -145,41 +165,20 @@ public class CursorToSearchResultConverter {
                 .setSummary(summaryOn)
                 .addBreadcrumbs(breadcrumbs)
                 .setRank(rank)
-                .setIcon(getIconForPackage(contextMap, pkgName, className, iconResStr))
+                .setIcon(getIconForPackage(pkgName, className, iconResStr))
                 .setPayload(payload);
         return builder.build();
     }
 
-    private Drawable getIconForPackage(Map<String, Context> contextMap, String pkgName,
-            String className, String iconResStr) {
+    private Drawable getIconForPackage(String pkgName, String className, String iconResStr) {
         final int iconId = TextUtils.isEmpty(iconResStr)
                 ? 0 : Integer.parseInt(iconResStr);
-        Drawable icon;
-        Context packageContext;
         if (iconId == 0) {
-            icon = null;
-        } else {
-            if (TextUtils.isEmpty(className) && !TextUtils.isEmpty(pkgName)) {
-                packageContext = contextMap.get(pkgName);
-                if (packageContext == null) {
-                    try {
-                        packageContext = mContext.createPackageContext(pkgName, 0);
-                    } catch (PackageManager.NameNotFoundException e) {
-                        Log.e(TAG, "Cannot create Context for package: " + pkgName);
-                        return null;
-                    }
-                    contextMap.put(pkgName, packageContext);
-                }
-            } else {
-                packageContext = mContext;
-            }
-            try {
-                icon = packageContext.getDrawable(iconId);
-            } catch (Resources.NotFoundException nfe) {
-                icon = null;
-            }
+            return null;
         }
-        return icon;
+        // Icons of results with a class name are Settings' own resources.
+        final String iconPackage = TextUtils.isEmpty(className) ? pkgName : null;
+        return mIconCache.getIcon(mContext, iconPackage, iconId);
     }
 
     private List<String> getBreadcrumbs(SiteMapManager siteMapManager, Cursor cursor) {
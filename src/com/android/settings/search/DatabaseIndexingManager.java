@@ -38,11 +38,6 @@ import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_INT
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_INTENT_TARGET_CLASS;
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_INTENT_TARGET_PACKAGE;
 import static android.provider.SearchIndexablesContract.COLUMN_INDEX_XML_RES_RESID;
-import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_ID;
-import static com.android.settings.search.DatabaseResultLoader
-        .COLUMN_INDEX_INTENT_ACTION_TARGET_PACKAGE;
-import static com.android.settings.search.DatabaseResultLoader.COLUMN_INDEX_KEY;
-import static com.android.settings.search.DatabaseResultLoader.SELECT_COLUMNS;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.CLASS_NAME;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_ENTRIES;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_KEYWORDS;
@@ -56,7 +51,6 @@ import static com.android.settings.search.IndexDatabaseHelper.IndexColumns
         .DATA_SUMMARY_ON_NORMALIZED;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_TITLE;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DATA_TITLE_NORMALIZED;
-import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.DOCID;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.ENABLED;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.ICON;
 import static com.android.settings.search.IndexDatabaseHelper.IndexColumns.INTENT_ACTION;
@@ -80,9 +74,11 @@ import android.content.res.XmlResourceParser;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
+import android.os.SystemClock;
 import android.provider.SearchIndexableData;
 import android.provider.SearchIndexableResource;
 import android.provider.SearchIndexablesContract;
@@ -110,6 +106,14 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -134,6 +138,72 @@ public class DatabaseIndexingManager {
 
     private static final List<String> EMPTY_LIST = Collections.emptyList();
 
+    /**
+     * Maximum number of providers queried concurrently during indexing.
+     */
+    private static final int MAX_PROVIDER_THREADS = 4;
+
+    /**
+     * Time given to all providers together to return their data before the ones which did not
+     * answer are skipped.
+     */
+    private static final long PROVIDER_TIMEOUT_MS = 10000;
+
+    /**
+     * Below this number of items, their rows are built on the calling thread, as handing them to
+     * the indexing threads costs more than it saves.
+     */
+    @VisibleForTesting
+    static final int MIN_PARALLEL_INDEXING_ITEMS = 4;
+
+    /**
+     * How long the indexing threads are kept once idle.
+     */
+    private static final long INDEXING_THREAD_KEEP_ALIVE_MS = 5000;
+
+    /**
+     * Threads building index rows, shared by all indexing runs. Created on first use.
+     */
+    private static ExecutorService sIndexingExecutor;
+
+    /**
+     * Number of times the providers which timed out during a full index are queried again
+     * before the index is marked as complete without their data.
+     */
+    @VisibleForTesting
+    static final int MAX_PROVIDER_RETRIES = 3;
+
+    private static final String TEMP_TABLE_NON_INDEXABLE_PACKAGES =
+            "temp.non_indexable_packages";
+    private static final String TEMP_TABLE_NON_INDEXABLE_KEYS = "temp.non_indexable_keys";
+    private static final String TEMP_COLUMN_PACKAGE = "package";
+    private static final String TEMP_COLUMN_KEY = "data_key";
+
+    private static final String CREATE_TEMP_NON_INDEXABLE_PACKAGES_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + TEMP_TABLE_NON_INDEXABLE_PACKAGES +
+                    "(" +
+                    TEMP_COLUMN_PACKAGE + " TEXT PRIMARY KEY" +
+                    ")";
+
+    private static final String CREATE_TEMP_NON_INDEXABLE_KEYS_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + TEMP_TABLE_NON_INDEXABLE_KEYS +
+                    "(" +
+                    TEMP_COLUMN_PACKAGE + " TEXT NOT NULL" +
+                    ", " +
+                    TEMP_COLUMN_KEY + " TEXT NOT NULL" +
+                    ", " +
+                    "PRIMARY KEY (" + TEMP_COLUMN_PACKAGE + ", " + TEMP_COLUMN_KEY + ")" +
+                    ")";
+
+    /* Matches rows of prefs_index whose (package, key) is in the non-indexable keys table.
+     Binds the Settings package name, used for rows without a target package. */
+    private static final String WHERE_NON_INDEXABLE_KEY =
+            "EXISTS (SELECT 1 FROM " + TEMP_TABLE_NON_INDEXABLE_KEYS +
+                    " WHERE " + TEMP_COLUMN_PACKAGE + " = IFNULL(" + TABLE_PREFS_INDEX + "." +
+                    INTENT_TARGET_PACKAGE + ", ?)" +
+                    " AND " + TEMP_COLUMN_KEY + " = CAST(" + TABLE_PREFS_INDEX + "." +
+                    DATA_KEY_REF + " AS TEXT))";
+
     private final String mBaseAuthority;
 
     @VisibleForTesting
@@ -143,6 +213,9 @@ public class DatabaseIndexingManager {
     final UpdateData mDataToProcess = new UpdateData();
     private Context mContext;
 
+    @VisibleForTesting
+    long mProviderTimeoutMs = PROVIDER_TIMEOUT_MS;
+
     public DatabaseIndexingManager(Context context, String baseAuthority) {
         mContext = context;
         mBaseAuthority = baseAuthority;
@@ -179,28 +252,31 @@ public class DatabaseIndexingManager {
 
         final boolean isFullIndex = IndexDatabaseHelper.isFullIndex(mContext, localeStr,
                 fingerprint, providerVersionedNames);
-
-        if (isFullIndex) {
-            rebuildDatabase();
-        }
-
-        for (final ResolveInfo info : providers) {
-            if (!DatabaseIndexingUtils.isWellKnownProvider(info, mContext)) {
-                continue;
+        final String indexState = IndexDatabaseHelper.buildIndexState(localeStr, fingerprint,
+                providerVersionedNames);
+        // Set if the previous full index of this state only missed the providers which timed out.
+        final Set<String> pendingProviders = isFullIndex
+                ? IndexDatabaseHelper.getPendingProviders(mContext, indexState) : null;
+
+        if (pendingProviders != null) {
+            Log.i(LOG_TAG, "Retrying providers which timed out: " + pendingProviders);
+        } else if (isFullIndex) {
+            if (IndexDatabaseHelper.isBuildIndexed(mContext, fingerprint)
+                    && IndexDatabaseHelper.areProvidersIndexed(mContext, providerVersionedNames)) {
+                // Only the locale is new: keep the rows of the other retained locales.
+                clearLocale(localeStr);
+            } else {
+                rebuildDatabase();
             }
-            final String authority = info.providerInfo.authority;
-            final String packageName = info.providerInfo.packageName;
+        }
 
-            if (isFullIndex) {
-                addIndexablesFromRemoteProvider(packageName, authority);
-            }
-            final long nonIndexableStartTime = System.currentTimeMillis();
-            addNonIndexablesKeysFromRemoteProvider(packageName, authority);
-            if (SettingsSearchIndexablesProvider.DEBUG) {
-                final long nonIndextableTime = System.currentTimeMillis() - nonIndexableStartTime;
-                Log.d(LOG_TAG, "performIndexing update non-indexable for package " + packageName
-                        + " took time: " + nonIndextableTime);
-            }
+        final long collectStartTime = System.currentTimeMillis();
+        final List<String> timedOutProviders = collectFromProviders(
+                getProvidersToCollect(providers, pendingProviders), isFullIndex);
+        if (SettingsSearchIndexablesProvider.DEBUG) {
+            final long collectTime = System.currentTimeMillis() - collectStartTime;
+            Log.d(LOG_TAG, "performIndexing collecting from providers took time: "
+                    + collectTime);
         }
         final long updateDatabaseStartTime = System.currentTimeMillis();
         updateDatabase(isFullIndex, localeStr);
@@ -209,10 +285,31 @@ public class DatabaseIndexingManager {
             Log.d(LOG_TAG, "performIndexing updateDatabase took time: " + updateDatabaseTime);
         }
 
-        //TODO(63922686): Setting indexed should be a single method, not 3 separate setters.
-        IndexDatabaseHelper.setLocaleIndexed(mContext, localeStr);
-        IndexDatabaseHelper.setBuildIndexed(mContext, fingerprint);
-        IndexDatabaseHelper.setProvidersIndexed(mContext, providerVersionedNames);
+        boolean indexed = timedOutProviders.isEmpty();
+        if (!indexed && isFullIndex) {
+            final int retries = pendingProviders != null
+                    ? IndexDatabaseHelper.getPendingProviderRetries(mContext) + 1 : 0;
+            if (retries < MAX_PROVIDER_RETRIES) {
+                // Leave the index marked as stale so that the next pass only queries these again.
+                Log.w(LOG_TAG, "Providers timed out, indexing will be retried: "
+                        + timedOutProviders);
+                IndexDatabaseHelper.setPendingProviders(mContext, indexState,
+                        timedOutProviders, retries);
+            } else {
+                Log.w(LOG_TAG, "Providers timed out too often, indexing without them: "
+                        + timedOutProviders);
+                indexed = true;
+            }
+        }
+        if (indexed) {
+            //TODO(63922686): Setting indexed should be a single method, not 3 separate setters.
+            IndexDatabaseHelper.setLocaleIndexed(mContext, localeStr);
+            IndexDatabaseHelper.setBuildIndexed(mContext, fingerprint);
+            IndexDatabaseHelper.setProvidersIndexed(mContext, providerVersionedNames);
+            IndexDatabaseHelper.clearPendingProviders(mContext);
+            // Only retain complete indexes, a partial one is completed when the locale is used.
+            retainLocale(localeStr, isFullIndex);
+        }
 
         if (SettingsSearchIndexablesProvider.DEBUG) {
             final long indexingTime = System.currentTimeMillis() - startTime;
@@ -221,16 +318,158 @@ public class DatabaseIndexingManager {
         }
     }
 
+    /**
+     * Queries all well-known providers concurrently, on at most {@link #MAX_PROVIDER_THREADS}
+     * threads. Each provider collects into its own {@link UpdateData}, which is merged into
+     * {@link #mDataToProcess} by the calling thread once the provider has answered.
+     *
+     * Providers which have not answered within {@link #mProviderTimeoutMs} of the start are
+     * cancelled so that they cannot stall indexing of the others. Anything they report
+     * afterwards is discarded.
+     *
+     * @param providers   all providers implementing the search indexables interface.
+     * @param isFullIndex true to collect indexable data in addition to non-indexable keys.
+     * @return the package names of the providers which timed out, whose data is missing.
+     */
+    @VisibleForTesting
+    List<String> collectFromProviders(List<ResolveInfo> providers, final boolean isFullIndex) {
+        final List<ResolveInfo> wellKnownProviders = new ArrayList<>();
+        for (ResolveInfo info : providers) {
+            if (DatabaseIndexingUtils.isWellKnownProvider(info, mContext)) {
+                wellKnownProviders.add(info);
+            }
+        }
+        final int providerCount = wellKnownProviders.size();
+        final List<String> timedOut = new ArrayList<>();
+        if (providerCount == 0) {
+            return timedOut;
+        }
+
+        final long deadline = SystemClock.elapsedRealtime() + mProviderTimeoutMs;
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_PROVIDER_THREADS, providerCount));
+        final List<Future<UpdateData>> futures = new ArrayList<>(providerCount);
+        try {
+            for (ResolveInfo info : wellKnownProviders) {
+                final String authority = info.providerInfo.authority;
+                final String packageName = info.providerInfo.packageName;
+                futures.add(executor.submit(
+                        () -> collectFromProvider(packageName, authority, isFullIndex)));
+            }
+
+            for (int i = 0; i < providerCount; i++) {
+                final String packageName = wellKnownProviders.get(i).providerInfo.packageName;
+                final Future<UpdateData> future = futures.get(i);
+                try {
+                    final long timeout = Math.max(0, deadline - SystemClock.elapsedRealtime());
+                    final UpdateData data = future.get(timeout, TimeUnit.MILLISECONDS);
+                    synchronized (mDataToProcess) {
+                        mDataToProcess.dataToUpdate.addAll(data.dataToUpdate);
+                        mDataToProcess.nonIndexableKeys.putAll(data.nonIndexableKeys);
+                    }
+                } catch (TimeoutException e) {
+                    Log.w(LOG_TAG, "Timed out collecting index data for package " + packageName);
+                    future.cancel(true /* mayInterruptIfRunning */);
+                    timedOut.add(packageName);
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error collecting index data for package " + packageName,
+                            e.getCause());
+                } catch (InterruptedException e) {
+                    Log.w(LOG_TAG, "Interrupted while collecting index data");
+                    Thread.currentThread().interrupt();
+                    // The providers which were not waited for are missing as well.
+                    for (int j = i; j < providerCount; j++) {
+                        timedOut.add(wellKnownProviders.get(j).providerInfo.packageName);
+                    }
+                    return timedOut;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return timedOut;
+    }
+
+    /**
+     * @return the providers of {@param pendingProviders}, or all providers if it is null.
+     */
+    private static List<ResolveInfo> getProvidersToCollect(List<ResolveInfo> providers,
+            Set<String> pendingProviders) {
+        if (pendingProviders == null) {
+            return providers;
+        }
+        final List<ResolveInfo> result = new ArrayList<>();
+        for (ResolveInfo info : providers) {
+            if (pendingProviders.contains(info.providerInfo.packageName)) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    private UpdateData collectFromProvider(String packageName, String authority,
+            boolean isFullIndex) {
+        final UpdateData data = new UpdateData();
+        if (isFullIndex) {
+            addIndexablesFromRemoteProvider(packageName, authority, data);
+        }
+        final long nonIndexableStartTime = System.currentTimeMillis();
+        addNonIndexablesKeysFromRemoteProvider(packageName, authority, data);
+        if (SettingsSearchIndexablesProvider.DEBUG) {
+            final long nonIndextableTime = System.currentTimeMillis() - nonIndexableStartTime;
+            Log.d(LOG_TAG, "performIndexing update non-indexable for package " + packageName
+                    + " took time: " + nonIndextableTime);
+        }
+        return data;
+    }
+
+    /**
+     * Deletes the rows of a locale which is indexed again while the rows of other locales are
+     * kept, e.g. after they were partially written.
+     */
+    private void clearLocale(String localeStr) {
+        final SQLiteDatabase db = getWritableDatabase();
+        if (db != null) {
+            IndexDatabaseHelper.deleteLocale(db, localeStr);
+        }
+    }
+
+    /**
+     * Marks {@param localeStr} as the most recently used locale, and deletes the rows of the
+     * locales which are no longer retained. After a full index, logs the size of the data kept
+     * for each locale.
+     */
+    private void retainLocale(String localeStr, boolean isFullIndex) {
+        final List<String> evicted = IndexDatabaseHelper.retainLocale(mContext, localeStr);
+        if (evicted.isEmpty() && !isFullIndex) {
+            return;
+        }
+        final SQLiteDatabase db = getWritableDatabase();
+        if (db == null) {
+            return;
+        }
+        for (String locale : evicted) {
+            Log.i(LOG_TAG, "Evicting index of locale '" + locale + "'");
+            IndexDatabaseHelper.deleteLocale(db, locale);
+        }
+        for (Map.Entry<String, Long> entry : IndexDatabaseHelper.getLocaleSizes(db).entrySet()) {
+            Log.i(LOG_TAG, "Index of locale '" + entry.getKey() + "' uses about "
+                    + entry.getValue() + " bytes");
+        }
+    }
+
     /**
      * Reconstruct the database in the following cases:
-     * - Language has changed
      * - Build has changed
+     * - Providers have changed
      */
     private void rebuildDatabase() {
-        // Drop the database when the locale or build has changed. This eliminates rows which are
-        // dynamically inserted in the old language, or deprecated settings.
+        // Drop the database when the build or providers have changed. This eliminates rows of
+        // deprecated settings.
         final SQLiteDatabase db = getWritableDatabase();
         IndexDatabaseHelper.getInstance(mContext).reconstruct(db);
+        // The rows of the other locales are gone, they have to be indexed again when used.
+        IndexDatabaseHelper.clearRetainedLocales(mContext);
     }
 
     /**
@@ -284,6 +523,15 @@ public class DatabaseIndexingManager {
     /**
      * Inserts {@link SearchIndexableData} into the database.
      *
+     * The rows of each item are built concurrently on a shared pool of up to one thread per core,
+     * as parsing the XML resources and querying the local providers dominates the time taken, so
+     * the {@link Indexable.SearchIndexProvider}s of different items can run at the same time.
+     * Fewer than {@link #MIN_PARALLEL_INDEXING_ITEMS} items, e.g. a single class updated by
+     * {@link #updateFromClassNameResource(String, boolean)}, are built on the calling thread.
+     * The rows are then inserted by the calling thread alone, in the order of
+     * {@param dataToUpdate}, as part of the transaction opened by
+     * {@link #updateDatabase(boolean, String)}.
+     *
      * @param database         where the data will be inserted.
      * @param localeStr        is the locale of the data to be inserted.
      * @param dataToUpdate     is a {@link List} of the data to be inserted.
@@ -295,12 +543,46 @@ public class DatabaseIndexingManager {
             List<SearchIndexableData> dataToUpdate, Map<String, Set<String>> nonIndexableKeys) {
         final long current = System.currentTimeMillis();
 
-        for (SearchIndexableData data : dataToUpdate) {
+        final int size = dataToUpdate.size();
+        if (size < MIN_PARALLEL_INDEXING_ITEMS) {
+            for (SearchIndexableData data : dataToUpdate) {
+                try {
+                    insertRows(database, buildRows(localeStr, data, nonIndexableKeys));
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Cannot index: " + (data != null ? data.className : data)
+                            + " for locale: " + localeStr, e);
+                }
+            }
+        } else {
+            final ExecutorService executor = getIndexingExecutor();
+            final List<Future<List<DatabaseRow>>> futures = new ArrayList<>(size);
             try {
-                indexOneSearchIndexableData(database, localeStr, data, nonIndexableKeys);
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "Cannot index: " + (data != null ? data.className : data)
-                        + " for locale: " + localeStr, e);
+                for (SearchIndexableData data : dataToUpdate) {
+                    futures.add(executor.submit(
+                            () -> buildRows(localeStr, data, nonIndexableKeys)));
+                }
+
+                for (int i = 0; i < size; i++) {
+                    final SearchIndexableData data = dataToUpdate.get(i);
+                    try {
+                        insertRows(database, futures.get(i).get());
+                    } catch (ExecutionException e) {
+                        Log.e(LOG_TAG, "Cannot index: " + (data != null ? data.className : data)
+                                + " for locale: " + localeStr, e.getCause());
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Cannot index: " + (data != null ? data.className : data)
+                                + " for locale: " + localeStr, e);
+                    } catch (InterruptedException e) {
+                        Log.w(LOG_TAG, "Interrupted while indexing locale: " + localeStr);
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            } finally {
+                // Do not leave work for this run on the shared threads, e.g. when interrupted.
+                for (Future<List<DatabaseRow>> future : futures) {
+                    future.cancel(true /* mayInterruptIfRunning */);
+                }
             }
         }
 
@@ -309,88 +591,109 @@ public class DatabaseIndexingManager {
                 (now - current) + " millis");
     }
 
+    private static synchronized ExecutorService getIndexingExecutor() {
+        if (sIndexingExecutor == null) {
+            final int threads = Runtime.getRuntime().availableProcessors();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                    INDEXING_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>());
+            // Indexing runs rarely, do not keep the threads around in between.
+            executor.allowCoreThreadTimeOut(true);
+            sIndexingExecutor = executor;
+        }
+        return sIndexingExecutor;
+    }
+
     /**
      * Upholds the validity of enabled data for the user.
      * All rows which are enabled but are now flagged with non-indexable keys will become disabled.
      * All rows which are disabled but no longer a non-indexable key will become enabled.
      *
+     * The non-indexable keys are loaded into temporary tables so that both flips are done with a
+     * single set-based UPDATE each, rather than one statement per changed row.
+     *
      * @param database         The database to validate.
      * @param nonIndexableKeys A map between package name and the set of non-indexable keys for it.
      */
     @VisibleForTesting
     void updateDataInDatabase(SQLiteDatabase database,
             Map<String, Set<String>> nonIndexableKeys) {
-        final String whereEnabled = ENABLED + " = 1";
-        final String whereDisabled = ENABLED + " = 0";
-
-        final Cursor enabledResults = database.query(TABLE_PREFS_INDEX, SELECT_COLUMNS,
-                whereEnabled, null, null, null, null);
-
-        final ContentValues enabledToDisabledValue = new ContentValues();
-        enabledToDisabledValue.put(ENABLED, 0);
-
-        String packageName;
-        // TODO Refactor: Move these two loops into one method.
-        while (enabledResults.moveToNext()) {
-            // Package name is the key for remote providers.
-            // If package name is null, the provider is Settings.
-            packageName = enabledResults.getString(COLUMN_INDEX_INTENT_ACTION_TARGET_PACKAGE);
-            if (packageName == null) {
-                packageName = mContext.getPackageName();
-            }
-
-            final String key = enabledResults.getString(COLUMN_INDEX_KEY);
-            final Set<String> packageKeys = nonIndexableKeys.get(packageName);
-
-            // The indexed item is set to Enabled but is now non-indexable
-            if (packageKeys != null && packageKeys.contains(key)) {
-                final String whereClause = DOCID + " = " + enabledResults.getInt(COLUMN_INDEX_ID);
-                database.update(TABLE_PREFS_INDEX, enabledToDisabledValue, whereClause, null);
+        database.execSQL(CREATE_TEMP_NON_INDEXABLE_PACKAGES_TABLE);
+        database.execSQL(CREATE_TEMP_NON_INDEXABLE_KEYS_TABLE);
+        try {
+            database.execSQL("DELETE FROM " + TEMP_TABLE_NON_INDEXABLE_PACKAGES);
+            database.execSQL("DELETE FROM " + TEMP_TABLE_NON_INDEXABLE_KEYS);
+
+            final SQLiteStatement insertPackage = database.compileStatement(
+                    "INSERT OR IGNORE INTO " + TEMP_TABLE_NON_INDEXABLE_PACKAGES
+                            + " VALUES (?)");
+            final SQLiteStatement insertKey = database.compileStatement(
+                    "INSERT OR IGNORE INTO " + TEMP_TABLE_NON_INDEXABLE_KEYS
+                            + " VALUES (?, ?)");
+            try {
+                for (Map.Entry<String, Set<String>> entry : nonIndexableKeys.entrySet()) {
+                    final String packageName = entry.getKey();
+                    final Set<String> keys = entry.getValue();
+                    // A null set of keys means the package is unknown, leave its rows untouched.
+                    if (packageName == null || keys == null) {
+                        continue;
+                    }
+                    insertPackage.bindString(1, packageName);
+                    insertPackage.executeInsert();
+                    for (String key : keys) {
+                        if (key == null) {
+                            continue;
+                        }
+                        insertKey.bindString(1, packageName);
+                        insertKey.bindString(2, key);
+                        insertKey.executeInsert();
+                    }
+                }
+            } finally {
+                insertPackage.close();
+                insertKey.close();
             }
-        }
-        enabledResults.close();
-
-        final Cursor disabledResults = database.query(TABLE_PREFS_INDEX, SELECT_COLUMNS,
-                whereDisabled, null, null, null, null);
 
-        final ContentValues disabledToEnabledValue = new ContentValues();
-        disabledToEnabledValue.put(ENABLED, 1);
-
-        while (disabledResults.moveToNext()) {
             // Package name is the key for remote providers.
             // If package name is null, the provider is Settings.
-            packageName = disabledResults.getString(COLUMN_INDEX_INTENT_ACTION_TARGET_PACKAGE);
-            if (packageName == null) {
-                packageName = mContext.getPackageName();
-            }
+            final String[] packageArgs = {mContext.getPackageName()};
 
-            final String key = disabledResults.getString(COLUMN_INDEX_KEY);
-            final Set<String> packageKeys = nonIndexableKeys.get(packageName);
+            // The indexed item is set to Enabled but is now non-indexable
+            database.execSQL("UPDATE " + TABLE_PREFS_INDEX + " SET " + ENABLED + " = 0"
+                    + " WHERE " + ENABLED + " = 1 AND " + WHERE_NON_INDEXABLE_KEY, packageArgs);
 
             // The indexed item is set to Disabled but is no longer non-indexable.
-            // We do not enable keys when packageKeys is null because it means the keys came
+            // We do not enable keys when the package has no entry because it means the keys came
             // from an unrecognized package and therefore should not be surfaced as results.
-            if (packageKeys != null && !packageKeys.contains(key)) {
-                String whereClause = DOCID + " = " + disabledResults.getInt(COLUMN_INDEX_ID);
-                database.update(TABLE_PREFS_INDEX, disabledToEnabledValue, whereClause, null);
-            }
+            database.execSQL("UPDATE " + TABLE_PREFS_INDEX + " SET " + ENABLED + " = 1"
+                    + " WHERE " + ENABLED + " = 0"
+                    + " AND IFNULL(" + INTENT_TARGET_PACKAGE + ", ?) IN (SELECT "
+                    + TEMP_COLUMN_PACKAGE + " FROM " + TEMP_TABLE_NON_INDEXABLE_PACKAGES + ")"
+                    + " AND NOT " + WHERE_NON_INDEXABLE_KEY,
+                    new String[] {packageArgs[0], packageArgs[0]});
+        } finally {
+            database.execSQL("DROP TABLE IF EXISTS " + TEMP_TABLE_NON_INDEXABLE_KEYS);
+            database.execSQL("DROP TABLE IF EXISTS " + TEMP_TABLE_NON_INDEXABLE_PACKAGES);
         }
-        disabledResults.close();
     }
 
+    /**
+     * Adds the indexable data of a provider to {@param data}.
+     */
     @VisibleForTesting
-    boolean addIndexablesFromRemoteProvider(String packageName, String authority) {
+    boolean addIndexablesFromRemoteProvider(String packageName, String authority,
+            UpdateData data) {
         try {
             final Context context = mBaseAuthority.equals(authority) ?
                     mContext : mContext.createPackageContext(packageName, 0);
 
             final Uri uriForResources = buildUriForXmlResources(authority);
             addIndexablesForXmlResourceUri(context, packageName, uriForResources,
-                    SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS);
+                    SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS, data);
 
             final Uri uriForRawData = buildUriForRawData(authority);
             addIndexablesForRawDataUri(context, packageName, uriForRawData,
-                    SearchIndexablesContract.INDEXABLES_RAW_COLUMNS);
+                    SearchIndexablesContract.INDEXABLES_RAW_COLUMNS, data);
             return true;
         } catch (PackageManager.NameNotFoundException e) {
             Log.w(LOG_TAG, "Could not create context for " + packageName + ": "
@@ -399,13 +702,18 @@ public class DatabaseIndexingManager {
         }
     }
 
+    /**
+     * Adds the non-indexable keys of a provider to {@param data}.
+     */
     @VisibleForTesting
     void addNonIndexablesKeysFromRemoteProvider(String packageName,
-            String authority) {
+            String authority, UpdateData data) {
         final List<String> keys =
                 getNonIndexablesKeysFromRemoteProvider(packageName, authority);
 
-        addNonIndexableKeys(packageName, keys);
+        if (keys != null && !keys.isEmpty()) {
+            data.nonIndexableKeys.put(packageName, new ArraySet<>(keys));
+        }
     }
 
     private List<String> getNonIndexablesKeysFromRemoteProvider(String packageName,
@@ -523,7 +831,7 @@ public class DatabaseIndexingManager {
     }
 
     private void addIndexablesForXmlResourceUri(Context packageContext, String packageName,
-            Uri uri, String[] projection) {
+            Uri uri, String[] projection, UpdateData data) {
 
         final ContentResolver resolver = packageContext.getContentResolver();
         final Cursor cursor = resolver.query(uri, projection, null, null, null);
@@ -557,7 +865,7 @@ public class DatabaseIndexingManager {
                     sir.intentTargetPackage = targetPackage;
                     sir.intentTargetClass = targetClass;
 
-                    addIndexableData(sir);
+                    data.dataToUpdate.add(sir);
                 }
             }
         } finally {
@@ -566,7 +874,7 @@ public class DatabaseIndexingManager {
     }
 
     private void addIndexablesForRawDataUri(Context packageContext, String packageName,
-            Uri uri, String[] projection) {
+            Uri uri, String[] projection, UpdateData updateData) {
 
         final ContentResolver resolver = packageContext.getContentResolver();
         final Cursor cursor = resolver.query(uri, projection, null, null, null);
@@ -618,7 +926,7 @@ public class DatabaseIndexingManager {
                     data.key = key;
                     data.userId = userId;
 
-                    addIndexableData(data);
+                    updateData.dataToUpdate.add(data);
                 }
             }
         } finally {
@@ -628,15 +936,37 @@ public class DatabaseIndexingManager {
 
     public void indexOneSearchIndexableData(SQLiteDatabase database, String localeStr,
             SearchIndexableData data, Map<String, Set<String>> nonIndexableKeys) {
+        insertRows(database, buildRows(localeStr, data, nonIndexableKeys));
+    }
+
+    /**
+     * Builds the rows to insert for {@param data}, without touching the database. Safe to call
+     * from any thread.
+     *
+     * @return the rows, in insertion order.
+     */
+    @VisibleForTesting
+    List<DatabaseRow> buildRows(String localeStr, SearchIndexableData data,
+            Map<String, Set<String>> nonIndexableKeys) {
+        final List<DatabaseRow> rows = new ArrayList<>();
         if (data instanceof SearchIndexableResource) {
-            indexOneResource(database, localeStr, (SearchIndexableResource) data, nonIndexableKeys);
+            indexOneResource(localeStr, (SearchIndexableResource) data, nonIndexableKeys, rows);
         } else if (data instanceof SearchIndexableRaw) {
-            indexOneRaw(database, localeStr, (SearchIndexableRaw) data, nonIndexableKeys);
+            indexOneRaw(localeStr, (SearchIndexableRaw) data, nonIndexableKeys, rows);
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    @VisibleForTesting
+    void insertRows(SQLiteDatabase database, List<DatabaseRow> rows) {
+        final int size = rows.size();
+        for (int i = 0; i < size; i++) {
+            updateOneRow(database, rows.get(i));
         }
     }
 
-    private void indexOneRaw(SQLiteDatabase database, String localeStr,
-            SearchIndexableRaw raw, Map<String, Set<String>> nonIndexableKeysFromResource) {
+    private void indexOneRaw(String localeStr, SearchIndexableRaw raw,
+            Map<String, Set<String>> nonIndexableKeysFromResource, List<DatabaseRow> rows) {
         // Should be the same locale as the one we are processing
         if (!raw.locale.toString().equalsIgnoreCase(localeStr)) {
             return;
@@ -663,12 +993,12 @@ public class DatabaseIndexingManager {
                 .setKey(raw.key)
                 .setUserId(raw.userId);
 
-        updateOneRowWithFilteredData(database, builder, raw.title, raw.summaryOn, raw.summaryOff,
-                raw.keywords);
+        rows.add(buildRowWithFilteredData(builder, raw.title, raw.summaryOn, raw.summaryOff,
+                raw.keywords));
     }
 
-    private void indexOneResource(SQLiteDatabase database, String localeStr,
-            SearchIndexableResource sir, Map<String, Set<String>> nonIndexableKeysFromResource) {
+    private void indexOneResource(String localeStr, SearchIndexableResource sir,
+            Map<String, Set<String>> nonIndexableKeysFromResource, List<DatabaseRow> rows) {
 
         if (sir == null) {
             Log.e(LOG_TAG, "Cannot index a null resource!");
@@ -683,7 +1013,7 @@ public class DatabaseIndexingManager {
                 nonIndexableKeys.addAll(resNonIndexableKeys);
             }
 
-            indexFromResource(database, localeStr, sir, nonIndexableKeys);
+            indexFromResource(localeStr, sir, nonIndexableKeys, rows);
         } else {
             if (TextUtils.isEmpty(sir.className)) {
                 Log.w(LOG_TAG, "Cannot index an empty Search Provider name!");
@@ -707,14 +1037,14 @@ public class DatabaseIndexingManager {
                     nonIndexableKeys.addAll(providerNonIndexableKeys);
                 }
 
-                indexFromProvider(database, localeStr, provider, sir, nonIndexableKeys);
+                indexFromProvider(localeStr, provider, sir, nonIndexableKeys, rows);
             }
         }
     }
 
     @VisibleForTesting
-    void indexFromResource(SQLiteDatabase database, String localeStr,
-            SearchIndexableResource sir, List<String> nonIndexableKeys) {
+    void indexFromResource(String localeStr, SearchIndexableResource sir,
+            List<String> nonIndexableKeys, List<DatabaseRow> rows) {
         final Context context = sir.context;
         XmlResourceParser parser = null;
         try {
@@ -838,8 +1168,8 @@ public class DatabaseIndexingManager {
                             .setPayload(payload);
 
                     // Insert rows for the child nodes of PreferenceScreen
-                    updateOneRowWithFilteredData(database, builder, title, summary,
-                            null /* summary off */, keywords);
+                    rows.add(buildRowWithFilteredData(builder, title, summary,
+                            null /* summary off */, keywords));
                 } else {
                     String summaryOn = XmlParserUtils.getDataSummaryOn(context, attrs);
                     String summaryOff = XmlParserUtils.getDataSummaryOff(context, attrs);
@@ -848,15 +1178,15 @@ public class DatabaseIndexingManager {
                         summaryOn = XmlParserUtils.getDataSummary(context, attrs);
                     }
 
-                    updateOneRowWithFilteredData(database, builder, title, summaryOn, summaryOff,
-                            keywords);
+                    rows.add(buildRowWithFilteredData(builder, title, summaryOn, summaryOff,
+                            keywords));
                 }
             }
 
             // The xml header's title does not match the title of one of the child settings.
             if (isHeaderUnique) {
-                updateOneRowWithFilteredData(database, headerBuilder, headerTitle, headerSummary,
-                        null /* summary off */, headerKeywords);
+                rows.add(buildRowWithFilteredData(headerBuilder, headerTitle, headerSummary,
+                        null /* summary off */, headerKeywords));
             }
         } catch (XmlPullParserException e) {
             throw new RuntimeException("Error parsing PreferenceScreen", e);
@@ -867,9 +1197,8 @@ public class DatabaseIndexingManager {
         }
     }
 
-    private void indexFromProvider(SQLiteDatabase database, String localeStr,
-            Indexable.SearchIndexProvider provider, SearchIndexableResource sir,
-            List<String> nonIndexableKeys) {
+    private void indexFromProvider(String localeStr, Indexable.SearchIndexProvider provider,
+            SearchIndexableResource sir, List<String> nonIndexableKeys, List<DatabaseRow> rows) {
 
         final String className = sir.className;
         final String intentAction = sir.intentAction;
@@ -908,8 +1237,8 @@ public class DatabaseIndexingManager {
                         .setKey(raw.key)
                         .setUserId(raw.userId);
 
-                updateOneRowWithFilteredData(database, builder, raw.title, raw.summaryOn,
-                        raw.summaryOff, raw.keywords);
+                rows.add(buildRowWithFilteredData(builder, raw.title, raw.summaryOn,
+                        raw.summaryOff, raw.keywords));
             }
         }
 
@@ -935,13 +1264,13 @@ public class DatabaseIndexingManager {
                         ? intentTargetPackage
                         : item.intentTargetPackage;
 
-                indexFromResource(database, localeStr, item, nonIndexableKeys);
+                indexFromResource(localeStr, item, nonIndexableKeys, rows);
             }
         }
     }
 
-    private void updateOneRowWithFilteredData(SQLiteDatabase database, DatabaseRow.Builder builder,
-            String title, String summaryOn, String summaryOff, String keywords) {
+    private DatabaseRow buildRowWithFilteredData(DatabaseRow.Builder builder, String title,
+            String summaryOn, String summaryOff, String keywords) {
 
         final String updatedTitle = DatabaseIndexingUtils.normalizeHyphen(title);
         final String updatedSummaryOn = DatabaseIndexingUtils.normalizeHyphen(summaryOn);
@@ -962,7 +1291,7 @@ public class DatabaseIndexingManager {
                 .setNormalizedSummaryOff(normalizedSummaryOff)
                 .setSpaceDelimitedKeywords(spaceDelimitedKeywords);
 
-        updateOneRow(database, builder.build(mContext));
+        return builder.build(mContext);
     }
 
     private void updateOneRow(SQLiteDatabase database, DatabaseRow row) {
@@ -999,8 +1328,9 @@ public class DatabaseIndexingManager {
 
         if (!TextUtils.isEmpty(row.className) && !TextUtils.isEmpty(row.childClassName)) {
             ContentValues siteMapPair = new ContentValues();
-            final int pairDocId = Objects.hash(row.className, row.childClassName);
+            final int pairDocId = Objects.hash(row.locale, row.className, row.childClassName);
             siteMapPair.put(IndexDatabaseHelper.SiteMapColumns.DOCID, pairDocId);
+            siteMapPair.put(IndexDatabaseHelper.SiteMapColumns.LOCALE, row.locale);
             siteMapPair.put(IndexDatabaseHelper.SiteMapColumns.PARENT_CLASS, row.className);
             siteMapPair.put(IndexDatabaseHelper.SiteMapColumns.PARENT_TITLE, row.screenTitle);
             siteMapPair.put(IndexDatabaseHelper.SiteMapColumns.CHILD_CLASS, row.childClassName);
@@ -1097,10 +1427,11 @@ public class DatabaseIndexingManager {
          */
         public int getDocId() {
             // Eventually we want all DocIds to be the data_reference key. For settings values,
-            // this will be preference keys, and for non-settings they should be unique.
+            // this will be preference keys, and for non-settings they should be unique. The
+            // locale is included as the rows of several locales are kept.
             return TextUtils.isEmpty(key)
-                    ? Objects.hash(updatedTitle, className, screenTitle, intentTargetClass)
-                    : key.hashCode();
+                    ? Objects.hash(locale, updatedTitle, className, screenTitle, intentTargetClass)
+                    : Objects.hash(locale, key);
         }
 
         public static class Builder {
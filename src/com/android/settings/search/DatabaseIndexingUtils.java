@@ -62,6 +62,11 @@ public class DatabaseIndexingUtils {
     private static final Pattern REMOVE_DIACRITICALS_PATTERN
             = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
 
+    // Reflection results by class name and by class. Null values record failed lookups.
+    private static final ArrayMap<String, Class<?>> sIndexableClasses = new ArrayMap<>();
+    private static final ArrayMap<Class<?>, Indexable.SearchIndexProvider> sSearchIndexProviders =
+            new ArrayMap<>();
+
     /**
      * Builds intent into a subsetting.
      */
@@ -141,22 +146,57 @@ public class DatabaseIndexingUtils {
         return controller.getResultPayload();
     }
 
+    /**
+     * @return the indexable class named {@param className}, or null if there is no such class or
+     * it does not implement {@link Indexable}. Lookups are cached for the lifetime of the process,
+     * including the failed ones.
+     */
     public static Class<?> getIndexableClass(String className) {
-        final Class<?> clazz;
+        synchronized (sIndexableClasses) {
+            final int index = sIndexableClasses.indexOfKey(className);
+            if (index >= 0) {
+                return sIndexableClasses.valueAt(index);
+            }
+        }
+        Class<?> clazz;
         try {
             clazz = Class.forName(className);
         } catch (ClassNotFoundException e) {
             Log.d(TAG, "Cannot find class: " + className);
-            return null;
+            clazz = null;
+        }
+        if (!isIndexableClass(clazz)) {
+            clazz = null;
+        }
+        synchronized (sIndexableClasses) {
+            sIndexableClasses.put(className, clazz);
         }
-        return isIndexableClass(clazz) ? clazz : null;
+        return clazz;
     }
 
     public static boolean isIndexableClass(final Class<?> clazz) {
         return (clazz != null) && Indexable.class.isAssignableFrom(clazz);
     }
 
+    /**
+     * @return the {@link Indexable.SearchIndexProvider} declared by {@param clazz}, or null if it
+     * has none. Lookups are cached for the lifetime of the process.
+     */
     public static Indexable.SearchIndexProvider getSearchIndexProvider(final Class<?> clazz) {
+        synchronized (sSearchIndexProviders) {
+            final int index = sSearchIndexProviders.indexOfKey(clazz);
+            if (index >= 0) {
+                return sSearchIndexProviders.valueAt(index);
+            }
+        }
+        final Indexable.SearchIndexProvider provider = readSearchIndexProvider(clazz);
+        synchronized (sSearchIndexProviders) {
+            sSearchIndexProviders.put(clazz, provider);
+        }
+        return provider;
+    }
+
+    private static Indexable.SearchIndexProvider readSearchIndexProvider(final Class<?> clazz) {
         try {
             final Field f = clazz.getField(FIELD_NAME_SEARCH_INDEX_DATA_PROVIDER);
             return (Indexable.SearchIndexProvider) f.get(null);
@@ -24,17 +24,21 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.annotation.VisibleForTesting;
+import android.util.Log;
 
 import com.android.settings.dashboard.SiteMapManager;
 import com.android.settings.utils.AsyncLoader;
 
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 
 /**
  * AsyncTask to retrieve Settings, First party app and any intent based results.
  */
-public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult>> {
+public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult>>
+        implements SearchQueryLoader {
     private static final String LOG = "DatabaseResultLoader";
 
     /* These indices are used to match the columns of the this loader's SELECT statement.
@@ -53,6 +57,7 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
     static final int COLUMN_INDEX_KEY = 10;
     static final int COLUMN_INDEX_PAYLOAD_TYPE = 11;
     static final int COLUMN_INDEX_PAYLOAD = 12;
+    static final int COLUMN_INDEX_MATCH_OFFSETS = 13;
 
     public static final String[] SELECT_COLUMNS = {
             IndexColumns.DOCID,
@@ -70,6 +75,15 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
             IndexColumns.PAYLOAD
     };
 
+    /* SELECT_COLUMNS plus the FTS offsets of every term matched by the query, used to compute
+     the base rank of each row when querying with MATCH. */
+    private static final String[] FTS_SELECT_COLUMNS;
+
+    static {
+        FTS_SELECT_COLUMNS = Arrays.copyOf(SELECT_COLUMNS, SELECT_COLUMNS.length + 1);
+        FTS_SELECT_COLUMNS[COLUMN_INDEX_MATCH_OFFSETS] = "offsets(" + TABLE_PREFS_INDEX + ")";
+    }
+
     public static final String[] MATCH_COLUMNS_PRIMARY = {
             IndexColumns.DATA_TITLE,
             IndexColumns.DATA_TITLE_NORMALIZED,
@@ -97,17 +111,51 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
      */
     public static final int[] BASE_RANKS = {1, 3, 7, 9};
 
+    /**
+     * Base rank of a match in each column of the fts table, in the column order defined by
+     * {@link IndexDatabaseHelper}. A value of 0 marks columns which are never matched.
+     * Title columns are mapped to {@link #BASE_RANKS}[1]; a match at the very start of the title
+     * is promoted to {@link #BASE_RANKS}[0] by {@link #getBaseRankFromOffsets(String)}.
+     */
+    private static final int[] FTS_COLUMN_BASE_RANKS = {
+            0,              // locale
+            0,              // data_rank
+            BASE_RANKS[1],  // data_title
+            BASE_RANKS[1],  // data_title_normalized
+            BASE_RANKS[2],  // data_summary_on
+            BASE_RANKS[2],  // data_summary_on_normalized
+            BASE_RANKS[2],  // data_summary_off
+            BASE_RANKS[2],  // data_summary_off_normalized
+            BASE_RANKS[3],  // data_entries
+            BASE_RANKS[3],  // data_keywords
+    };
+
     @VisibleForTesting
     final String mQueryText;
+    // The index keeps the rows of several locales, only those of the current one are returned.
+    private final String mLocale;
     private final Context mContext;
     private final CursorToSearchResultConverter mConverter;
     private final SiteMapManager mSiteMapManager;
+    @VisibleForTesting
+    final boolean mUseFtsQuery;
 
     public DatabaseResultLoader(Context context, String queryText, SiteMapManager mapManager) {
+        this(context, queryText, mapManager, false /* useFtsQuery */);
+    }
+
+    /**
+     * @param useFtsQuery when true, results are fetched with a single FTS MATCH query instead of
+     *                    the four LIKE queries.
+     */
+    public DatabaseResultLoader(Context context, String queryText, SiteMapManager mapManager,
+            boolean useFtsQuery) {
         super(context);
         mSiteMapManager = mapManager;
         mContext = context;
         mQueryText = queryText;
+        mLocale = Locale.getDefault().toString();
+        mUseFtsQuery = useFtsQuery;
         mConverter = new CursorToSearchResultConverter(context);
     }
 
@@ -116,12 +164,21 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
         // TODO Search
     }
 
+    @Override
+    public String getQuery() {
+        return mQueryText;
+    }
+
     @Override
     public Set<? extends SearchResult> loadInBackground() {
         if (mQueryText == null || mQueryText.isEmpty()) {
             return null;
         }
 
+        if (mUseFtsQuery) {
+            return ftsMatchQuery();
+        }
+
         final Set<SearchResult> results = new HashSet<>();
 
         results.addAll(firstWordQuery(MATCH_COLUMNS_PRIMARY, BASE_RANKS[0]));
@@ -182,6 +239,93 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
         return query(whereClause, selection, baseRank);
     }
 
+    /**
+     * Creates and executes a single FTS query which matches prefixes of any word of all
+     * of the match columns. The base rank of each row is computed from the offsets of the
+     * matched terms, so that a row matched in several columns is only returned once with its
+     * best rank.
+     *
+     * @return A set of the matching results.
+     */
+    private Set<SearchResult> ftsMatchQuery() {
+        final String matchExpression = buildFtsMatchExpression(mQueryText);
+        if (matchExpression == null) {
+            return new HashSet<>();
+        }
+        final String whereClause = TABLE_PREFS_INDEX + " MATCH ? AND "
+                + IndexColumns.ENABLED + " = 1 AND " + IndexColumns.LOCALE + " = ?";
+        final SQLiteDatabase database =
+                IndexDatabaseHelper.getInstance(mContext).getReadableDatabase();
+        try (Cursor resultCursor = database.query(TABLE_PREFS_INDEX, FTS_SELECT_COLUMNS,
+                whereClause, new String[] {matchExpression, mLocale}, null, null, null)) {
+            return mConverter.convertCursor(mSiteMapManager, resultCursor);
+        }
+    }
+
+    /**
+     * Builds the FTS MATCH expression which matches the query as a phrase prefix in each of the
+     * primary, secondary and tertiary match columns.
+     *
+     * @return The match expression, or null if the query has no searchable tokens.
+     */
+    @VisibleForTesting
+    static String buildFtsMatchExpression(String query) {
+        // Quotes and wildcards are part of the FTS query syntax, drop them from user input.
+        final String phrase = query.replaceAll("[\"*]", " ").trim();
+        if (phrase.isEmpty()) {
+            return null;
+        }
+        final String term = ":\"" + phrase + "*\"";
+        final StringBuilder sb = new StringBuilder();
+        for (String[] columns : new String[][] {
+                MATCH_COLUMNS_PRIMARY, MATCH_COLUMNS_SECONDARY, MATCH_COLUMNS_TERTIARY}) {
+            for (String column : columns) {
+                if (sb.length() > 0) {
+                    sb.append(" OR ");
+                }
+                sb.append(column).append(term);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Computes the best base rank of a row from the result of the FTS offsets() function, which
+     * is a space separated list of (column, term, byte offset, size) integer quadruples.
+     *
+     * @return The lowest base rank of all matched columns, or the last of {@link #BASE_RANKS}
+     * when no ranked column was matched.
+     */
+    @VisibleForTesting
+    static int getBaseRankFromOffsets(String offsets) {
+        int baseRank = BASE_RANKS[BASE_RANKS.length - 1];
+        if (offsets == null) {
+            return baseRank;
+        }
+        final String[] values = offsets.trim().split(" ");
+        for (int i = 0; i + 3 < values.length; i += 4) {
+            final int column;
+            final int byteOffset;
+            try {
+                column = Integer.parseInt(values[i]);
+                byteOffset = Integer.parseInt(values[i + 2]);
+            } catch (NumberFormatException e) {
+                Log.w(LOG, "Malformed match offsets: " + offsets);
+                return baseRank;
+            }
+            if (column < 0 || column >= FTS_COLUMN_BASE_RANKS.length
+                    || FTS_COLUMN_BASE_RANKS[column] == 0) {
+                continue;
+            }
+            int columnRank = FTS_COLUMN_BASE_RANKS[column];
+            if (columnRank == BASE_RANKS[1] && byteOffset == 0) {
+                columnRank = BASE_RANKS[0];
+            }
+            baseRank = Math.min(baseRank, columnRank);
+        }
+        return baseRank;
+    }
+
     /**
      * Generic method used by all of the query methods above to execute a query.
      *
@@ -215,7 +359,7 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
                 sb.append(" OR ");
             }
         }
-        sb.append(") AND enabled = 1");
+        sb.append(") AND enabled = 1 AND locale = ?");
         return sb.toString();
     }
 
@@ -237,33 +381,36 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
                 sb.append(" OR ");
             }
         }
-        sb.append(") AND enabled = 1");
+        sb.append(") AND enabled = 1 AND locale = ?");
         return sb.toString();
     }
 
     /**
-     * Fills out the selection array to match the query as the prefix of a single word.
+     * Fills out the selection array to match the query as the prefix of a single word, followed
+     * by the current locale.
      *
      * @param size is the number of columns to be matched.
      */
     private String[] buildSingleWordSelection(String query, int size) {
-        String[] selection = new String[size];
+        String[] selection = new String[size + 1];
 
         for(int i = 0; i < size; i ++) {
             selection[i] = query;
         }
+        selection[size] = mLocale;
         return selection;
     }
 
     /**
-     * Fills out the selection array to match the query as the prefix of a word.
+     * Fills out the selection array to match the query as the prefix of a word, followed by the
+     * current locale.
      *
      * @param size is twice the number of columns to be matched. The first match is for the prefix
      *             of the first word in the column. The second match is for any subsequent word
      *             prefix match.
      */
     private String[] buildAnyWordSelection(int size) {
-        String[] selection = new String[size];
+        String[] selection = new String[size + 1];
         final String query = mQueryText + "%";
         final String subStringQuery = "% " + mQueryText + "%";
 
@@ -271,6 +418,7 @@ public class DatabaseResultLoader extends AsyncLoader<Set<? extends SearchResult
             selection[i] = query;
             selection[i + 1] = subStringQuery;
         }
+        selection[size] = mLocale;
         return selection;
     }
 }
\ No newline at end of file
@@ -17,6 +17,7 @@
 package com.android.settings.search;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.ResolveInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -24,20 +25,39 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
 import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class IndexDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "IndexDatabaseHelper";
 
     private static final String DATABASE_NAME = "search_index.db";
-    private static final int DATABASE_VERSION = 117;
+    private static final int DATABASE_VERSION = 118;
 
     private static final String INDEX = "index";
 
     private static final String PREF_KEY_INDEXED_PROVIDERS = "indexed_providers";
+    private static final String PREF_KEY_RETAINED_LOCALES = "retained_locales";
+    private static final String PREF_KEY_PENDING_INDEX_STATE = "pending_index_state";
+    private static final String PREF_KEY_PENDING_PROVIDERS = "pending_providers";
+    private static final String PREF_KEY_PENDING_PROVIDER_RETRIES = "pending_provider_retries";
+    private static final String LOCALE_SEPARATOR = ",";
+    private static final String INDEX_STATE_SEPARATOR = "|";
+
+    /**
+     * Number of locales whose rows are kept in the index, so that switching back to one of them
+     * does not require indexing it again.
+     */
+    @VisibleForTesting
+    static final int MAX_RETAINED_LOCALES = 3;
 
     public interface Tables {
         String TABLE_PREFS_INDEX = "prefs_index";
@@ -82,6 +102,7 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
 
     public interface SiteMapColumns {
         String DOCID = "docid";
+        String LOCALE = "locale";
         String PARENT_CLASS = "parent_class";
         String CHILD_CLASS = "child_class";
         String PARENT_TITLE = "parent_title";
@@ -151,6 +172,8 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     private static final String CREATE_SITE_MAP_TABLE =
             "CREATE VIRTUAL TABLE " + Tables.TABLE_SITE_MAP + " USING fts4" +
                     "(" +
+                    SiteMapColumns.LOCALE +
+                    ", " +
                     SiteMapColumns.PARENT_CLASS +
                     ", " +
                     SiteMapColumns.CHILD_CLASS +
@@ -166,6 +189,27 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     private static final String SELECT_BUILD_VERSION =
             "SELECT " + MetaColumns.BUILD + " FROM " + Tables.TABLE_META_INDEX + " LIMIT 1;";
 
+    // Approximate size in bytes of the rows of each locale.
+    private static final String SELECT_LOCALE_SIZES =
+            "SELECT " + IndexColumns.LOCALE + ", SUM(" +
+                    "IFNULL(LENGTH(" + IndexColumns.DATA_TITLE + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.DATA_TITLE_NORMALIZED + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.DATA_SUMMARY_ON + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.DATA_SUMMARY_ON_NORMALIZED + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.DATA_SUMMARY_OFF + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.DATA_SUMMARY_OFF_NORMALIZED + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.DATA_ENTRIES + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.DATA_KEYWORDS + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.SCREEN_TITLE + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.CLASS_NAME + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.INTENT_ACTION + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.INTENT_TARGET_PACKAGE + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.INTENT_TARGET_CLASS + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.DATA_KEY_REF + "), 0)" +
+                    " + IFNULL(LENGTH(" + IndexColumns.PAYLOAD + "), 0)" +
+                    ") FROM " + Tables.TABLE_PREFS_INDEX +
+                    " GROUP BY " + IndexColumns.LOCALE;
+
     private static IndexDatabaseHelper sSingleton;
 
     private final Context mContext;
@@ -304,6 +348,135 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         return context.getSharedPreferences(INDEX, Context.MODE_PRIVATE).getBoolean(locale, false);
     }
 
+    /**
+     * @return the locales whose rows are kept in the index, most recently used first.
+     */
+    static List<String> getRetainedLocales(Context context) {
+        final String locales = context.getSharedPreferences(INDEX, Context.MODE_PRIVATE)
+                .getString(PREF_KEY_RETAINED_LOCALES, null);
+        final List<String> result = new ArrayList<>();
+        if (!TextUtils.isEmpty(locales)) {
+            Collections.addAll(result, locales.split(LOCALE_SEPARATOR));
+        }
+        return result;
+    }
+
+    /**
+     * Marks {@param locale} as the most recently used locale of the index. The least recently
+     * used locales beyond {@link #MAX_RETAINED_LOCALES} are no longer retained, and are no longer
+     * considered indexed.
+     *
+     * @return the locales which are no longer retained, whose rows should be deleted.
+     */
+    static List<String> retainLocale(Context context, String locale) {
+        final List<String> locales = getRetainedLocales(context);
+        final List<String> evicted = new ArrayList<>();
+        if (!locales.isEmpty() && locales.get(0).equals(locale)) {
+            // Already the most recently used, nothing to write.
+            return evicted;
+        }
+        locales.remove(locale);
+        locales.add(0, locale);
+        while (locales.size() > MAX_RETAINED_LOCALES) {
+            evicted.add(locales.remove(locales.size() - 1));
+        }
+
+        final SharedPreferences.Editor editor =
+                context.getSharedPreferences(INDEX, Context.MODE_PRIVATE).edit();
+        for (String evictedLocale : evicted) {
+            editor.remove(evictedLocale);
+        }
+        editor.putString(PREF_KEY_RETAINED_LOCALES, TextUtils.join(LOCALE_SEPARATOR, locales))
+                .apply();
+        return evicted;
+    }
+
+    /**
+     * Forgets all retained locales, which are no longer considered indexed, e.g. once the index
+     * is rebuilt without their rows.
+     */
+    static void clearRetainedLocales(Context context) {
+        final SharedPreferences.Editor editor =
+                context.getSharedPreferences(INDEX, Context.MODE_PRIVATE).edit();
+        for (String locale : getRetainedLocales(context)) {
+            editor.remove(locale);
+        }
+        editor.remove(PREF_KEY_RETAINED_LOCALES).apply();
+    }
+
+    /**
+     * Deletes the rows of {@param locale} from the index and the site map.
+     */
+    static void deleteLocale(SQLiteDatabase db, String locale) {
+        final String[] whereArgs = {locale};
+        db.delete(Tables.TABLE_PREFS_INDEX, IndexColumns.LOCALE + " = ?", whereArgs);
+        db.delete(Tables.TABLE_SITE_MAP, SiteMapColumns.LOCALE + " = ?", whereArgs);
+    }
+
+    /**
+     * @return the approximate size in bytes of the indexed data of each locale in the index.
+     */
+    static Map<String, Long> getLocaleSizes(SQLiteDatabase db) {
+        final Map<String, Long> sizes = new ArrayMap<>();
+        try (Cursor cursor = db.rawQuery(SELECT_LOCALE_SIZES, null)) {
+            while (cursor.moveToNext()) {
+                sizes.put(cursor.getString(0), cursor.getLong(1));
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * @return a key identifying the locale, build and providers of an index.
+     */
+    static String buildIndexState(String locale, String fingerprint,
+            String providerVersionedNames) {
+        return locale + INDEX_STATE_SEPARATOR + fingerprint + INDEX_STATE_SEPARATOR
+                + providerVersionedNames;
+    }
+
+    /**
+     * @return the package names of the providers which timed out while indexing
+     * {@param indexState}, all other providers being indexed, or null if there are none.
+     */
+    static Set<String> getPendingProviders(Context context, String indexState) {
+        final SharedPreferences prefs = context.getSharedPreferences(INDEX, Context.MODE_PRIVATE);
+        if (!TextUtils.equals(prefs.getString(PREF_KEY_PENDING_INDEX_STATE, null), indexState)) {
+            return null;
+        }
+        return prefs.getStringSet(PREF_KEY_PENDING_PROVIDERS, null);
+    }
+
+    /**
+     * @return how many times the pending providers have been queried again.
+     */
+    static int getPendingProviderRetries(Context context) {
+        return context.getSharedPreferences(INDEX, Context.MODE_PRIVATE)
+                .getInt(PREF_KEY_PENDING_PROVIDER_RETRIES, 0);
+    }
+
+    static void setPendingProviders(Context context, String indexState, List<String> packages,
+            int retries) {
+        context.getSharedPreferences(INDEX, Context.MODE_PRIVATE)
+                .edit()
+                .putString(PREF_KEY_PENDING_INDEX_STATE, indexState)
+                .putStringSet(PREF_KEY_PENDING_PROVIDERS, new ArraySet<>(packages))
+                .putInt(PREF_KEY_PENDING_PROVIDER_RETRIES, retries)
+                .apply();
+    }
+
+    static void clearPendingProviders(Context context) {
+        final SharedPreferences prefs = context.getSharedPreferences(INDEX, Context.MODE_PRIVATE);
+        if (!prefs.contains(PREF_KEY_PENDING_INDEX_STATE)) {
+            return;
+        }
+        prefs.edit()
+                .remove(PREF_KEY_PENDING_INDEX_STATE)
+                .remove(PREF_KEY_PENDING_PROVIDERS)
+                .remove(PREF_KEY_PENDING_PROVIDER_RETRIES)
+                .apply();
+    }
+
     static boolean areProvidersIndexed(Context context, String providerVersionedNames) {
         final String indexedProviders = context.getSharedPreferences(INDEX, Context.MODE_PRIVATE)
                 .getString(PREF_KEY_INDEXED_PROVIDERS, null);
@@ -35,6 +35,13 @@ import java.util.List;
  */
 public interface Indexable {
 
+    /**
+     * Provides the data of one class for indexing.
+     *
+     * Providers of different classes are called concurrently from background threads while the
+     * index is built, see {@link DatabaseIndexingManager}, so they must not rely on state shared
+     * with other classes, such as static caches, without synchronizing access to it.
+     */
     interface SearchIndexProvider {
         /**
          * Return a list of references for indexing.
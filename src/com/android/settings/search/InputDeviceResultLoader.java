@@ -47,7 +47,8 @@ import java.util.Set;
 /**
  * Search result for input devices (physical/virtual keyboard, game controllers, etc)
  */
-public class InputDeviceResultLoader extends AsyncLoader<Set<? extends SearchResult>> {
+public class InputDeviceResultLoader extends AsyncLoader<Set<? extends SearchResult>>
+        implements SearchQueryLoader {
     private static final int NAME_NO_MATCH = -1;
 
     @VisibleForTesting
@@ -79,6 +80,11 @@ public class InputDeviceResultLoader extends AsyncLoader<Set<? extends SearchRes
     protected void onDiscardResult(Set<? extends SearchResult> result) {
     }
 
+    @Override
+    public String getQuery() {
+        return mQuery;
+    }
+
     @Override
     public Set<? extends SearchResult> loadInBackground() {
         final Set<SearchResult> results = new HashSet<>();
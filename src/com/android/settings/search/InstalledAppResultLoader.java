@@ -47,9 +47,10 @@ import java.util.Set;
 /**
  * Search loader for installed apps.
  */
-public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchResult>> {
+public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchResult>>
+        implements SearchQueryLoader {
 
-    private static final int NAME_NO_MATCH = -1;
+    static final int NAME_NO_MATCH = -1;
     private static final Intent LAUNCHER_PROBE = new Intent(Intent.ACTION_MAIN)
             .addCategory(Intent.CATEGORY_LAUNCHER);
 
@@ -70,6 +71,11 @@ public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchRe
         mQuery = query;
     }
 
+    @Override
+    public String getQuery() {
+        return mQuery;
+    }
+
     @Override
     public Set<? extends SearchResult> loadInBackground() {
         final Set<AppSearchResult> results = new HashSet<>();
@@ -238,7 +244,7 @@ public class InstalledAppResultLoader extends AsyncLoader<Set<? extends SearchRe
      * @param wordDiff difference between query length and app name length.
      * @return the ranking.
      */
-    private int getRank(int wordDiff) {
+    static int getRank(int wordDiff) {
         if (wordDiff < 6) {
             return 2;
         }
@@ -37,6 +37,14 @@ public interface SearchFeatureProvider {
      */
     DatabaseResultLoader getDatabaseSearchLoader(Context context, String query);
 
+    /**
+     * @return true to query the index database with a single FTS MATCH query instead of
+     * multiple LIKE queries.
+     */
+    default boolean isFtsQueryEnabled(Context context) {
+        return false;
+    }
+
     /**
      * Returns a new loader to search installed apps.
      */
@@ -44,7 +44,8 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
 
     @Override
     public DatabaseResultLoader getDatabaseSearchLoader(Context context, String query) {
-        return new DatabaseResultLoader(context, cleanQuery(query), getSiteMapManager());
+        return new DatabaseResultLoader(context, cleanQuery(query), getSiteMapManager(),
+                isFtsQueryEnabled(context));
     }
 
     @Override
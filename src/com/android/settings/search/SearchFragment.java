@@ -99,6 +99,16 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
     // Logging
     @VisibleForTesting
     static final String RESULT_CLICK_COUNT = "settings_search_result_click_count";
+    @VisibleForTesting
+    static final String RESULT_CACHE_HIT_COUNT = "settings_search_result_cache_hit_count";
+    @VisibleForTesting
+    static final String RESULT_CACHE_MISS_COUNT = "settings_search_result_cache_miss_count";
+    @VisibleForTesting
+    static final String ICON_CACHE_HIT_COUNT = "settings_search_icon_cache_hit_count";
+    @VisibleForTesting
+    static final String ICON_CACHE_MISS_COUNT = "settings_search_icon_cache_miss_count";
+    @VisibleForTesting
+    static final String ICON_CACHE_BYTES = "settings_search_icon_cache_bytes";
 
     @VisibleForTesting
     String mQuery;
@@ -117,6 +127,9 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
     @VisibleForTesting
     SearchResultsAdapter mSearchAdapter;
 
+    @VisibleForTesting
+    final SearchResultCache mResultCache = new SearchResultCache();
+
     @VisibleForTesting
     RecyclerView mResultsRecyclerView;
     @VisibleForTesting
@@ -157,6 +170,12 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
         mSavedQueryController = new SavedQueryController(
                 getContext(), loaderManager, mSearchAdapter);
         mSearchFeatureProvider.initFeedbackButton();
+        mResultCache.setNarrower(SearchLoaderId.INSTALLED_APPS,
+                (superset, query) -> SearchResultCache.narrowByTitle(superset, query,
+                        InstalledAppResultLoader::getRank));
+        mResultCache.setNarrower(SearchLoaderId.ACCESSIBILITY_SERVICES,
+                (superset, query) -> SearchResultCache.narrowByTitle(superset, query,
+                        wordDiff -> wordDiff));
 
         if (savedInstanceState != null) {
             mQuery = savedInstanceState.getString(STATE_QUERY);
@@ -236,6 +255,8 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
         if (mSearchFeatureProvider.isSmartSearchRankingEnabled(appContext)) {
             mSearchFeatureProvider.searchRankingWarmup(appContext);
         }
+        // Apps or services may have changed while paused.
+        mResultCache.clear();
         requery();
     }
 
@@ -245,6 +266,17 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
         final Activity activity = getActivity();
         if (activity != null && activity.isFinishing()) {
             mMetricsFeatureProvider.histogram(activity, RESULT_CLICK_COUNT, mResultClickCount);
+            mMetricsFeatureProvider.histogram(activity, RESULT_CACHE_HIT_COUNT,
+                    mResultCache.getHitCount());
+            mMetricsFeatureProvider.histogram(activity, RESULT_CACHE_MISS_COUNT,
+                    mResultCache.getMissCount());
+            final SearchIconCache iconCache = SearchIconCache.getInstance(activity);
+            mMetricsFeatureProvider.histogram(activity, ICON_CACHE_HIT_COUNT,
+                    iconCache.getHitCount());
+            mMetricsFeatureProvider.histogram(activity, ICON_CACHE_MISS_COUNT,
+                    iconCache.getMissCount());
+            mMetricsFeatureProvider.histogram(activity, ICON_CACHE_BYTES,
+                    iconCache.getBytesHeld());
             if (mNeverEnteredQuery) {
                 mMetricsFeatureProvider.action(activity,
                         MetricsEvent.ACTION_LEAVE_SEARCH_RESULT_WITHOUT_QUERY);
@@ -331,7 +363,17 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
     @Override
     public void onLoadFinished(Loader<Set<? extends SearchResult>> loader,
             Set<? extends SearchResult> data) {
-        mSearchAdapter.addSearchResults(data, loader.getClass().getName());
+        final String loaderClassName = loader.getClass().getName();
+        // The query may have changed since the loader started, e.g. while indexing.
+        if (loader instanceof SearchQueryLoader) {
+            mResultCache.put(loader.getId(), ((SearchQueryLoader) loader).getQuery(),
+                    loaderClassName, data);
+        }
+        onResultsLoaded(data, loaderClassName);
+    }
+
+    private void onResultsLoaded(Set<? extends SearchResult> data, String loaderClassName) {
+        mSearchAdapter.addSearchResults(data, loaderClassName);
         if (mUnfinishedLoadersCount.decrementAndGet() != 0) {
             return;
         }
@@ -351,6 +393,8 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
         if (getActivity() == null) {
             return;
         }
+        // Results loaded before indexing finished may be stale.
+        mResultCache.clear();
         if (mShowingSavedQuery) {
             mSavedQueryController.loadSavedQueries();
         } else {
@@ -397,16 +441,27 @@ public class SearchFragment extends InstrumentedFragment implements SearchView.O
 
     private void restartLoaders() {
         mShowingSavedQuery = false;
-        final LoaderManager loaderManager = getLoaderManager();
         mUnfinishedLoadersCount.set(NUM_QUERY_LOADERS);
-        loaderManager.restartLoader(
-                SearchLoaderId.DATABASE, null /* args */, this /* callback */);
-        loaderManager.restartLoader(
-                SearchLoaderId.INSTALLED_APPS, null /* args */, this /* callback */);
-        loaderManager.restartLoader(
-                SearchLoaderId.ACCESSIBILITY_SERVICES, null /* args */, this /* callback */);
-        loaderManager.restartLoader(
-                SearchLoaderId.INPUT_DEVICES, null /* args */, this /* callback */);
+        restartLoader(SearchLoaderId.DATABASE);
+        restartLoader(SearchLoaderId.INSTALLED_APPS);
+        restartLoader(SearchLoaderId.ACCESSIBILITY_SERVICES);
+        restartLoader(SearchLoaderId.INPUT_DEVICES);
+    }
+
+    /**
+     * Restarts the loader for the current query, unless its results can be served from
+     * {@link #mResultCache}.
+     */
+    private void restartLoader(int loaderId) {
+        final LoaderManager loaderManager = getLoaderManager();
+        final SearchResultCache.CachedResults cached = mResultCache.get(loaderId, mQuery);
+        if (cached == null) {
+            loaderManager.restartLoader(loaderId, null /* args */, this /* callback */);
+            return;
+        }
+        // Drop any load still running for a previous query so it cannot override these results.
+        loaderManager.destroyLoader(loaderId);
+        onResultsLoaded(cached.results, cached.loaderClassName);
     }
 
     public String getQuery() {
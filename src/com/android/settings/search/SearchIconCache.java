@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of package contexts and decoded icons for search results, shared by every
+ * query so that icons of third-party packages are only loaded once.
+ *
+ * Icons are keyed by (package, icon resource id, density, theme) and stored as
+ * {@link Drawable.ConstantState}, so each caller gets its own {@link Drawable} instance, themed
+ * with the caller's theme for Settings icons and with the package's theme otherwise.
+ * Entries of a package are dropped when it is changed, replaced or removed.
+ */
+public class SearchIconCache {
+
+    private static final String TAG = "SearchIconCache";
+
+    @VisibleForTesting
+    static final int MAX_PACKAGE_CONTEXTS = 16;
+    @VisibleForTesting
+    static final int MAX_ICON_BYTES = 2 * 1024 * 1024;
+
+    private static final String KEY_SEPARATOR = "/";
+
+    private static SearchIconCache sInstance;
+
+    private final Context mContext;
+
+    private final LruCache<String, Context> mPackageContexts =
+            new LruCache<>(MAX_PACKAGE_CONTEXTS);
+
+    private final LruCache<String, IconEntry> mIcons =
+            new LruCache<String, IconEntry>(MAX_ICON_BYTES) {
+                @Override
+                protected int sizeOf(String key, IconEntry value) {
+                    return value.byteCount;
+                }
+            };
+
+    @VisibleForTesting
+    final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            if (!TextUtils.isEmpty(packageName)) {
+                invalidatePackage(packageName);
+            }
+        }
+    };
+
+    public static synchronized SearchIconCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SearchIconCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void clearInstance() {
+        sInstance = null;
+    }
+
+    @VisibleForTesting
+    SearchIconCache(Context context) {
+        mContext = context;
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(mPackageReceiver, filter);
+    }
+
+    /**
+     * Returns the icon {@param iconResId} of {@param packageName}, or null if it cannot be
+     * loaded. An empty package name stands for Settings itself, whose icons are resolved against
+     * the resources and theme of {@param context} so that themed attributes keep applying.
+     */
+    public Drawable getIcon(Context context, String packageName, int iconResId) {
+        if (iconResId == 0) {
+            return null;
+        }
+        final Context packageContext = isSettingsPackage(packageName)
+                ? context : getPackageContext(packageName);
+        if (packageContext == null) {
+            return null;
+        }
+        final Resources res = packageContext.getResources();
+        final Resources.Theme theme = packageContext.getTheme();
+        final String key = buildKey(packageContext.getPackageName(), iconResId,
+                res.getDisplayMetrics().densityDpi, theme);
+        final IconEntry cached = mIcons.get(key);
+        if (cached != null) {
+            return cached.state.newDrawable(res, theme);
+        }
+
+        final Drawable icon;
+        try {
+            icon = packageContext.getDrawable(iconResId);
+        } catch (Resources.NotFoundException nfe) {
+            return null;
+        }
+        final Drawable.ConstantState state = icon != null ? icon.getConstantState() : null;
+        if (state != null) {
+            mIcons.put(key, new IconEntry(state, getByteCount(icon)));
+        }
+        return icon;
+    }
+
+    /**
+     * Drops the package context and icons of {@param packageName}.
+     */
+    public void invalidatePackage(String packageName) {
+        mPackageContexts.remove(packageName);
+        final String prefix = packageName + KEY_SEPARATOR;
+        for (String key : mIcons.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mIcons.remove(key);
+            }
+        }
+    }
+
+    public int getHitCount() {
+        return mIcons.hitCount();
+    }
+
+    public int getMissCount() {
+        return mIcons.missCount();
+    }
+
+    /**
+     * @return the approximate number of bytes held by cached icons.
+     */
+    public int getBytesHeld() {
+        return mIcons.size();
+    }
+
+    private boolean isSettingsPackage(String packageName) {
+        return TextUtils.isEmpty(packageName)
+                || TextUtils.equals(packageName, mContext.getPackageName());
+    }
+
+    private Context getPackageContext(String packageName) {
+        Context packageContext = mPackageContexts.get(packageName);
+        if (packageContext == null) {
+            try {
+                packageContext = mContext.createPackageContext(packageName, 0);
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.e(TAG, "Cannot create Context for package: " + packageName);
+                return null;
+            }
+            mPackageContexts.put(packageName, packageContext);
+        }
+        return packageContext;
+    }
+
+    private static String buildKey(String packageName, int iconResId, int density,
+            Resources.Theme theme) {
+        return packageName + KEY_SEPARATOR + iconResId + KEY_SEPARATOR + density
+                + KEY_SEPARATOR + (theme != null ? theme.hashCode() : 0);
+    }
+
+    /**
+     * Bitmaps are charged their allocation size. Other drawables, e.g. vectors, render into a
+     * bitmap of their intrinsic size when drawn, which is used as an estimate. Measured once,
+     * on the drawable that was just loaded.
+     */
+    private static int getByteCount(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable) {
+            final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null) {
+                return bitmap.getAllocationByteCount();
+            }
+        }
+        final int width = Math.max(drawable.getIntrinsicWidth(), 1);
+        final int height = Math.max(drawable.getIntrinsicHeight(), 1);
+        return width * height * 4;
+    }
+
+    private static class IconEntry {
+        final Drawable.ConstantState state;
+        final int byteCount;
+
+        IconEntry(Drawable.ConstantState state, int byteCount) {
+            this.state = state;
+            this.byteCount = byteCount;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Per-session cache of search results, keyed by loader id and query.
+ *
+ * All search loaders match the query as a prefix, so the results for a query are always a subset
+ * of the results for any of its prefixes. This lets the cache answer:
+ * - A query which was already loaded, e.g. after a backspace, from its exact entry.
+ * - A query extending a query with no results, with no results.
+ * - A query extending a cached query, by narrowing the cached results in memory when a
+ *   {@link Narrower} is registered for the loader.
+ *
+ * Not thread safe, it is only accessed from the UI thread.
+ */
+public class SearchResultCache {
+
+    /**
+     * Maximum number of queries cached per loader.
+     */
+    @VisibleForTesting
+    static final int MAX_ENTRIES_PER_LOADER = 32;
+
+    /**
+     * Filters the results of a prefix of a query down to the results of the query.
+     */
+    public interface Narrower {
+        /**
+         * @param superset results of a prefix of {@param query}.
+         * @param query    the new query.
+         * @return the results for {@param query}.
+         */
+        Set<? extends SearchResult> narrow(Set<? extends SearchResult> superset, String query);
+    }
+
+    /**
+     * Results loaded for one query, along with the name of the loader which produced them.
+     */
+    public static class CachedResults {
+        public final String loaderClassName;
+        public final Set<? extends SearchResult> results;
+
+        public CachedResults(String loaderClassName, Set<? extends SearchResult> results) {
+            this.loaderClassName = loaderClassName;
+            this.results = results;
+        }
+    }
+
+    private final SparseArray<Map<String, CachedResults>> mCache = new SparseArray<>();
+    private final SparseArray<Narrower> mNarrowers = new SparseArray<>();
+
+    private int mHitCount;
+    private int mMissCount;
+
+    public void setNarrower(int loaderId, Narrower narrower) {
+        mNarrowers.put(loaderId, narrower);
+    }
+
+    /**
+     * Stores the results loaded for {@param query}.
+     */
+    public void put(int loaderId, String query, String loaderClassName,
+            Set<? extends SearchResult> results) {
+        final String key = getKey(query);
+        if (key == null || results == null) {
+            return;
+        }
+        getLoaderCache(loaderId).put(key, new CachedResults(loaderClassName, results));
+    }
+
+    /**
+     * Returns the results for {@param query}, either from an exact entry or derived from the
+     * entry of its longest cached prefix. Returns null when the query has to be loaded.
+     */
+    public CachedResults get(int loaderId, String query) {
+        final String key = getKey(query);
+        if (key == null) {
+            mMissCount++;
+            return null;
+        }
+        final Map<String, CachedResults> loaderCache = getLoaderCache(loaderId);
+        final CachedResults exact = loaderCache.get(key);
+        if (exact != null) {
+            mHitCount++;
+            return exact;
+        }
+
+        for (int length = key.length() - 1; length > 0; length--) {
+            final CachedResults prefix = loaderCache.get(key.substring(0, length));
+            if (prefix == null) {
+                continue;
+            }
+            final Set<? extends SearchResult> narrowed;
+            if (prefix.results.isEmpty()) {
+                narrowed = new HashSet<>();
+            } else {
+                final Narrower narrower = mNarrowers.get(loaderId);
+                if (narrower == null) {
+                    break;
+                }
+                narrowed = narrower.narrow(prefix.results, key);
+            }
+            final CachedResults results = new CachedResults(prefix.loaderClassName, narrowed);
+            loaderCache.put(key, results);
+            mHitCount++;
+            return results;
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Drops all cached results, e.g. when the underlying data may have changed.
+     */
+    public void clear() {
+        mCache.clear();
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Narrows results which are matched on their title with
+     * {@link InstalledAppResultLoader#getWordDifference(String, String)}.
+     *
+     * @param rankFunction maps the word difference of a result to its rank.
+     */
+    public static Set<SearchResult> narrowByTitle(Set<? extends SearchResult> superset,
+            String query, IntUnaryOperator rankFunction) {
+        final Set<SearchResult> results = new HashSet<>();
+        for (SearchResult result : superset) {
+            final int wordDiff = InstalledAppResultLoader.getWordDifference(
+                    result.title.toString(), query);
+            if (wordDiff == InstalledAppResultLoader.NAME_NO_MATCH) {
+                continue;
+            }
+            results.add(copyWithRank(result, rankFunction.applyAsInt(wordDiff)));
+        }
+        return results;
+    }
+
+    /**
+     * Returns a copy of {@param result} with a new rank.
+     */
+    @VisibleForTesting
+    static SearchResult copyWithRank(SearchResult result, int rank) {
+        final SearchResult.Builder builder;
+        if (result instanceof AppSearchResult) {
+            builder = new AppSearchResult.Builder()
+                    .setAppInfo(((AppSearchResult) result).info);
+        } else {
+            builder = new SearchResult.Builder();
+        }
+        return builder.setTitle(result.title)
+                .setSummary(result.summary)
+                .addBreadcrumbs(result.breadcrumbs)
+                .setRank(rank)
+                .setIcon(result.icon)
+                .setPayload(result.payload)
+                .setStableId(result.stableId)
+                .build();
+    }
+
+    private Map<String, CachedResults> getLoaderCache(int loaderId) {
+        Map<String, CachedResults> loaderCache = mCache.get(loaderId);
+        if (loaderCache == null) {
+            loaderCache = new LinkedHashMap<String, CachedResults>(
+                    MAX_ENTRIES_PER_LOADER, 0.75f, true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedResults> eldest) {
+                    return size() > MAX_ENTRIES_PER_LOADER;
+                }
+            };
+            mCache.put(loaderId, loaderCache);
+        }
+        return loaderCache;
+    }
+
+    /**
+     * Loaders search with the trimmed query, so queries differing only in surrounding whitespace
+     * share an entry.
+     */
+    private static String getKey(String query) {
+        if (TextUtils.isEmpty(query)) {
+            return null;
+        }
+        final String key = query.trim();
+        return key.isEmpty() ? null : key;
+    }
+}
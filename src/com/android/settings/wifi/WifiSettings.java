@@ -40,6 +40,7 @@ import android.os.Bundle;
 import android.os.HandlerThread;
 import android.os.PowerManager;
 import android.os.Process;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.preference.Preference;
@@ -113,7 +114,20 @@ public class WifiSettings extends RestrictedSettingsFragment
     private static final String PREF_KEY_CONFIGURE_WIFI_SETTINGS = "configure_settings";
     private static final String PREF_KEY_SAVED_NETWORKS = "saved_networks";
 
+    // Delay before updating the access points, so that the progress bar is displayed first.
+    private static final int UPDATE_ACCESS_POINTS_DELAY_MS = 300;
+    private static final int FRAME_TIME_MS = 16;
+
+    @VisibleForTesting
+    static final String ACCESS_POINTS_UPDATE_LATENCY = "wifi_access_points_update_latency_ms";
+    @VisibleForTesting
+    static final String ACCESS_POINTS_UPDATE_DROPPED_FRAMES =
+            "wifi_access_points_update_dropped_frames";
+    @VisibleForTesting
+    static final String ACCESS_POINTS_COALESCED_UPDATES = "wifi_access_points_coalesced_updates";
+
     private final Runnable mUpdateAccessPointsRunnable = () -> {
+        mAccessPointsUpdatePending = false;
         updateAccessPointPreferences();
     };
     private final Runnable mHideProgressBarRunnable = () -> {
@@ -121,6 +135,15 @@ public class WifiSettings extends RestrictedSettingsFragment
     };
 
     protected WifiManager mWifiManager;
+
+    private boolean mAccessPointsUpdatePending;
+    private long mFirstAccessPointsChangeTime;
+    private long mLastAccessPointsUpdateTime;
+    private int mCoalescedAccessPointsUpdates;
+    private int mAccessPointsUpdateIntervalMs;
+    // Preference keys of the access points displayed by the last update, by index in the list
+    // of WifiTracker, or null if the list has to be rebuilt.
+    private List<String> mAccessPointKeys;
     private WifiManager.ActionListener mConnectListener;
     private WifiManager.ActionListener mSaveListener;
     private WifiManager.ActionListener mForgetListener;
@@ -249,6 +272,8 @@ public class WifiSettings extends RestrictedSettingsFragment
         mWifiTracker = WifiTrackerFactory.create(
                 getActivity(), this, mBgThread.getLooper(), true, true, false);
         mWifiManager = mWifiTracker.getManager();
+        mAccessPointsUpdateIntervalMs = getResources().getInteger(
+                R.integer.config_wifi_access_point_list_update_interval_ms);
 
         mConnectListener = new WifiManager.ActionListener() {
                                    @Override
@@ -364,6 +389,7 @@ public class WifiSettings extends RestrictedSettingsFragment
             getEmptyTextView().setText(R.string.wifi_empty_list_user_restricted);
         }
         getPreferenceScreen().removeAll();
+        mAccessPointKeys = null;
     }
 
     /**
@@ -380,7 +406,7 @@ public class WifiSettings extends RestrictedSettingsFragment
             // Make sure we don't update due to callbacks initiated by sticky broadcasts in
             // WifiTracker.
             Log.d(TAG, "Did not force update APs due to existing APs displayed");
-            getView().removeCallbacks(mUpdateAccessPointsRunnable);
+            cancelAccessPointsUpdate();
             return;
         }
         setProgressBarVisible(true);
@@ -388,7 +414,7 @@ public class WifiSettings extends RestrictedSettingsFragment
         if (WifiTracker.sVerboseLogging) {
             Log.i(TAG, "WifiSettings force update APs: " + mWifiTracker.getAccessPoints());
         }
-        getView().removeCallbacks(mUpdateAccessPointsRunnable);
+        cancelAccessPointsUpdate();
         updateAccessPointPreferences();
     }
 
@@ -430,8 +456,13 @@ public class WifiSettings extends RestrictedSettingsFragment
     @Override
     public void onStop() {
         mWifiTracker.stopTracking();
-        getView().removeCallbacks(mUpdateAccessPointsRunnable);
+        cancelAccessPointsUpdate();
         getView().removeCallbacks(mHideProgressBarRunnable);
+        if (mCoalescedAccessPointsUpdates > 0) {
+            mMetricsFeatureProvider.histogram(getActivity(), ACCESS_POINTS_COALESCED_UPDATES,
+                    mCoalescedAccessPointsUpdates);
+            mCoalescedAccessPointsUpdates = 0;
+        }
         super.onStop();
     }
 
@@ -699,15 +730,32 @@ public class WifiSettings extends RestrictedSettingsFragment
     /**
      * Updates access points from {@link WifiManager#getScanResults()}. Adds a delay to have
      * progress bar displayed before starting to modify APs.
+     *
+     * <p>Updates are at least {@link #mAccessPointsUpdateIntervalMs} apart; changes arriving
+     * while an update is pending are handled by that update.
      */
     private void updateAccessPointsDelayed() {
         // Safeguard from some delayed event handling
         if (getActivity() != null && !mIsRestricted && mWifiManager.isWifiEnabled()) {
             setProgressBarVisible(true);
-            getView().postDelayed(mUpdateAccessPointsRunnable, 300 /* delay milliseconds */);
+            if (mAccessPointsUpdatePending) {
+                mCoalescedAccessPointsUpdates++;
+                return;
+            }
+            final long now = SystemClock.elapsedRealtime();
+            final long delay = Math.max(UPDATE_ACCESS_POINTS_DELAY_MS,
+                    mLastAccessPointsUpdateTime + mAccessPointsUpdateIntervalMs - now);
+            mAccessPointsUpdatePending = true;
+            mFirstAccessPointsChangeTime = now;
+            getView().postDelayed(mUpdateAccessPointsRunnable, delay);
         }
     }
 
+    private void cancelAccessPointsUpdate() {
+        getView().removeCallbacks(mUpdateAccessPointsRunnable);
+        mAccessPointsUpdatePending = false;
+    }
+
     /** Called when the state of Wifi has changed. */
     @Override
     public void onWifiStateChanged(int state) {
@@ -724,6 +772,7 @@ public class WifiSettings extends RestrictedSettingsFragment
             case WifiManager.WIFI_STATE_ENABLING:
                 removeConnectedAccessPointPreference();
                 mAccessPointsPreferenceCategory.removeAll();
+                mAccessPointKeys = null;
                 addMessagePreference(R.string.wifi_starting);
                 setProgressBarVisible(true);
                 break;
@@ -731,6 +780,7 @@ public class WifiSettings extends RestrictedSettingsFragment
             case WifiManager.WIFI_STATE_DISABLING:
                 removeConnectedAccessPointPreference();
                 mAccessPointsPreferenceCategory.removeAll();
+                mAccessPointKeys = null;
                 addMessagePreference(R.string.wifi_stopping);
                 break;
 
@@ -772,12 +822,25 @@ public class WifiSettings extends RestrictedSettingsFragment
         if (!mWifiManager.isWifiEnabled()) {
             return;
         }
+        final long startTime = SystemClock.elapsedRealtime();
         // AccessPoints are sorted by the WifiTracker
         final List<AccessPoint> accessPoints = mWifiTracker.getAccessPoints();
         if (WifiTracker.sVerboseLogging) {
             Log.i(TAG, "updateAccessPoints called for: " + accessPoints);
         }
 
+        final List<String> keys = getAccessPointKeys(accessPoints);
+        if (keys.equals(mAccessPointKeys)) {
+            // Same access points in the same order: their preferences are already in place, and
+            // changes to a single access point are handled by onAccessPointChanged and
+            // onLevelChanged.
+            configureConnectedAccessPointPreferenceCategory(accessPoints);
+            setAdditionalSettingsSummaries();
+            getView().postDelayed(mHideProgressBarRunnable, 1700 /* delay millis */);
+            onAccessPointPreferencesUpdated(startTime);
+            return;
+        }
+
         boolean hasAvailableAccessPoints = false;
         mAccessPointsPreferenceCategory.removePreference(mStatusMessagePreference);
         cacheRemoveAllPrefs(mAccessPointsPreferenceCategory);
@@ -789,7 +852,7 @@ public class WifiSettings extends RestrictedSettingsFragment
             AccessPoint accessPoint = accessPoints.get(index);
             // Ignore access points that are out of range.
             if (accessPoint.isReachable()) {
-                String key = AccessPointPreference.generatePreferenceKey(accessPoint);
+                String key = keys.get(index);
                 hasAvailableAccessPoints = true;
                 LongPressAccessPointPreference pref =
                         (LongPressAccessPointPreference) getCachedPreference(key);
@@ -826,9 +889,46 @@ public class WifiSettings extends RestrictedSettingsFragment
             pref.setOrder(index++);
             pref.setKey(PREF_KEY_EMPTY_WIFI_LIST);
             mAccessPointsPreferenceCategory.addPreference(pref);
+            mAccessPointKeys = null;
         } else {
             // Continuing showing progress bar for an additional delay to overlap with animation
             getView().postDelayed(mHideProgressBarRunnable, 1700 /* delay millis */);
+            mAccessPointKeys = keys;
+        }
+        onAccessPointPreferencesUpdated(startTime);
+    }
+
+    /**
+     * @return the preference keys of the reachable access points in {@param accessPoints}, with
+     * null for the others and for the connected access point, which has its own category.
+     */
+    @VisibleForTesting
+    static List<String> getAccessPointKeys(List<AccessPoint> accessPoints) {
+        final int numAccessPoints = accessPoints.size();
+        final List<String> keys = new ArrayList<>(numAccessPoints);
+        for (int i = 0; i < numAccessPoints; i++) {
+            final AccessPoint accessPoint = accessPoints.get(i);
+            if ((i == 0 && accessPoint.isActive()) || !accessPoint.isReachable()) {
+                keys.add(null);
+            } else {
+                keys.add(AccessPointPreference.generatePreferenceKey(accessPoint));
+            }
+        }
+        return keys;
+    }
+
+    private void onAccessPointPreferencesUpdated(long startTime) {
+        final long now = SystemClock.elapsedRealtime();
+        mLastAccessPointsUpdateTime = now;
+        if (mFirstAccessPointsChangeTime > 0) {
+            mMetricsFeatureProvider.histogram(getActivity(), ACCESS_POINTS_UPDATE_LATENCY,
+                    (int) (now - mFirstAccessPointsChangeTime));
+            mFirstAccessPointsChangeTime = 0;
+        }
+        final int droppedFrames = (int) ((now - startTime) / FRAME_TIME_MS);
+        if (droppedFrames > 0) {
+            mMetricsFeatureProvider.histogram(getActivity(), ACCESS_POINTS_UPDATE_DROPPED_FRAMES,
+                    droppedFrames);
         }
     }
 
@@ -971,6 +1071,7 @@ public class WifiSettings extends RestrictedSettingsFragment
         mStatusMessagePreference.setText(title, description, clickListener);
         removeConnectedAccessPointPreference();
         mAccessPointsPreferenceCategory.removeAll();
+        mAccessPointKeys = null;
         mAccessPointsPreferenceCategory.addPreference(mStatusMessagePreference);
     }
 
@@ -978,6 +1079,7 @@ public class WifiSettings extends RestrictedSettingsFragment
         mStatusMessagePreference.setTitle(messageId);
         removeConnectedAccessPointPreference();
         mAccessPointsPreferenceCategory.removeAll();
+        mAccessPointKeys = null;
         mAccessPointsPreferenceCategory.addPreference(mStatusMessagePreference);
     }
 
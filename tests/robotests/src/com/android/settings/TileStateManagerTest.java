@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.util.ArrayMap;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class TileStateManagerTest {
+
+    private static final ComponentName TILE_1 = new ComponentName("pkg", "Tile1");
+    private static final ComponentName TILE_2 = new ComponentName("pkg", "Tile2");
+
+    @Mock
+    private TileStateManager.TileSetter mSetter;
+    private Context mContext;
+    private ArrayMap<ComponentName, Boolean> mStates;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        mContext.getSharedPreferences(TileStateManager.SHARED_PREFERENCES_NAME,
+                Context.MODE_PRIVATE).edit().clear().commit();
+        when(mSetter.setTileEnabled(any(ComponentName.class), anyBoolean())).thenReturn(true);
+        mStates = new ArrayMap<>();
+        mStates.put(TILE_1, true);
+        mStates.put(TILE_2, false);
+    }
+
+    @Test
+    public void applyTileStates_firstTime_shouldSetAllTiles() {
+        final boolean changed =
+                new TileStateManager(mContext).applyTileStates(mStates, mSetter);
+
+        assertThat(changed).isTrue();
+        verify(mSetter).setTileEnabled(TILE_1, true);
+        verify(mSetter).setTileEnabled(TILE_2, false);
+    }
+
+    @Test
+    public void applyTileStates_unchanged_shouldSkipPackageManager() {
+        new TileStateManager(mContext).applyTileStates(mStates, mSetter);
+        final TileStateManager.TileSetter setter = mock(TileStateManager.TileSetter.class);
+
+        // A new instance reads the states applied by the previous one.
+        final boolean changed = new TileStateManager(mContext).applyTileStates(mStates, setter);
+
+        assertThat(changed).isFalse();
+        verify(setter, never()).setTileEnabled(any(ComponentName.class), anyBoolean());
+    }
+
+    @Test
+    public void applyTileStates_oneChanged_shouldOnlySetChangedTile() {
+        final TileStateManager manager = new TileStateManager(mContext);
+        manager.applyTileStates(mStates, mSetter);
+        final TileStateManager.TileSetter setter = mock(TileStateManager.TileSetter.class);
+        when(setter.setTileEnabled(any(ComponentName.class), anyBoolean())).thenReturn(true);
+        mStates.put(TILE_2, true);
+
+        final boolean changed = manager.applyTileStates(mStates, setter);
+
+        assertThat(changed).isTrue();
+        verify(setter).setTileEnabled(TILE_2, true);
+        verify(setter, never()).setTileEnabled(TILE_1, true);
+    }
+
+    @Test
+    public void applyTileStates_otherBuild_shouldSetAllTiles() {
+        new TileStateManager(mContext).applyTileStates(mStates, mSetter);
+        mContext.getSharedPreferences(TileStateManager.SHARED_PREFERENCES_NAME,
+                Context.MODE_PRIVATE).edit().putString(TileStateManager.KEY_BUILD, "old").commit();
+        final TileStateManager.TileSetter setter = mock(TileStateManager.TileSetter.class);
+
+        new TileStateManager(mContext).applyTileStates(mStates, setter);
+
+        verify(setter).setTileEnabled(TILE_1, true);
+        verify(setter).setTileEnabled(TILE_2, false);
+    }
+
+    @Test
+    public void applyTileStates_packageUpdated_shouldSetAllTiles() throws Exception {
+        new TileStateManager(mockLastUpdateTime(1000)).applyTileStates(mStates, mSetter);
+        final TileStateManager.TileSetter setter = mock(TileStateManager.TileSetter.class);
+
+        new TileStateManager(mockLastUpdateTime(2000)).applyTileStates(mStates, setter);
+
+        verify(setter).setTileEnabled(TILE_1, true);
+        verify(setter).setTileEnabled(TILE_2, false);
+    }
+
+    private Context mockLastUpdateTime(long lastUpdateTime) throws Exception {
+        final Context context = spy(mContext);
+        final PackageManager packageManager = mock(PackageManager.class);
+        final PackageInfo packageInfo = new PackageInfo();
+        packageInfo.lastUpdateTime = lastUpdateTime;
+        when(packageManager.getPackageInfo(anyString(), anyInt())).thenReturn(packageInfo);
+        doReturn(packageManager).when(context).getPackageManager();
+        return context;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.when;
+
+import android.os.RemoteException;
+import android.security.IKeyChainService;
+import android.util.Base64;
+
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class TrustedCredentialsSettingsTest {
+
+    // Self-signed certificates with subject "O=Test Org One, CN=Test CA One" and
+    // "O=Test Org Two, CN=Test CA Two".
+    private static final byte[] CERT_ONE = Base64.decode(
+            "MIIBsTCCAVegAwIBAgIUQrGZWEeXDVX1l1pND4wmm0Hon+swCgYIKoZIzj0EAwIwLTEVMBMGA1UECgwMVGVz"
+            + "dCBPcmcgT25lMRQwEgYDVQQDDAtUZXN0IENBIE9uZTAgFw0yNjEwMTgxODA0NTFaGA8yMTI2MDkyNDE4"
+            + "MDQ1MVowLTEVMBMGA1UECgwMVGVzdCBPcmcgT25lMRQwEgYDVQQDDAtUZXN0IENBIE9uZTBZMBMGByqG"
+            + "SM49AgEGCCqGSM49AwEHA0IABN6ZXmdj4336F7qSQTYOmsGwCCvJySueGKmTuCNqg57E2hB4lmDVN+m3"
+            + "VHWKu5UnDRGPS8yM9A0GOH1fe0R7ZnqjUzBRMB0GA1UdDgQWBBTpvluJa8q3xHh1W4sVlmuoNpWBfzAf"
+            + "BgNVHSMEGDAWgBTpvluJa8q3xHh1W4sVlmuoNpWBfzAPBgNVHRMBAf8EBTADAQH/MAoGCCqGSM49BAMC"
+            + "A0gAMEUCIQDll1veER8HPJ5YUidyXN6pUSftgU9PwZzztSeXNFSsHgIgIArzQa+dZaoQIZANdAlh96uV"
+            + "2GKGP60j36JXuXRYvSk=", Base64.DEFAULT);
+    private static final byte[] CERT_TWO = Base64.decode(
+            "MIIBsDCCAVegAwIBAgIUV0W7Qu4/OVIIjXCcOZ0ZiG/MW/YwCgYIKoZIzj0EAwIwLTEVMBMGA1UECgwMVGVz"
+            + "dCBPcmcgVHdvMRQwEgYDVQQDDAtUZXN0IENBIFR3bzAgFw0yNjEwMTgxODA0NTFaGA8yMTI2MDkyNDE4"
+            + "MDQ1MVowLTEVMBMGA1UECgwMVGVzdCBPcmcgVHdvMRQwEgYDVQQDDAtUZXN0IENBIFR3bzBZMBMGByqG"
+            + "SM49AgEGCCqGSM49AwEHA0IABHJ2yF6U7ffPGrYKVSpaQkO6pn62MhJWmJecBUDIQ1X33C84rx/61K1C"
+            + "65vk4InDV0c6dE8VnrnD2T2FIbeIca+jUzBRMB0GA1UdDgQWBBSaJzDh4nrcOSoxh4EutfejecRmijAf"
+            + "BgNVHSMEGDAWgBSaJzDh4nrcOSoxh4EutfejecRmijAPBgNVHRMBAf8EBTADAQH/MAoGCCqGSM49BAMC"
+            + "A0cAMEQCIGnipI8XCIiNaVNYjZIGINkl0mhl1sOtohgpojRtfX2wAiAIA+11LNsQK2RxnkwwHZTMsEfO"
+            + "DtZ7nLTC8lBNwL8sEw==", Base64.DEFAULT);
+
+    private static final String ALIAS_ONE = "user:one";
+    private static final String ALIAS_TWO = "user:two";
+    private static final String ALIAS_BROKEN = "user:broken";
+    private static final int PROFILE_ID = 0;
+
+    @Mock
+    private IKeyChainService mService;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        TrustedCredentialsSettings.CertSummary.clearCache();
+        mExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void certSummary_sameAliasAndCert_shouldReuseParsedSubject() {
+        final TrustedCredentialsSettings.CertSummary first =
+                TrustedCredentialsSettings.CertSummary.get(ALIAS_ONE, CERT_ONE);
+        final TrustedCredentialsSettings.CertSummary second =
+                TrustedCredentialsSettings.CertSummary.get(ALIAS_ONE, CERT_ONE.clone());
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.mSubjectPrimary).isEqualTo("Test Org One");
+        assertThat(first.mSubjectSecondary).isEqualTo("Test CA One");
+    }
+
+    @Test
+    public void certSummary_aliasReusedForOtherCert_shouldParseAgain() {
+        final TrustedCredentialsSettings.CertSummary first =
+                TrustedCredentialsSettings.CertSummary.get(ALIAS_ONE, CERT_ONE);
+        final TrustedCredentialsSettings.CertSummary second =
+                TrustedCredentialsSettings.CertSummary.get(ALIAS_ONE, CERT_TWO);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.mSubjectPrimary).isEqualTo("Test Org Two");
+        assertThat(second.mSubjectSecondary).isEqualTo("Test CA Two");
+    }
+
+    @Test
+    public void loadCertHolders_shouldLoadAllCertsSorted() throws Exception {
+        when(mService.getEncodedCaCertificate(ALIAS_ONE, true)).thenReturn(CERT_ONE);
+        when(mService.getEncodedCaCertificate(ALIAS_TWO, true)).thenReturn(CERT_TWO);
+        final AtomicInteger loaded = new AtomicInteger();
+
+        final List<TrustedCredentialsSettings.CertHolder> certHolders =
+                TrustedCredentialsSettings.getCertHolders(
+                        TrustedCredentialsSettings.submitCertHolders(mExecutor, mService,
+                                null /* adapter */, TrustedCredentialsSettings.Tab.USER,
+                                Arrays.asList(ALIAS_TWO, ALIAS_ONE), PROFILE_ID,
+                                loaded::incrementAndGet));
+
+        assertThat(getAliases(certHolders)).containsExactly(ALIAS_ONE, ALIAS_TWO).inOrder();
+        assertThat(loaded.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void loadCertHolders_failingCert_shouldOnlySkipIt() throws Exception {
+        when(mService.getEncodedCaCertificate(ALIAS_ONE, true)).thenReturn(CERT_ONE);
+        when(mService.getEncodedCaCertificate(ALIAS_BROKEN, true))
+                .thenThrow(new RemoteException());
+        when(mService.getEncodedCaCertificate(ALIAS_TWO, true)).thenReturn(CERT_TWO);
+        final AtomicInteger loaded = new AtomicInteger();
+
+        final List<TrustedCredentialsSettings.CertHolder> certHolders =
+                TrustedCredentialsSettings.getCertHolders(
+                        TrustedCredentialsSettings.submitCertHolders(mExecutor, mService,
+                                null /* adapter */, TrustedCredentialsSettings.Tab.USER,
+                                Arrays.asList(ALIAS_ONE, ALIAS_BROKEN, ALIAS_TWO), PROFILE_ID,
+                                loaded::incrementAndGet));
+
+        assertThat(getAliases(certHolders)).containsExactly(ALIAS_ONE, ALIAS_TWO);
+        // Progress still accounts for the certificate which failed.
+        assertThat(loaded.get()).isEqualTo(3);
+    }
+
+    private static List<String> getAliases(
+            List<TrustedCredentialsSettings.CertHolder> certHolders) {
+        final List<String> aliases = new ArrayList<>();
+        for (TrustedCredentialsSettings.CertHolder certHolder : certHolders) {
+            aliases.add(certHolder.getAlias());
+        }
+        return aliases;
+    }
+}
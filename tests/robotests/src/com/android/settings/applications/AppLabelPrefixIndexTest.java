@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AppLabelPrefixIndexTest {
+
+    private ArrayList<String> mLabels;
+    private AppLabelPrefixIndex<String> mIndex;
+
+    @Before
+    public void setUp() {
+        mLabels = new ArrayList<>(Arrays.asList(
+                "calendar", "camera", "google camera", "maps", "street view", "calculator"));
+        mIndex = new AppLabelPrefixIndex<>(mLabels, label -> label);
+    }
+
+    @Test
+    public void getMatchingPositions_labelPrefix_shouldMatchInOrder() {
+        assertThat(mIndex.getMatchingPositions("cal")).asList().containsExactly(0, 5).inOrder();
+    }
+
+    @Test
+    public void getMatchingPositions_wordPrefix_shouldMatchOnce() {
+        assertThat(mIndex.getMatchingPositions("cam")).asList().containsExactly(1, 2).inOrder();
+    }
+
+    @Test
+    public void getMatchingPositions_midWord_shouldNotMatch() {
+        assertThat(mIndex.getMatchingPositions("amera")).isEmpty();
+        assertThat(mIndex.getMatchingPositions("z")).isEmpty();
+    }
+
+    @Test
+    public void getMatchingPositions_prefixWithSpace_shouldMatchAcrossWords() {
+        assertThat(mIndex.getMatchingPositions("street v")).asList().containsExactly(4);
+    }
+
+    @Test
+    public void getMatchingPositions_shouldMatchLinearScan() {
+        for (String prefix : new String[] {"c", "ca", "g", "m", "v", "s", "calc", "x"}) {
+            final ArrayList<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < mLabels.size(); i++) {
+                final String label = mLabels.get(i);
+                if (label.startsWith(prefix) || label.contains(" " + prefix)) {
+                    expected.add(i);
+                }
+            }
+            assertThat(mIndex.getMatchingPositions(prefix)).asList()
+                    .containsExactlyElementsIn(expected).inOrder();
+        }
+    }
+
+    @Test
+    public void getItems_shouldReturnIndexedItems() {
+        assertThat(mIndex.getItems()).isSameAs(mLabels);
+    }
+}
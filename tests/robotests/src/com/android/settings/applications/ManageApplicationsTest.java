@@ -245,6 +245,53 @@ public class ManageApplicationsTest {
         verify(loadingViewController).showContent(true /* animate */);
     }
 
+    @Test
+    public void applyPrefixFilter_noIndex_shouldHaveNoEntries() {
+        final ManageApplications.PrefixFilterResult result =
+                ManageApplications.ApplicationsAdapter.applyPrefixFilter("cam", null);
+
+        assertThat(result.index).isNull();
+        assertThat(result.entries).isNull();
+    }
+
+    @Test
+    public void applyPrefixFilter_emptyPrefix_shouldKeepAllEntries() {
+        final AppLabelPrefixIndex<ApplicationsState.AppEntry> index =
+                buildIndex("camera", "maps");
+
+        final ManageApplications.PrefixFilterResult result =
+                ManageApplications.ApplicationsAdapter.applyPrefixFilter("", index);
+
+        assertThat(result.index).isSameAs(index);
+        assertThat(result.entries).isSameAs(index.getItems());
+        assertThat(result.positions).isNull();
+    }
+
+    @Test
+    public void applyPrefixFilter_prefix_shouldKeepMatchingEntriesInOrder() {
+        final AppLabelPrefixIndex<ApplicationsState.AppEntry> index =
+                buildIndex("camera", "maps", "google camera");
+
+        final ManageApplications.PrefixFilterResult result =
+                ManageApplications.ApplicationsAdapter.applyPrefixFilter("Cam", index);
+
+        assertThat(result.index).isSameAs(index);
+        assertThat(result.positions).asList().containsExactly(0, 2).inOrder();
+        assertThat(result.entries).containsExactly(
+                index.getItems().get(0), index.getItems().get(2)).inOrder();
+    }
+
+    private static AppLabelPrefixIndex<ApplicationsState.AppEntry> buildIndex(
+            String... labels) {
+        final ArrayList<ApplicationsState.AppEntry> entries = new ArrayList<>();
+        for (String label : labels) {
+            final ApplicationsState.AppEntry entry = mock(ApplicationsState.AppEntry.class);
+            entry.label = label;
+            entries.add(entry);
+        }
+        return new AppLabelPrefixIndex<>(entries, entry -> entry.label);
+    }
+
     private void setUpOptionMenus() {
         when(mMenu.findItem(anyInt())).thenAnswer(invocation -> {
             final Object[] args = invocation.getArguments();
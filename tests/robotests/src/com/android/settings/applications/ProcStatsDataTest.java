@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.android.internal.app.procstats.ProcessStats;
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class ProcStatsDataTest {
+
+    private static final String PACKAGE = "com.test.package";
+
+    @Before
+    public void setUp() {
+        ProcStatsData.clearSnapshots();
+    }
+
+    @After
+    public void tearDown() {
+        ProcStatsData.clearSnapshots();
+    }
+
+    @Test
+    public void refreshStats_sameStats_shouldReuseCopiesOfEntries() {
+        final ProcessStats stats = newStats(1000);
+        final ProcStatsData first = newData(false /* useXfer */, stats);
+        first.refreshStats(false /* forceLoad */);
+        first.xferStats();
+
+        final ProcStatsData second = newData(true /* useXfer */, stats);
+        second.refreshStats(false /* forceLoad */);
+
+        verify(first, times(1)).aggregate();
+        verify(second, never()).aggregate();
+        verify(second, never()).loadStats();
+        assertThat(second.getEntries()).hasSize(1);
+        assertThat(second.getEntries().get(0).mPackage).isEqualTo(PACKAGE);
+        // Callers update the entries, instances should not share them.
+        assertThat(second.getEntries().get(0)).isNotSameAs(first.getEntries().get(0));
+    }
+
+    @Test
+    public void refreshStats_newStats_shouldComputeEntriesAgain() {
+        final ProcStatsData first = newData(false /* useXfer */, newStats(1000));
+        first.refreshStats(false /* forceLoad */);
+
+        final ProcStatsData second = newData(false /* useXfer */, newStats(2000));
+        second.refreshStats(false /* forceLoad */);
+
+        verify(second, times(1)).aggregate();
+    }
+
+    @Test
+    public void refreshStats_forceLoad_shouldLoadStatsAgain() {
+        final ProcStatsData data = newData(false /* useXfer */, newStats(1000));
+
+        data.refreshStats(false /* forceLoad */);
+        data.refreshStats(false /* forceLoad */);
+        verify(data, times(1)).loadStats();
+
+        data.refreshStats(true /* forceLoad */);
+        verify(data, times(2)).loadStats();
+        // The stats loaded again end at the same time, the entries are still reused.
+        verify(data, times(1)).aggregate();
+    }
+
+    private static ProcStatsData newData(boolean useXfer, ProcessStats stats) {
+        final ProcStatsData data = spy(new ProcStatsData(RuntimeEnvironment.application,
+                useXfer));
+        final ArrayList<ProcStatsPackageEntry> entries = new ArrayList<>();
+        entries.add(new ProcStatsPackageEntry(PACKAGE, 1000 /* windowLength */));
+        doReturn(stats).when(data).loadStats();
+        doReturn(new ProcStatsData.Aggregation(entries, null /* memInfo */, 1000))
+                .when(data).aggregate();
+        return data;
+    }
+
+    private static ProcessStats newStats(long endTime) {
+        final ProcessStats stats = new ProcessStats(false);
+        stats.mTimePeriodStartRealtime = 0;
+        stats.mTimePeriodEndRealtime = endTime;
+        return stats;
+    }
+}
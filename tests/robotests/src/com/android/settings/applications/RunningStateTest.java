@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import android.app.ActivityManager;
+import android.content.ComponentName;
+import android.content.Context;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class RunningStateTest {
+
+    @Test
+    public void sameServices_noPreviousSnapshot_shouldBeFalse() {
+        assertThat(RunningState.sameServices(null, Arrays.asList(buildService(1)))).isFalse();
+    }
+
+    @Test
+    public void sameServices_equalSnapshots_shouldBeTrue() {
+        assertThat(RunningState.sameServices(Arrays.asList(buildService(1), buildService(2)),
+                Arrays.asList(buildService(1), buildService(2)))).isTrue();
+    }
+
+    @Test
+    public void sameServices_serviceRestarting_shouldBeFalse() {
+        final ActivityManager.RunningServiceInfo restarting = buildService(1);
+        restarting.restarting = 1000;
+
+        assertThat(RunningState.sameServices(Arrays.asList(buildService(1)),
+                Arrays.asList(restarting))).isFalse();
+    }
+
+    @Test
+    public void sameProcesses_equalSnapshots_shouldBeTrue() {
+        assertThat(RunningState.sameProcesses(Arrays.asList(buildProcess(1)),
+                Arrays.asList(buildProcess(1)))).isTrue();
+    }
+
+    @Test
+    public void sameProcesses_importanceChanged_shouldBeFalse() {
+        final ActivityManager.RunningAppProcessInfo background = buildProcess(1);
+        background.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKGROUND;
+
+        assertThat(RunningState.sameProcesses(Arrays.asList(buildProcess(1)),
+                Arrays.asList(background))).isFalse();
+    }
+
+    @Test
+    public void sameProcesses_processAdded_shouldBeFalse() {
+        final List<ActivityManager.RunningAppProcessInfo> oldProcesses =
+                Arrays.asList(buildProcess(1));
+
+        assertThat(RunningState.sameProcesses(oldProcesses,
+                Arrays.asList(buildProcess(1), buildProcess(2)))).isFalse();
+    }
+
+    @Test
+    public void updateContents_nothingChanged_shouldOnlyRefreshTime() {
+        final RunningState state = buildResumedState(RunningState.OnRefreshUiListener.REFRESH_TIME);
+        final long delay = state.mContentsUpdateDelay;
+
+        state.updateContents();
+
+        // The memory totals are refreshed by the periodic time update instead.
+        verify(state).sendRefreshUi(RunningState.OnRefreshUiListener.REFRESH_TIME);
+        assertThat(state.mContentsUpdateDelay).isGreaterThan(delay);
+    }
+
+    @Test
+    public void updateContents_sizesChanged_shouldRefreshData() {
+        final RunningState state = buildResumedState(RunningState.OnRefreshUiListener.REFRESH_DATA);
+
+        state.updateContents();
+
+        verify(state).sendRefreshUi(RunningState.OnRefreshUiListener.REFRESH_DATA);
+        assertThat(state.mContentsUpdateDelay).isEqualTo(RunningState.CONTENTS_UPDATE_DELAY);
+    }
+
+    private static RunningState buildResumedState(int refresh) {
+        final RunningState state = spy(RunningState.getInstance(RuntimeEnvironment.application));
+        state.mResumed = true;
+        state.mContentsUpdateDelay = RunningState.CONTENTS_UPDATE_DELAY;
+        doReturn(refresh).when(state).update(any(Context.class), any(ActivityManager.class));
+        return state;
+    }
+
+    private static ActivityManager.RunningServiceInfo buildService(int pid) {
+        final ActivityManager.RunningServiceInfo service = new ActivityManager.RunningServiceInfo();
+        service.service = new ComponentName("com.android.test", "Service" + pid);
+        service.pid = pid;
+        service.uid = 10000 + pid;
+        service.process = "com.android.test:" + pid;
+        service.started = true;
+        return service;
+    }
+
+    private static ActivityManager.RunningAppProcessInfo buildProcess(int pid) {
+        final ActivityManager.RunningAppProcessInfo process =
+                new ActivityManager.RunningAppProcessInfo("com.android.test:" + pid, pid,
+                        new String[] {"com.android.test"});
+        process.uid = 10000 + pid;
+        process.importance = ActivityManager.RunningAppProcessInfo.IMPORTANCE_SERVICE;
+        return process;
+    }
+}
@@ -65,6 +65,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -587,6 +588,70 @@ public class DashboardAdapterTest {
         verify(data).setAdapter(any(ConditionAdapter.class));
     }
 
+    @Test
+    public void testSetCategory_afterFirstUpdate_shouldApplyOnNextFrame() {
+        mDashboardAdapter.mDiffExecutor = Runnable::run;
+        mDashboardAdapter.setConditions(mConditionList);
+        final DashboardCategory category = makeCategory();
+
+        mDashboardAdapter.setCategory(category);
+
+        assertThat(mDashboardAdapter.mDashboardData.getCategory()).isNull();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertThat(mDashboardAdapter.mDashboardData.getCategory()).isEqualTo(category);
+    }
+
+    @Test
+    public void testUpdatesInSameFrame_shouldBeDiffedOnce() {
+        final List<Runnable> diffs = new ArrayList<>();
+        mDashboardAdapter.mDiffExecutor = command -> {
+            diffs.add(command);
+            command.run();
+        };
+        mDashboardAdapter.setConditions(mConditionList);
+        final DashboardCategory category = makeCategory();
+
+        mDashboardAdapter.setCategory(category);
+        mDashboardAdapter.setConditions(new ArrayList<>());
+        mDashboardAdapter.setCategoriesAndSuggestions(category, makeSuggestions("pkg1"));
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertThat(diffs).hasSize(1);
+        assertThat(mDashboardAdapter.mDashboardData.getCategory()).isEqualTo(category);
+        assertThat(mDashboardAdapter.mDashboardData.getConditions()).isEmpty();
+        assertThat(mDashboardAdapter.mDashboardData.getSuggestions()).hasSize(1);
+    }
+
+    @Test
+    public void testDiffOfOutdatedData_shouldNotBeApplied() {
+        final List<Runnable> diffs = new ArrayList<>();
+        mDashboardAdapter.mDiffExecutor = diffs::add;
+        mDashboardAdapter.setConditions(mConditionList);
+        final DashboardCategory category1 = makeCategory();
+        final DashboardCategory category2 = makeCategory();
+
+        mDashboardAdapter.setCategory(category1);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        mDashboardAdapter.setCategory(category2);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertThat(diffs).hasSize(2);
+
+        diffs.get(0).run();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertThat(mDashboardAdapter.mDashboardData.getCategory()).isNull();
+
+        diffs.get(1).run();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertThat(mDashboardAdapter.mDashboardData.getCategory()).isEqualTo(category2);
+    }
+
+    private DashboardCategory makeCategory() {
+        final DashboardCategory category = new DashboardCategory();
+        category.tiles = new ArrayList<>();
+        category.tiles.add(new Tile());
+        return category;
+    }
+
     private List<Tile> makeSuggestions(String... pkgNames) {
         final List<Tile> suggestions = new ArrayList<>();
         for (String pkgName : pkgNames) {
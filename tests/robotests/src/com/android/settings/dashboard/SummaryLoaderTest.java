@@ -17,6 +17,7 @@
 package com.android.settings.dashboard;
 
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 
@@ -39,6 +40,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @RunWith(SettingsRobolectricTestRunner.class)
@@ -89,6 +91,57 @@ public class SummaryLoaderTest {
         assertThat(mCallbackInvoked).isTrue();
     }
 
+    @Test
+    public void testGetSummaryProviderFactory_shouldReturnCachedFactory() {
+        final SummaryLoader.SummaryProviderFactory factory =
+                SummaryLoader.getSummaryProviderFactory(TestFragment.class.getName());
+
+        assertThat(factory).isSameAs(TestFragment.SUMMARY_PROVIDER_FACTORY);
+        assertThat(SummaryLoader.getSummaryProviderFactory(TestFragment.class.getName()))
+                .isSameAs(factory);
+    }
+
+    @Test
+    public void testGetSummaryProviderFactory_noFactory_shouldReturnNull() {
+        assertThat(SummaryLoader.getSummaryProviderFactory(String.class.getName())).isNull();
+        assertThat(SummaryLoader.getSummaryProviderFactory(String.class.getName())).isNull();
+        assertThat(SummaryLoader.getSummaryProviderFactory("com.android.Unknown")).isNull();
+    }
+
+    @Test
+    public void testDeliverPendingSummaries_nothingPending_NoCallback() {
+        mSummaryLoader.deliverPendingSummaries();
+
+        assertThat(mCallbackInvoked).isFalse();
+    }
+
+    @Test
+    public void testDeliverPendingSummaries_summariesCoalescedAndApplied() {
+        final List<Tile> notifiedTiles = new ArrayList<>();
+        mSummaryLoader.setSummaryConsumer(tile -> notifiedTiles.add(tile));
+        final DashboardCategory category = new DashboardCategory();
+        final Tile tile1 = createTile("Activity1");
+        final Tile tile2 = createTile("Activity2");
+        category.addTile(tile1);
+        category.addTile(tile2);
+        when(mFeatureFactory.dashboardFeatureProvider.getTilesForCategory(null))
+                .thenReturn(category);
+        final SummaryLoader.SummaryProvider provider1 = mock(SummaryLoader.SummaryProvider.class);
+        final SummaryLoader.SummaryProvider provider2 = mock(SummaryLoader.SummaryProvider.class);
+        mSummaryLoader.addProviderW(tile1, provider1);
+        mSummaryLoader.addProviderW(tile2, provider2);
+
+        mSummaryLoader.setSummary(provider1, SUMMARY_1);
+        mSummaryLoader.setSummary(provider1, SUMMARY_2);
+        mSummaryLoader.setSummary(provider2, SUMMARY_1);
+        mSummaryLoader.setSummary(mock(SummaryLoader.SummaryProvider.class), "unknown");
+        mSummaryLoader.deliverPendingSummaries();
+
+        assertThat(tile1.summary).isEqualTo(SUMMARY_2);
+        assertThat(tile2.summary).isEqualTo(SUMMARY_1);
+        assertThat(notifiedTiles).containsExactly(tile1, tile2);
+    }
+
     @Test
     public void testUpdateSummaryToCache_hasCache_shouldUpdate() {
 
@@ -107,4 +160,15 @@ public class SummaryLoaderTest {
 
         assertThat(tile.summary).isEqualTo(testSummary);
     }
+
+    private static Tile createTile(String className) {
+        final Tile tile = new Tile();
+        tile.intent = new Intent().setComponent(new ComponentName("pkg", className));
+        return tile;
+    }
+
+    public static class TestFragment {
+        public static final SummaryLoader.SummaryProviderFactory SUMMARY_PROVIDER_FACTORY =
+                (activity, summaryLoader) -> null;
+    }
 }
@@ -16,6 +16,9 @@
 
 package com.android.settings.dashboard.suggestions;
 
+import android.content.Context;
+import android.content.SharedPreferences;
+
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
 import com.android.settings.TestConfig;
 
@@ -36,6 +39,7 @@ public class EventStoreTest {
 
     @Before
     public void setUp() {
+        EventStore.clearBackend();
         mEventStore = new EventStore(RuntimeEnvironment.application);
     }
 
@@ -69,4 +73,52 @@ public class EventStoreTest {
             .isEqualTo(0);
     }
 
+    @Test
+    public void testWriteEvent_shouldSharePendingEventsAcrossInstances() {
+        mEventStore.writeEvent("pkg", EventStore.EVENT_CLICKED);
+
+        assertThat(new EventStore(RuntimeEnvironment.application)
+            .readMetric("pkg", EventStore.EVENT_CLICKED, EventStore.METRIC_COUNT))
+            .isEqualTo(1);
+    }
+
+    @Test
+    public void testFlushPendingEvents_shouldPersistForNextLoad() {
+        mEventStore.writeEvent("pkg", EventStore.EVENT_SHOWN);
+        mEventStore.writeEvent("pkg", EventStore.EVENT_SHOWN);
+
+        EventStore.flushPendingEvents();
+        EventStore.clearBackend();
+
+        assertThat(new EventStore(RuntimeEnvironment.application)
+            .readMetric("pkg", EventStore.EVENT_SHOWN, EventStore.METRIC_COUNT))
+            .isEqualTo(2);
+    }
+
+    @Test
+    public void testLoad_legacyPrefs_shouldMigrate() {
+        final SharedPreferences prefs = RuntimeEnvironment.application
+            .getSharedPreferences(EventStore.TAG, Context.MODE_PRIVATE);
+        prefs.edit()
+            .putLong("setting_suggestion_com.pkg_name_dismissed_count", 3L)
+            .putLong("setting_suggestion_com.pkg_name_dismissed_last_event_time", 1000L)
+            .commit();
+        EventStore.clearBackend();
+        final EventStore eventStore = new EventStore(RuntimeEnvironment.application);
+
+        assertThat(eventStore
+            .readMetric("com.pkg_name", EventStore.EVENT_DISMISSED, EventStore.METRIC_COUNT))
+            .isEqualTo(3);
+        assertThat(eventStore.readMetric("com.pkg_name", EventStore.EVENT_DISMISSED,
+            EventStore.METRIC_LAST_EVENT_TIME))
+            .isEqualTo(1000);
+
+        EventStore.flushPendingEvents();
+
+        assertThat(prefs.contains("setting_suggestion_com.pkg_name_dismissed_count")).isFalse();
+        EventStore.clearBackend();
+        assertThat(new EventStore(RuntimeEnvironment.application)
+            .readMetric("com.pkg_name", EventStore.EVENT_DISMISSED, EventStore.METRIC_COUNT))
+            .isEqualTo(3);
+    }
 }
@@ -40,6 +40,7 @@ public class SuggestionFeaturizerTest {
 
     @Before
     public void setUp() {
+        EventStore.clearBackend();
         mEventStore = new EventStore(RuntimeEnvironment.application);
         mSuggestionFeaturizer = new SuggestionFeaturizer(mEventStore);
     }
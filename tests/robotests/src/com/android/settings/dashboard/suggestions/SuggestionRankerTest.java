@@ -31,10 +31,12 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.same;
@@ -49,6 +51,7 @@ public class SuggestionRankerTest {
     @Mock
     private SuggestionFeaturizer mSuggestionFeaturizer;
     private Map<String, Map<String, Double>> mFeatures;
+    private double[] mFeatureMatrix;
     private List<String> mPkgNames;
     private List<Tile> mSuggestions;
 
@@ -69,11 +72,13 @@ public class SuggestionRankerTest {
         };
         mSuggestionFeaturizer = mock(SuggestionFeaturizer.class);
         mSuggestionRanker = new SuggestionRanker(mSuggestionFeaturizer);
+        mFeatureMatrix = new double[mPkgNames.size() * SuggestionFeaturizer.FEATURE_COUNT];
         when(mSuggestionFeaturizer.featurize(mPkgNames)).thenReturn(mFeatures);
+        when(mSuggestionFeaturizer.featurizeToMatrix(mPkgNames)).thenReturn(mFeatureMatrix);
         mSuggestionRanker = spy(mSuggestionRanker);
-        when(mSuggestionRanker.getRelevanceMetric(same(mFeatures.get("pkg1")))).thenReturn(0.9);
-        when(mSuggestionRanker.getRelevanceMetric(same(mFeatures.get("pkg2")))).thenReturn(0.1);
-        when(mSuggestionRanker.getRelevanceMetric(same(mFeatures.get("pkg3")))).thenReturn(0.5);
+        when(mSuggestionRanker.getRelevanceMetric(same(mFeatureMatrix), eq(0))).thenReturn(0.9);
+        when(mSuggestionRanker.getRelevanceMetric(same(mFeatureMatrix), eq(1))).thenReturn(0.1);
+        when(mSuggestionRanker.getRelevanceMetric(same(mFeatureMatrix), eq(2))).thenReturn(0.5);
     }
 
     @Test
@@ -88,5 +93,86 @@ public class SuggestionRankerTest {
         mSuggestionRanker.rankSuggestions(mSuggestions, mPkgNames);
         assertThat(mSuggestions).isEqualTo(expectedOrderdList);
     }
-}
 
+    @Test
+    public void testRank_equalRelevance_shouldKeepOrder() {
+        when(mSuggestionRanker.getRelevanceMetric(same(mFeatureMatrix), eq(2))).thenReturn(0.9);
+        final List<Tile> expectedOrderdList = Arrays.asList(
+                mSuggestions.get(0), mSuggestions.get(2), mSuggestions.get(1));
+
+        mSuggestionRanker.rankSuggestions(mSuggestions, mPkgNames);
+
+        assertThat(mSuggestions).isEqualTo(expectedOrderdList);
+    }
+
+    @Test
+    public void testGetRelevanceMetric_matrixMatchesFeatureMap() {
+        final List<String> pkgNames = populateEvents(20);
+        final SuggestionFeaturizer featurizer =
+                new SuggestionFeaturizer(new EventStore(RuntimeEnvironment.application));
+        final SuggestionRanker ranker = new SuggestionRanker(featurizer);
+
+        final double[] matrix = featurizer.featurizeToMatrix(pkgNames);
+        final Map<String, Map<String, Double>> features = featurizer.featurize(pkgNames);
+
+        for (int i = 0; i < pkgNames.size(); i++) {
+            assertThat(ranker.getRelevanceMetric(matrix, i)).isWithin(1e-9)
+                    .of(ranker.getRelevanceMetric(features.get(pkgNames.get(i))));
+        }
+    }
+
+    @Test
+    public void testRank_matrixOrderMatchesFeatureMapRelevance() {
+        final int size = 100;
+        final List<String> pkgNames = populateEvents(size);
+        final SuggestionFeaturizer featurizer =
+                new SuggestionFeaturizer(new EventStore(RuntimeEnvironment.application));
+        final SuggestionRanker ranker = new SuggestionRanker(featurizer);
+        final List<Tile> suggestions = new ArrayList<>();
+        final Map<Tile, Double> metrics = new HashMap<>();
+        final Map<String, Map<String, Double>> features = featurizer.featurize(pkgNames);
+        for (int i = 0; i < size; i++) {
+            final Tile tile = new Tile();
+            suggestions.add(tile);
+            metrics.put(tile, ranker.getRelevanceMetric(features.get(pkgNames.get(i))));
+        }
+
+        ranker.rankSuggestions(suggestions, pkgNames);
+
+        assertThat(suggestions).hasSize(size);
+        for (int i = 1; i < size; i++) {
+            assertThat(metrics.get(suggestions.get(i - 1)))
+                    .isAtLeast(metrics.get(suggestions.get(i)));
+        }
+    }
+
+    @Test
+    public void testGetRankSlots_equalScoresKeepOrder() {
+        final int[] slots = SuggestionRanker.getRankSlots(new double[] {1, 3, 3, 2, 1});
+
+        assertThat(slots).asList().containsExactly(3, 0, 1, 2, 4).inOrder();
+    }
+
+    /**
+     * Writes a varying number of events for {@param count} packages and returns their names.
+     */
+    private List<String> populateEvents(int count) {
+        EventStore.clearBackend();
+        final EventStore eventStore = new EventStore(RuntimeEnvironment.application);
+        final List<String> pkgNames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String pkgName = "pkg" + i;
+            pkgNames.add(pkgName);
+            for (int j = 0; j < i % 4; j++) {
+                eventStore.writeEvent(pkgName, EventStore.EVENT_SHOWN);
+            }
+            if (i % 3 == 0) {
+                eventStore.writeEvent(pkgName, EventStore.EVENT_DISMISSED);
+            }
+            if (i % 5 == 0) {
+                eventStore.writeEvent(pkgName, EventStore.EVENT_CLICKED);
+            }
+        }
+        return pkgNames;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.UserInfo;
+import android.net.NetworkStats;
+import android.net.TrafficStats;
+import android.os.Process;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+import java.util.BitSet;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AppDataUsageListLoaderTest {
+
+    private static final int CURRENT_USER = 0;
+    private static final int MANAGED_PROFILE = 10;
+    private static final int OTHER_USER = 11;
+    private static final int REMOVED_USER = 12;
+    private static final int APP_ID = Process.FIRST_APPLICATION_UID + 1;
+
+    @Mock
+    private UserManager mUserManager;
+
+    private NetworkStats mStats;
+    private BitSet mProfileIds;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mStats = new NetworkStats(0, 10);
+        mProfileIds = new BitSet();
+        mProfileIds.set(CURRENT_USER);
+        mProfileIds.set(MANAGED_PROFILE);
+        when(mUserManager.getUserInfo(OTHER_USER)).thenReturn(new UserInfo());
+    }
+
+    @Test
+    public void collapse_sameUid_shouldAccumulateIntoOneItem() {
+        final int uid = UserHandle.getUid(CURRENT_USER, APP_ID);
+        addUsage(uid, 100);
+        addUsage(uid, 50);
+
+        final AppDataUsageListLoader.Result result = collapse(new int[0]);
+
+        assertThat(result.items).hasSize(1);
+        assertThat(result.items.get(0).key).isEqualTo(uid);
+        assertThat(result.items.get(0).total).isEqualTo(150);
+        assertThat(result.largest).isEqualTo(150);
+    }
+
+    @Test
+    public void collapse_managedProfileApp_shouldAlsoCountTowardsProfile() {
+        final int uid = UserHandle.getUid(MANAGED_PROFILE, APP_ID);
+        addUsage(uid, 100);
+
+        final AppDataUsageListLoader.Result result = collapse(new int[0]);
+
+        assertThat(result.items).hasSize(2);
+        assertThat(findItem(result, uid).total).isEqualTo(100);
+        final AppItem profileItem =
+                findItem(result, UidDetailProvider.buildKeyForUser(MANAGED_PROFILE));
+        assertThat(profileItem.category).isEqualTo(AppItem.CATEGORY_USER);
+        assertThat(profileItem.total).isEqualTo(100);
+    }
+
+    @Test
+    public void collapse_otherAndRemovedUsers_shouldLookUpEachUserOnce() {
+        addUsage(UserHandle.getUid(OTHER_USER, APP_ID), 100);
+        addUsage(UserHandle.getUid(OTHER_USER, APP_ID + 1), 100);
+        addUsage(UserHandle.getUid(REMOVED_USER, APP_ID), 10);
+        addUsage(UserHandle.getUid(REMOVED_USER, APP_ID + 1), 10);
+
+        final AppDataUsageListLoader.Result result = collapse(new int[0]);
+
+        assertThat(findItem(result, UidDetailProvider.buildKeyForUser(OTHER_USER)).total)
+                .isEqualTo(200);
+        assertThat(findItem(result, TrafficStats.UID_REMOVED).total).isEqualTo(20);
+        verify(mUserManager, times(1)).getUserInfo(OTHER_USER);
+        verify(mUserManager, times(1)).getUserInfo(REMOVED_USER);
+    }
+
+    @Test
+    public void collapse_restrictedUids_shouldOnlyMarkProfileApps() {
+        final int usedUid = UserHandle.getUid(CURRENT_USER, APP_ID);
+        final int unusedUid = UserHandle.getUid(CURRENT_USER, APP_ID + 1);
+        final int otherUserUid = UserHandle.getUid(OTHER_USER, APP_ID);
+        addUsage(usedUid, 100);
+
+        final AppDataUsageListLoader.Result result =
+                collapse(new int[] {usedUid, unusedUid, otherUserUid});
+
+        assertThat(result.items).hasSize(2);
+        assertThat(findItem(result, usedUid).restricted).isTrue();
+        assertThat(findItem(result, usedUid).total).isEqualTo(100);
+        assertThat(findItem(result, unusedUid).restricted).isTrue();
+        assertThat(findItem(result, unusedUid).total).isEqualTo(-1);
+    }
+
+    private AppDataUsageListLoader.Result collapse(int[] restrictedUids) {
+        return AppDataUsageListLoader.collapse(mStats, restrictedUids, CURRENT_USER, mProfileIds,
+                mUserManager);
+    }
+
+    private void addUsage(int uid, long bytes) {
+        mStats.addValues(new NetworkStats.Entry(NetworkStats.IFACE_ALL, uid,
+                NetworkStats.SET_DEFAULT, NetworkStats.TAG_NONE, bytes, 1, 0, 0, 0));
+    }
+
+    private static AppItem findItem(AppDataUsageListLoader.Result result, int key) {
+        for (AppItem item : result.items) {
+            if (item.key == key) {
+                return item;
+            }
+        }
+        return null;
+    }
+}
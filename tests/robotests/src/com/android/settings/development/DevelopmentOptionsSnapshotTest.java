@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.development;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.when;
+
+import android.app.IActivityManager;
+import android.os.RemoteException;
+import android.view.IWindowManager;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class DevelopmentOptionsSnapshotTest {
+
+    @Mock
+    private IWindowManager mWindowManager;
+    @Mock
+    private IActivityManager mActivityManager;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void load_shouldReadAnimationScalesAndProcessLimit() throws RemoteException {
+        when(mWindowManager.getAnimationScale(0)).thenReturn(0.5f);
+        when(mWindowManager.getAnimationScale(1)).thenReturn(1f);
+        when(mWindowManager.getAnimationScale(2)).thenReturn(2f);
+        when(mActivityManager.getProcessLimit()).thenReturn(3);
+
+        final DevelopmentOptionsSnapshot snapshot =
+                DevelopmentOptionsSnapshot.load(mWindowManager, mActivityManager);
+
+        assertThat(snapshot.animationScales[0]).isEqualTo(0.5f);
+        assertThat(snapshot.animationScales[1]).isEqualTo(1f);
+        assertThat(snapshot.animationScales[2]).isEqualTo(2f);
+        assertThat(snapshot.processLimit).isEqualTo(3);
+    }
+
+    @Test
+    public void load_remoteException_shouldLeaveValuesUnknown() throws RemoteException {
+        when(mWindowManager.getAnimationScale(1)).thenThrow(new RemoteException());
+        when(mActivityManager.getProcessLimit()).thenThrow(new RemoteException());
+
+        final DevelopmentOptionsSnapshot snapshot =
+                DevelopmentOptionsSnapshot.load(mWindowManager, mActivityManager);
+
+        assertThat(Float.isNaN(snapshot.animationScales[1])).isTrue();
+        assertThat(snapshot.processLimit).isEqualTo(DevelopmentOptionsSnapshot.UNKNOWN);
+    }
+}
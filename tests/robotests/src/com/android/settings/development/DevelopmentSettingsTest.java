@@ -19,6 +19,7 @@ package com.android.settings.development;
 import android.app.Activity;
 import android.content.Context;
 import android.provider.SearchIndexableResource;
+import android.provider.Settings;
 import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceManager;
 import android.support.v7.preference.PreferenceScreen;
@@ -46,6 +47,7 @@ import java.util.List;
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Answers.RETURNS_DEEP_STUBS;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -133,4 +135,23 @@ public class DevelopmentSettingsTest {
 
         assertThat(nonIndexableKeys).doesNotContain("development_prefs_screen");
     }
+
+    @Test
+    public void onSnapshotLoaded_afterTurnedOff_shouldNotEnableDevelopmentSettings() {
+        final Context appContext = RuntimeEnvironment.application;
+        mSettings.onAttach(appContext);
+        new DevelopmentSettingsEnabler(appContext, null /* lifecycle */)
+                .disableDevelopmentSettings();
+        // A debug setting which turning development settings off doesn't reset.
+        doAnswer(invocation -> {
+            mSettings.mHaveDebugSettings = true;
+            return null;
+        }).when(mSettings).applySnapshot(any(DevelopmentOptionsSnapshot.class));
+
+        mSettings.onSnapshotLoaded(new DevelopmentOptionsSnapshot(),
+                false /* checkDebugSettings */);
+
+        assertThat(Settings.Global.getInt(appContext.getContentResolver(),
+                Settings.Global.DEVELOPMENT_SETTINGS_ENABLED, 0)).isEqualTo(0);
+    }
 }
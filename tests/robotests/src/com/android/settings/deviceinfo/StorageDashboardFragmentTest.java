@@ -18,8 +18,11 @@ package com.android.settings.deviceinfo;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -27,6 +30,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.app.Activity;
+import android.os.UserHandle;
 import android.os.storage.StorageManager;
 import android.provider.SearchIndexableResource;
 import android.util.SparseArray;
@@ -120,6 +124,53 @@ public class StorageDashboardFragmentTest {
         assertThat(mFragment.getAppsStorageResult()).isNull();
     }
 
+    @Test
+    public void test_partialAppsResultIsNotCached() {
+        CachedStorageValuesHelper helper = mock(CachedStorageValuesHelper.class);
+        mFragment = spy(mFragment);
+        doNothing().when(mFragment).onReceivedSizes();
+        mFragment.setCachedStorageValuesHelper(helper);
+        mFragment.setPrivateStorageInfo(new PrivateStorageInfo(0, 0));
+
+        mFragment.onPartialAppsStorageResult(new SparseArray<>());
+        mFragment.maybeCacheFreshValues();
+
+        verify(helper, never()).cacheResult(any(PrivateStorageInfo.class), any());
+    }
+
+    @Test
+    public void test_finalAppsResultIsCached() {
+        CachedStorageValuesHelper helper = mock(CachedStorageValuesHelper.class);
+        mFragment = spy(mFragment);
+        doNothing().when(mFragment).onReceivedSizes();
+        mFragment.setCachedStorageValuesHelper(helper);
+        PrivateStorageInfo info = new PrivateStorageInfo(0, 0);
+        mFragment.setPrivateStorageInfo(info);
+
+        mFragment.onPartialAppsStorageResult(new SparseArray<>());
+        mFragment.onLoadFinished(null /* loader */, new SparseArray<>());
+
+        verify(helper).cacheResult(eq(info), any());
+    }
+
+    @Test
+    public void test_incompleteAppsResultIsNotCached() {
+        CachedStorageValuesHelper helper = mock(CachedStorageValuesHelper.class);
+        mFragment = spy(mFragment);
+        doNothing().when(mFragment).onReceivedSizes();
+        mFragment.setCachedStorageValuesHelper(helper);
+        mFragment.setPrivateStorageInfo(new PrivateStorageInfo(0, 0));
+        StorageAsyncLoader.AppsStorageResult userResult =
+                new StorageAsyncLoader.AppsStorageResult();
+        userResult.incomplete = true;
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = new SparseArray<>();
+        result.put(UserHandle.myUserId(), userResult);
+
+        mFragment.onLoadFinished(null /* loader */, result);
+
+        verify(helper, never()).cacheResult(any(PrivateStorageInfo.class), any());
+    }
+
     @Test
     public void test_loadWhenQuotaOffIfVolumeInfoNotLoaded() {
         View fakeView = mock(View.class, RETURNS_DEEP_STUBS);
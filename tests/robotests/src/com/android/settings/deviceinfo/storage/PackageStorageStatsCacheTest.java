@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class PackageStorageStatsCacheTest {
+    private static final String UUID = "uuid";
+    private static final String PACKAGE_NAME = "com.test";
+    private static final String OTHER_PACKAGE_NAME = "com.test.other";
+
+    private Context mContext;
+    private CachedStorageValuesHelper.Clock mClock;
+    private PackageStorageStatsCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        new File(mContext.getCacheDir(), PackageStorageStatsCache.FILE_NAME).delete();
+        mClock = mock(CachedStorageValuesHelper.Clock.class);
+        when(mClock.getCurrentTime()).thenReturn(1000L);
+        mCache = createCache();
+    }
+
+    @Test
+    public void get_afterPut_shouldHit() {
+        mCache.put(UUID, 0, PACKAGE_NAME, new PackageStorageStatsCache.Entry(1, 2, 3, 4));
+
+        final PackageStorageStatsCache.Entry entry = mCache.get(UUID, 0, PACKAGE_NAME);
+
+        assertThat(entry.codeBytes).isEqualTo(1);
+        assertThat(entry.dataBytes).isEqualTo(2);
+        assertThat(entry.cacheBytes).isEqualTo(3);
+        assertThat(entry.cacheQuotaBytes).isEqualTo(4);
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+        assertThat(mCache.getMissCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void get_otherUserOrVolume_shouldMiss() {
+        mCache.put(UUID, 0, PACKAGE_NAME, new PackageStorageStatsCache.Entry(1, 2, 3, 4));
+
+        assertThat(mCache.get(UUID, 10, PACKAGE_NAME)).isNull();
+        assertThat(mCache.get(null, 0, PACKAGE_NAME)).isNull();
+        assertThat(mCache.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void get_expiredEntry_shouldMiss() {
+        mCache.put(UUID, 0, PACKAGE_NAME, new PackageStorageStatsCache.Entry(1, 2, 3, 4));
+        when(mClock.getCurrentTime())
+                .thenReturn(1000L + PackageStorageStatsCache.MAX_ENTRY_AGE_MS);
+
+        assertThat(mCache.get(UUID, 0, PACKAGE_NAME)).isNull();
+    }
+
+    @Test
+    public void invalidatePackage_shouldDropAllUsersOfPackageOnly() {
+        mCache.put(UUID, 0, PACKAGE_NAME, new PackageStorageStatsCache.Entry(1, 2, 3, 4));
+        mCache.put(UUID, 10, PACKAGE_NAME, new PackageStorageStatsCache.Entry(1, 2, 3, 4));
+        mCache.put(UUID, 0, OTHER_PACKAGE_NAME, new PackageStorageStatsCache.Entry(1, 2, 3, 4));
+
+        mCache.invalidatePackage(PACKAGE_NAME);
+
+        assertThat(mCache.get(UUID, 0, PACKAGE_NAME)).isNull();
+        assertThat(mCache.get(UUID, 10, PACKAGE_NAME)).isNull();
+        assertThat(mCache.get(UUID, 0, OTHER_PACKAGE_NAME)).isNotNull();
+    }
+
+    @Test
+    public void packageDataCleared_shouldDropPackage() {
+        mCache.put(UUID, 0, PACKAGE_NAME, new PackageStorageStatsCache.Entry(1, 2, 3, 4));
+
+        mCache.mPackageReceiver.onReceive(mContext, new Intent(Intent.ACTION_PACKAGE_DATA_CLEARED,
+                Uri.fromParts("package", PACKAGE_NAME, null)));
+
+        assertThat(mCache.get(UUID, 0, PACKAGE_NAME)).isNull();
+    }
+
+    @Test
+    public void deviceStorageOk_shouldDropAllPackages() {
+        mCache.put(UUID, 0, PACKAGE_NAME, new PackageStorageStatsCache.Entry(1, 2, 3, 4));
+        mCache.put(UUID, 0, OTHER_PACKAGE_NAME, new PackageStorageStatsCache.Entry(1, 2, 3, 4));
+
+        mCache.mStorageReceiver.onReceive(mContext, new Intent(Intent.ACTION_DEVICE_STORAGE_OK));
+
+        assertThat(mCache.get(UUID, 0, PACKAGE_NAME)).isNull();
+        assertThat(mCache.get(UUID, 0, OTHER_PACKAGE_NAME)).isNull();
+    }
+
+    @Test
+    public void save_shouldRestoreEntriesInNewInstance() {
+        mCache.put(UUID, 0, PACKAGE_NAME, new PackageStorageStatsCache.Entry(1, 2, 3, 4));
+        mCache.save();
+
+        final PackageStorageStatsCache.Entry entry =
+                createCache().get(UUID, 0, PACKAGE_NAME);
+
+        assertThat(entry).isNotNull();
+        assertThat(entry.dataBytes).isEqualTo(2);
+    }
+
+    @Test
+    public void save_afterInvalidate_shouldNotRestorePackage() {
+        mCache.put(UUID, 0, PACKAGE_NAME, new PackageStorageStatsCache.Entry(1, 2, 3, 4));
+        mCache.save();
+        mCache.invalidatePackage(PACKAGE_NAME);
+        mCache.save();
+
+        assertThat(createCache().get(UUID, 0, PACKAGE_NAME)).isNull();
+    }
+
+    private PackageStorageStatsCache createCache() {
+        final PackageStorageStatsCache cache = new PackageStorageStatsCache(mContext);
+        cache.mClock = mClock;
+        return cache;
+    }
+}
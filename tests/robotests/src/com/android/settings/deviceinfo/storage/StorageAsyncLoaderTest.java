@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.deviceinfo.storage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.pm.UserInfo;
+import android.net.TrafficStats;
+import android.os.UserHandle;
+import android.util.SparseArray;
+
+import com.android.settings.TestConfig;
+import com.android.settings.applications.PackageManagerWrapper;
+import com.android.settings.applications.UserManagerWrapper;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.applications.StorageStatsSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class StorageAsyncLoaderTest {
+    private static final int PRIMARY_USER_ID = 0;
+    private static final int SECONDARY_USER_ID = 10;
+    private static final String PACKAGE_NAME_1 = "com.blah.test";
+    private static final String PACKAGE_NAME_2 = "com.blah.test2";
+    private static final long DEFAULT_QUOTA = 64 * TrafficStats.MB_IN_BYTES;
+
+    @Mock
+    private StorageStatsSource mSource;
+    @Mock
+    private UserManagerWrapper mUserManager;
+    @Mock
+    private PackageManagerWrapper mPackageManager;
+
+    private StorageAsyncLoader mLoader;
+    private List<ApplicationInfo> mInfo = new ArrayList<>();
+    private List<UserInfo> mUsers;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mUsers = new ArrayList<>();
+        mUsers.add(new UserInfo(PRIMARY_USER_ID, "", 0));
+        when(mUserManager.getUsers()).thenReturn(mUsers);
+        when(mSource.getCacheQuotaBytes(nullable(String.class), anyInt()))
+                .thenReturn(DEFAULT_QUOTA);
+        when(mPackageManager.getInstalledApplicationsAsUser(eq(0), anyInt())).thenReturn(mInfo);
+        mLoader = new StorageAsyncLoader(RuntimeEnvironment.application, mUserManager, "id",
+                mSource, mPackageManager);
+    }
+
+    @Test
+    public void testLoadingApps() throws Exception {
+        addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+        addPackage(PACKAGE_NAME_2, 0, 100, 1000, ApplicationInfo.CATEGORY_UNDEFINED);
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.size()).isEqualTo(1);
+        assertThat(result.get(PRIMARY_USER_ID).gamesSize).isEqualTo(0L);
+        assertThat(result.get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(1111L);
+    }
+
+    @Test
+    public void testGamesAreFiltered() throws Exception {
+        addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_GAME);
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.get(PRIMARY_USER_ID).gamesSize).isEqualTo(11L);
+        assertThat(result.get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(0);
+    }
+
+    @Test
+    public void testDuplicatePackagesAreNotCounted() throws Exception {
+        mUsers.add(new UserInfo(SECONDARY_USER_ID, "", 0));
+        addPackage(PACKAGE_NAME_1, 100, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        // The code size is only attributed to the user with the lowest id.
+        assertThat(result.size()).isEqualTo(2);
+        assertThat(result.get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(111L);
+        assertThat(result.get(SECONDARY_USER_ID).otherAppsSize).isEqualTo(11L);
+    }
+
+    @Test
+    public void testManyPackages_shouldMatchSerialTotals() throws Exception {
+        mUsers.add(new UserInfo(SECONDARY_USER_ID, "", 0));
+        long expectedPrimary = 0;
+        long expectedSecondary = 0;
+        final int count = StorageAsyncLoader.BATCH_SIZE * StorageAsyncLoader.MAX_THREADS * 2 + 3;
+        for (int i = 0; i < count; i++) {
+            addPackage("com.test" + i, 1000 + i, i, 10 * i, ApplicationInfo.CATEGORY_UNDEFINED);
+            expectedPrimary += 1000 + i + i + 10 * i;
+            expectedSecondary += i + 10 * i;
+        }
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(expectedPrimary);
+        assertThat(result.get(SECONDARY_USER_ID).otherAppsSize).isEqualTo(expectedSecondary);
+    }
+
+    @Test
+    public void testRemovedPackageDoesNotCrash() throws Exception {
+        ApplicationInfo info = new ApplicationInfo();
+        info.packageName = PACKAGE_NAME_1;
+        info.category = ApplicationInfo.CATEGORY_UNDEFINED;
+        mInfo.add(info);
+        when(mSource.getStatsForPackage(nullable(String.class), nullable(String.class),
+                any(UserHandle.class))).thenThrow(new NameNotFoundException());
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        // Should not crash.
+        assertThat(result.get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(0);
+    }
+
+    @Test
+    public void testFailedBatch_shouldMarkResultIncomplete() throws Exception {
+        addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+        when(mSource.getStatsForPackage(nullable(String.class), eq(PACKAGE_NAME_1),
+                any(UserHandle.class))).thenThrow(new IllegalStateException());
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.get(PRIMARY_USER_ID).incomplete).isTrue();
+    }
+
+    @Test
+    public void testLoadingApps_shouldBeComplete() throws Exception {
+        addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.get(PRIMARY_USER_ID).incomplete).isFalse();
+    }
+
+    @Test
+    public void testCachedPackagesAreNotQueried() throws Exception {
+        final PackageStorageStatsCache cache = mock(PackageStorageStatsCache.class);
+        when(cache.get("id", PRIMARY_USER_ID, PACKAGE_NAME_1))
+                .thenReturn(new PackageStorageStatsCache.Entry(0, 11, 10, DEFAULT_QUOTA));
+        addPackage(PACKAGE_NAME_1, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+        addPackage(PACKAGE_NAME_2, 0, 100, 1000, ApplicationInfo.CATEGORY_UNDEFINED);
+        mLoader.setStatsCache(cache);
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(1111L);
+        verify(mSource, never()).getStatsForPackage(nullable(String.class), eq(PACKAGE_NAME_1),
+                any(UserHandle.class));
+        verify(cache).put(eq("id"), eq(PRIMARY_USER_ID), eq(PACKAGE_NAME_2),
+                any(PackageStorageStatsCache.Entry.class));
+        verify(cache).save();
+    }
+
+    private ApplicationInfo addPackage(String packageName, long codeSize, long dataSize,
+            long cacheSize, int category) throws Exception {
+        StorageStatsSource.AppStorageStats storageStats =
+                mock(StorageStatsSource.AppStorageStats.class);
+        when(storageStats.getCodeBytes()).thenReturn(codeSize);
+        when(storageStats.getDataBytes()).thenReturn(dataSize + cacheSize);
+        when(storageStats.getCacheBytes()).thenReturn(cacheSize);
+        when(mSource.getStatsForPackage(nullable(String.class), eq(packageName),
+                any(UserHandle.class))).thenReturn(storageStats);
+
+        ApplicationInfo info = new ApplicationInfo();
+        info.packageName = packageName;
+        info.category = category;
+        mInfo.add(info);
+        return info;
+    }
+}
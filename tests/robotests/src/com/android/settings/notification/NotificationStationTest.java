@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.notification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
+import android.os.UserHandle;
+import android.support.v7.preference.PreferenceManager;
+import android.support.v7.preference.PreferenceScreen;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class NotificationStationTest {
+
+    private static final String PACKAGE_1 = "com.test.one";
+    private static final String PACKAGE_2 = "com.test.two";
+
+    @Mock
+    private PackageManager mPackageManager;
+    private Context mContext;
+    private PreferenceScreen mScreen;
+    private NotificationStation mFragment;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        final PreferenceManager preferenceManager = new PreferenceManager(mContext);
+        mScreen = preferenceManager.createPreferenceScreen(mContext);
+        mFragment = spy(new NotificationStation());
+        doReturn(preferenceManager).when(mFragment).getPreferenceManager();
+        doReturn(mScreen).when(mFragment).getPreferenceScreen();
+        ReflectionHelpers.setField(mFragment, "mContext", mContext);
+        ReflectionHelpers.setField(mFragment, "mPm", mPackageManager);
+    }
+
+    @Test
+    public void applyPostedNotification_shouldInsertByPostTime() {
+        mFragment.showNotifications(new ArrayList<>(Arrays.asList(
+                newInfo("a", 300, true /* active */), newInfo("b", 100, false /* active */))));
+
+        mFragment.applyPostedNotification(newInfo("c", 200, true /* active */));
+
+        assertThat(getShownKeys()).containsExactly("a", "c", "b").inOrder();
+        assertThat(mScreen.getPreferenceCount()).isEqualTo(3);
+        for (int i = 0; i < mFragment.mPreferences.size(); i++) {
+            assertThat(mFragment.mPreferences.get(i).getOrder()).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void applyPostedNotification_update_shouldReplaceActiveRow() {
+        mFragment.showNotifications(new ArrayList<>(Arrays.asList(
+                newInfo("a", 300, true /* active */), newInfo("b", 200, true /* active */))));
+
+        mFragment.applyPostedNotification(newInfo("b", 400, true /* active */));
+
+        assertThat(getShownKeys()).containsExactly("b", "a").inOrder();
+        assertThat(mFragment.mPreferences.get(0).mInfo.timestamp).isEqualTo(400);
+        assertThat(mScreen.getPreferenceCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void applyPostedNotification_beforeFirstLoad_shouldBeLeftToTheLoad() {
+        mFragment.applyPostedNotification(newInfo("a", 300, true /* active */));
+
+        assertThat(mFragment.mPreferences).isNull();
+        assertThat(mScreen.getPreferenceCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void applyRemovedNotification_shouldKeepRowAsHistorical() {
+        final NotificationStation.HistoricalNotificationInfo info =
+                newInfo("a", 300, true /* active */);
+        info.extra = "details";
+        mFragment.showNotifications(new ArrayList<>(Arrays.asList(info)));
+
+        mFragment.applyRemovedNotification("a");
+
+        assertThat(getShownKeys()).containsExactly("a");
+        assertThat(info.active).isFalse();
+        // The details of active notifications include their ranking, they are built again.
+        assertThat(info.extra).isNull();
+    }
+
+    @Test
+    public void loadPackageInfo_shouldLoadEachPackageOnce() throws Exception {
+        final Drawable icon = mock(Drawable.class);
+        final ApplicationInfo applicationInfo = new ApplicationInfo();
+        when(mPackageManager.getApplicationIcon(PACKAGE_1)).thenReturn(icon);
+        when(mPackageManager.getApplicationInfo(PACKAGE_1, PackageManager.MATCH_ANY_USER))
+                .thenReturn(applicationInfo);
+        when(mPackageManager.getApplicationLabel(applicationInfo)).thenReturn("Label");
+
+        final NotificationStation.CachedPackageInfo first =
+                mFragment.loadPackageInfo(PACKAGE_1, UserHandle.USER_SYSTEM);
+        final NotificationStation.CachedPackageInfo second =
+                mFragment.loadPackageInfo(PACKAGE_1, UserHandle.USER_SYSTEM);
+        mFragment.loadPackageInfo(PACKAGE_2, UserHandle.USER_SYSTEM);
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.icon).isSameAs(icon);
+        assertThat(first.label.toString()).isEqualTo("Label");
+        verify(mPackageManager, times(1)).getApplicationIcon(PACKAGE_1);
+        verify(mPackageManager, times(1)).getApplicationIcon(PACKAGE_2);
+    }
+
+    private List<String> getShownKeys() {
+        final List<String> keys = new ArrayList<>();
+        for (NotificationStation.HistoricalNotificationPreference preference
+                : mFragment.mPreferences) {
+            keys.add(preference.mInfo.key);
+        }
+        return keys;
+    }
+
+    private static NotificationStation.HistoricalNotificationInfo newInfo(String key,
+            long timestamp, boolean active) {
+        final NotificationStation.HistoricalNotificationInfo info =
+                new NotificationStation.HistoricalNotificationInfo();
+        info.key = key;
+        info.pkg = PACKAGE_1;
+        info.title = key;
+        info.timestamp = timestamp;
+        info.active = active;
+        return info;
+    }
+}
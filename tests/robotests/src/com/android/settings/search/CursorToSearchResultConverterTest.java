@@ -71,6 +71,7 @@ public class CursorToSearchResultConverterTest {
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
+        SearchIconCache.clearInstance();
         Context context = Robolectric.buildActivity(Activity.class).get();
         mDrawable = context.getDrawable(ICON);
         mConverter = new CursorToSearchResultConverter(context);
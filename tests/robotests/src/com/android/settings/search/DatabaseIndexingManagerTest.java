@@ -20,12 +20,16 @@ package com.android.settings.search;
 import static android.provider.SearchIndexablesContract.INDEXABLES_RAW_COLUMNS;
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -47,11 +51,13 @@ import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.provider.SearchIndexableData;
 import android.provider.SearchIndexableResource;
 import android.util.ArrayMap;
 
 import com.android.settings.R;
 import com.android.settings.TestConfig;
+import com.android.settings.search.DatabaseIndexingManager.UpdateData;
 import com.android.settings.testutils.DatabaseTestUtils;
 import com.android.settings.testutils.FakeFeatureFactory;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
@@ -77,6 +83,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(SettingsRobolectricTestRunner.class)
 @Config(
@@ -268,7 +276,7 @@ public class DatabaseIndexingManagerTest {
     }
 
     // Tests for the flow: IndexOneResource -> IndexFromResource ->
-    //                     UpdateOneRowWithFilteredData -> UpdateOneRow
+    //                     BuildRowWithFilteredData -> InsertRows -> UpdateOneRow
 
     @Test
     public void testNullResource_NothingInserted() {
@@ -725,13 +733,77 @@ public class DatabaseIndexingManagerTest {
     @Test
     public void testResource_withTitleAndSettingName_titleNotInserted() {
         SearchIndexableResource resource = getFakeResource(R.xml.swipe_to_notification_settings);
-        mManager.indexFromResource(mDb, localeStr, resource, new ArrayList<String>());
+        final List<DatabaseIndexingManager.DatabaseRow> rows = new ArrayList<>();
+        mManager.indexFromResource(localeStr, resource, new ArrayList<String>(), rows);
+        mManager.insertRows(mDb, rows);
 
         Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index WHERE" +
                 " enabled = 1", null);
         assertThat(cursor.getCount()).isEqualTo(1);
     }
 
+    @Test
+    public void testBuildRows_resource_nothingInserted() {
+        SearchIndexableResource resource = getFakeResource(R.xml.display_settings);
+
+        final List<DatabaseIndexingManager.DatabaseRow> rows =
+                mManager.buildRows(localeStr, resource, new HashMap<>());
+
+        assertThat(rows).hasSize(17);
+        Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index", null);
+        assertThat(cursor.getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAddDataToDatabase_multipleResources_allRowsInserted() {
+        final List<SearchIndexableData> data = new ArrayList<>();
+        data.add(getFakeResource(R.xml.display_settings));
+        data.add(getFakeResource(R.xml.swipe_to_notification_settings));
+        data.add(getFakeRaw());
+
+        mManager.addDataToDatabase(mDb, localeStr, data, new HashMap<>());
+
+        Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index", null);
+        assertThat(cursor.getCount()).isEqualTo(19);
+    }
+
+    @Test
+    public void testAddDataToDatabase_fewItems_rowsBuiltOnCallingThread() {
+        final List<SearchIndexableData> data = new ArrayList<>();
+        data.add(getFakeRaw());
+        final Set<Thread> threads = new HashSet<>();
+        doAnswer(invocation -> {
+            threads.add(Thread.currentThread());
+            return invocation.callRealMethod();
+        }).when(mManager).buildRows(anyString(), any(SearchIndexableData.class), anyMap());
+
+        mManager.addDataToDatabase(mDb, localeStr, data, new HashMap<>());
+
+        assertThat(threads).containsExactly(Thread.currentThread());
+        Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index", null);
+        assertThat(cursor.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAddDataToDatabase_manyItems_allRowsInsertedInOrder() {
+        final List<SearchIndexableData> data = new ArrayList<>();
+        for (int i = 0; i < DatabaseIndexingManager.MIN_PARALLEL_INDEXING_ITEMS; i++) {
+            final SearchIndexableRaw raw = getFakeRaw();
+            raw.key = "key" + i;
+            data.add(raw);
+        }
+
+        mManager.addDataToDatabase(mDb, localeStr, data, new HashMap<>());
+
+        Cursor cursor = mDb.rawQuery("SELECT data_key_reference FROM prefs_index ORDER BY rowid",
+                null);
+        assertThat(cursor.getCount())
+                .isEqualTo(DatabaseIndexingManager.MIN_PARALLEL_INDEXING_ITEMS);
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertThat(cursor.getString(0)).isEqualTo("key" + i);
+        }
+    }
+
     @Test
     public void testResourceProvider_nonSubsettingIntent() {
         SearchIndexableResource resource = getFakeResource(0 /* xml */);
@@ -768,7 +840,8 @@ public class DatabaseIndexingManagerTest {
 
         manager.performIndexing();
 
-        verify(manager).addIndexablesFromRemoteProvider(PACKAGE_ONE, AUTHORITY_ONE);
+        verify(manager).addIndexablesFromRemoteProvider(eq(PACKAGE_ONE), eq(AUTHORITY_ONE),
+                any(UpdateData.class));
         verify(manager).updateDatabase(true /* isFullIndex */, Locale.getDefault().toString());
     }
 
@@ -792,10 +865,149 @@ public class DatabaseIndexingManagerTest {
 
         verify(manager, times(0)).addDataToDatabase(any(SQLiteDatabase.class), anyString(),
                 anyList(), anyMap());
-        verify(manager, times(0)).addIndexablesFromRemoteProvider(PACKAGE_ONE, AUTHORITY_ONE);
+        verify(manager, times(0)).addIndexablesFromRemoteProvider(eq(PACKAGE_ONE),
+                eq(AUTHORITY_ONE), any(UpdateData.class));
         verify(manager).updateDataInDatabase(any(SQLiteDatabase.class), anyMap());
     }
 
+    @Test
+    public void testCollectFromProviders_oneProviderFails_othersStillCollected() {
+        final String packageTwo = "com.android.other";
+        final String authorityTwo = "other_authority";
+        final List<ResolveInfo> providers = getDummyResolveInfo();
+        final ResolveInfo info = new ResolveInfo();
+        info.providerInfo = new ProviderInfo();
+        info.providerInfo.authority = authorityTwo;
+        info.providerInfo.packageName = packageTwo;
+        providers.add(info);
+
+        DatabaseIndexingManager manager =
+                spy(new DatabaseIndexingManager(mContext, PACKAGE_ONE));
+        doThrow(new RuntimeException()).when(manager).addNonIndexablesKeysFromRemoteProvider(
+                eq(PACKAGE_ONE), eq(AUTHORITY_ONE), any(UpdateData.class));
+        doNothing().when(manager).addNonIndexablesKeysFromRemoteProvider(eq(packageTwo),
+                eq(authorityTwo), any(UpdateData.class));
+
+        manager.collectFromProviders(providers, false /* isFullIndex */);
+
+        verify(manager).addNonIndexablesKeysFromRemoteProvider(eq(PACKAGE_ONE),
+                eq(AUTHORITY_ONE), any(UpdateData.class));
+        verify(manager).addNonIndexablesKeysFromRemoteProvider(eq(packageTwo),
+                eq(authorityTwo), any(UpdateData.class));
+        verify(manager, times(0)).addIndexablesFromRemoteProvider(anyString(), anyString(),
+                any(UpdateData.class));
+    }
+
+    @Test
+    public void testCollectFromProviders_providerTimesOut_lateDataDiscarded() throws Exception {
+        final String packageTwo = "com.android.other";
+        final String authorityTwo = "other_authority";
+        final List<ResolveInfo> providers = getDummyResolveInfo();
+        final ResolveInfo info = new ResolveInfo();
+        info.providerInfo = new ProviderInfo();
+        info.providerInfo.authority = authorityTwo;
+        info.providerInfo.packageName = packageTwo;
+        providers.add(info);
+
+        DatabaseIndexingManager manager =
+                spy(new DatabaseIndexingManager(mContext, PACKAGE_ONE));
+        manager.mProviderTimeoutMs = 100;
+        final CountDownLatch lateAnswerDone = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            try {
+                // Blocks until the provider is cancelled.
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                ((UpdateData) invocation.getArguments()[2]).nonIndexableKeys.put(PACKAGE_ONE,
+                        new HashSet<>(Arrays.asList(KEY_ONE)));
+            }
+            lateAnswerDone.countDown();
+            return null;
+        }).when(manager).addNonIndexablesKeysFromRemoteProvider(eq(PACKAGE_ONE),
+                eq(AUTHORITY_ONE), any(UpdateData.class));
+        doAnswer(invocation -> {
+            ((UpdateData) invocation.getArguments()[2]).nonIndexableKeys.put(packageTwo,
+                    new HashSet<>(Arrays.asList(KEY_TWO)));
+            return null;
+        }).when(manager).addNonIndexablesKeysFromRemoteProvider(eq(packageTwo),
+                eq(authorityTwo), any(UpdateData.class));
+
+        assertThat(manager.collectFromProviders(providers, false /* isFullIndex */))
+                .containsExactly(PACKAGE_ONE);
+        assertThat(lateAnswerDone.await(1, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(manager.mDataToProcess.nonIndexableKeys.keySet())
+                .containsExactly(packageTwo);
+    }
+
+    @Test
+    public void testPerformIndexing_providerTimedOut_notMarkedIndexed() {
+        when(mPackageManager.queryIntentContentProviders(any(Intent.class), anyInt()))
+                .thenReturn(getDummyResolveInfo());
+        DatabaseIndexingManager manager =
+                spy(new DatabaseIndexingManager(mContext, PACKAGE_ONE));
+        doReturn(Arrays.asList(PACKAGE_ONE)).when(manager)
+                .collectFromProviders(anyList(), anyBoolean());
+
+        manager.performIndexing();
+
+        assertThat(IndexDatabaseHelper.isBuildIndexed(mContext, Build.FINGERPRINT)).isFalse();
+        assertThat(IndexDatabaseHelper.isLocaleAlreadyIndexed(mContext,
+                Locale.getDefault().toString())).isFalse();
+    }
+
+    @Test
+    public void testPerformIndexing_providerTimedOut_onlyRetriesMissingProvider() {
+        final String packageTwo = "com.android.other";
+        final List<ResolveInfo> providers = getDummyResolveInfo();
+        final ResolveInfo info = new ResolveInfo();
+        info.providerInfo = new ProviderInfo();
+        info.providerInfo.authority = "other_authority";
+        info.providerInfo.packageName = packageTwo;
+        info.providerInfo.applicationInfo = new ApplicationInfo();
+        providers.add(info);
+        when(mPackageManager.queryIntentContentProviders(any(Intent.class), anyInt()))
+                .thenReturn(providers);
+        DatabaseIndexingManager manager =
+                spy(new DatabaseIndexingManager(mContext, PACKAGE_ONE));
+        doReturn(Arrays.asList(packageTwo)).doReturn(new ArrayList<String>()).when(manager)
+                .collectFromProviders(anyList(), anyBoolean());
+        final String title = "Kept from the first pass";
+        manager.performIndexing();
+        insertSpecialCase(title, true, "key");
+
+        manager.performIndexing();
+
+        verify(manager).collectFromProviders(providers, true /* isFullIndex */);
+        verify(manager).collectFromProviders(Arrays.asList(info), true /* isFullIndex */);
+        assertThat(IndexDatabaseHelper.isLocaleAlreadyIndexed(mContext,
+                Locale.getDefault().toString())).isTrue();
+        // The rows of the providers which answered the first time are kept.
+        final Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index WHERE data_title = '"
+                + title + "'", null);
+        assertThat(cursor.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPerformIndexing_providerKeepsTimingOut_markedIndexedAfterMaxRetries() {
+        when(mPackageManager.queryIntentContentProviders(any(Intent.class), anyInt()))
+                .thenReturn(getDummyResolveInfo());
+        DatabaseIndexingManager manager =
+                spy(new DatabaseIndexingManager(mContext, PACKAGE_ONE));
+        doReturn(Arrays.asList(PACKAGE_ONE)).when(manager)
+                .collectFromProviders(anyList(), anyBoolean());
+        final String localeStr = Locale.getDefault().toString();
+
+        for (int i = 0; i < DatabaseIndexingManager.MAX_PROVIDER_RETRIES; i++) {
+            manager.performIndexing();
+            assertThat(IndexDatabaseHelper.isLocaleAlreadyIndexed(mContext, localeStr)).isFalse();
+        }
+        manager.performIndexing();
+
+        assertThat(IndexDatabaseHelper.isLocaleAlreadyIndexed(mContext, localeStr)).isTrue();
+        assertThat(IndexDatabaseHelper.isBuildIndexed(mContext, Build.FINGERPRINT)).isTrue();
+    }
+
     @Test
     public void testPerformIndexing_localeChanged_databaseDropped() {
         DummyProvider provider = new DummyProvider();
@@ -916,6 +1128,89 @@ public class DatabaseIndexingManagerTest {
                 .isLocaleAlreadyIndexed(mContext, localeStr)).isFalse();
     }
 
+    @Test
+    public void testRetainLocale_overLimit_evictsLeastRecentlyUsed() {
+        final String[] locales = {"fr_FR", "de_DE", "it_IT", "es_ES"};
+        for (String locale : locales) {
+            IndexDatabaseHelper.setLocaleIndexed(mContext, locale);
+        }
+        IndexDatabaseHelper.retainLocale(mContext, "fr_FR");
+        IndexDatabaseHelper.retainLocale(mContext, "de_DE");
+        IndexDatabaseHelper.retainLocale(mContext, "it_IT");
+        // Using fr_FR again makes de_DE the least recently used.
+        IndexDatabaseHelper.retainLocale(mContext, "fr_FR");
+
+        final List<String> evicted = IndexDatabaseHelper.retainLocale(mContext, "es_ES");
+
+        assertThat(evicted).containsExactly("de_DE");
+        assertThat(IndexDatabaseHelper.getRetainedLocales(mContext))
+                .containsExactly("es_ES", "fr_FR", "it_IT").inOrder();
+        assertThat(IndexDatabaseHelper.isLocaleAlreadyIndexed(mContext, "de_DE")).isFalse();
+        assertThat(IndexDatabaseHelper.isLocaleAlreadyIndexed(mContext, "fr_FR")).isTrue();
+    }
+
+    @Test
+    public void testPerformIndexing_switchBackToRetainedLocale_skipsFullIndex() {
+        DummyProvider provider = new DummyProvider();
+        provider.onCreate();
+        ShadowContentResolver.registerProvider(AUTHORITY_ONE, provider);
+        when(mPackageManager.queryIntentContentProviders(any(Intent.class), anyInt()))
+                .thenReturn(getDummyResolveInfo());
+        final Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.US);
+            mManager.performIndexing();
+            Locale.setDefault(Locale.FRANCE);
+            mManager.performIndexing();
+
+            Locale.setDefault(Locale.US);
+            mManager.performIndexing();
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+
+        verify(mManager, times(1)).updateDatabase(true /* isFullIndex */, "en_US");
+        verify(mManager, times(1)).updateDatabase(false /* isFullIndex */, "en_US");
+        assertThat(IndexDatabaseHelper.getRetainedLocales(mContext))
+                .containsExactly("en_US", "fr_FR").inOrder();
+    }
+
+    @Test
+    public void testPerformIndexing_providerTimedOut_localeNotRetained() {
+        doReturn(Arrays.asList(PACKAGE_ONE)).when(mManager)
+                .collectFromProviders(anyList(), anyBoolean());
+        when(mPackageManager.queryIntentContentProviders(any(Intent.class), anyInt()))
+                .thenReturn(getDummyResolveInfo());
+
+        mManager.performIndexing();
+
+        assertThat(IndexDatabaseHelper.getRetainedLocales(mContext)).isEmpty();
+    }
+
+    @Test
+    public void testRetainLocale_alreadyMostRecent_nothingEvicted() {
+        IndexDatabaseHelper.retainLocale(mContext, "fr_FR");
+
+        assertThat(IndexDatabaseHelper.retainLocale(mContext, "fr_FR")).isEmpty();
+        assertThat(IndexDatabaseHelper.getRetainedLocales(mContext)).containsExactly("fr_FR");
+    }
+
+    @Test
+    public void testDeleteLocale_otherLocalesKept() {
+        SearchIndexableResource resource = getFakeResource(R.xml.display_settings);
+        mManager.indexOneSearchIndexableData(mDb, localeStr, resource, new HashMap<>());
+        mManager.indexOneSearchIndexableData(mDb, "fr_FR", resource, new HashMap<>());
+
+        IndexDatabaseHelper.deleteLocale(mDb, "fr_FR");
+
+        Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index WHERE locale = ?",
+                new String[] {localeStr});
+        assertThat(cursor.getCount()).isEqualTo(17);
+        cursor = mDb.rawQuery("SELECT * FROM prefs_index WHERE locale = 'fr_FR'", null);
+        assertThat(cursor.getCount()).isEqualTo(0);
+        assertThat(IndexDatabaseHelper.getLocaleSizes(mDb).keySet()).containsExactly(localeStr);
+    }
+
     @Test
     public void testLocaleUpdated_afterFullIndexing_localeAdded() {
         mManager.performIndexing();
@@ -1017,6 +1312,53 @@ public class DatabaseIndexingManagerTest {
         assertThat(cursor.getString(2)).isEqualTo(TITLE_TWO);
     }
 
+    @Test
+    public void testUpdateDataInDatabase_unknownPackage_leftUntouched() {
+        insertSpecialCase(TITLE_ONE, false /* enabled */, KEY_ONE);
+        Map<String, Set<String>> niks = new ArrayMap<>();
+        niks.put("some.other.package", new HashSet<>(Arrays.asList(KEY_TWO)));
+
+        mManager.updateDataInDatabase(mDb, niks);
+
+        Cursor cursor = mDb.rawQuery("SELECT * FROM prefs_index WHERE enabled = 0", null);
+        assertThat(cursor.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testUpdateDataInDatabase_10kRows_matchesPerRowReconciliation() {
+        final int rowCount = 10000;
+        final Set<String> keys = new HashSet<>();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < rowCount; i++) {
+                // Alternate initial state, and flag every third key as non-indexable.
+                insertSpecialCase(TITLE_ONE + i, i % 2 == 0 /* enabled */, KEY_ONE + i);
+                if (i % 3 == 0) {
+                    keys.add(KEY_ONE + i);
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        Map<String, Set<String>> niks = new ArrayMap<>();
+        niks.put(targetPackage, keys);
+
+        mDb.beginTransaction();
+        updateDataInDatabasePerRow(mDb, niks);
+        final Set<String> expectedDisabled = getDisabledKeys();
+        // Roll back so the set-based pass starts from the same rows.
+        mDb.endTransaction();
+
+        mDb.beginTransaction();
+        mManager.updateDataInDatabase(mDb, niks);
+        final Set<String> actualDisabled = getDisabledKeys();
+        mDb.endTransaction();
+
+        assertThat(actualDisabled).isEqualTo(keys);
+        assertThat(actualDisabled).isEqualTo(expectedDisabled);
+    }
+
     @Test
     public void testEmptyNonIndexableKeys_emptyDataKeyResources_addedToDatabase() {
         insertSpecialCase(TITLE_ONE, true /* enabled */, null /* dataReferenceKey */);
@@ -1151,6 +1493,48 @@ public class DatabaseIndexingManagerTest {
         return cursor;
     }
 
+    private Set<String> getDisabledKeys() {
+        final Set<String> disabledKeys = new HashSet<>();
+        try (Cursor cursor = mDb.rawQuery(
+                "SELECT data_key_reference FROM prefs_index WHERE enabled = 0", null)) {
+            while (cursor.moveToNext()) {
+                disabledKeys.add(cursor.getString(0));
+            }
+        }
+        return disabledKeys;
+    }
+
+    /**
+     * The previous implementation of {@link DatabaseIndexingManager#updateDataInDatabase},
+     * which issues one UPDATE per changed row. Kept as a reference for timing comparisons.
+     */
+    private void updateDataInDatabasePerRow(SQLiteDatabase database,
+            Map<String, Set<String>> nonIndexableKeys) {
+        final String[] columns = {"docid", "enabled", "intent_target_package",
+                "data_key_reference"};
+        final ContentValues values = new ContentValues();
+        try (Cursor cursor = database.query(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX,
+                columns, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                final boolean rowEnabled = cursor.getInt(1) == 1;
+                String packageName = cursor.getString(2);
+                if (packageName == null) {
+                    packageName = mContext.getPackageName();
+                }
+                final Set<String> packageKeys = nonIndexableKeys.get(packageName);
+                if (packageKeys == null) {
+                    continue;
+                }
+                final boolean nonIndexable = packageKeys.contains(cursor.getString(3));
+                if (rowEnabled == nonIndexable) {
+                    values.put("enabled", !nonIndexable);
+                    database.update(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, values,
+                            "docid = " + cursor.getInt(0), null);
+                }
+            }
+        }
+    }
+
     private void insertSpecialCase(String specialCase, boolean enabled, String key) {
         ContentValues values = new ContentValues();
         values.put(IndexDatabaseHelper.IndexColumns.DOCID, specialCase.hashCode());
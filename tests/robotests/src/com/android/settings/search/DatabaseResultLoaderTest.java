@@ -40,6 +40,7 @@ import org.robolectric.annotation.Config;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -114,6 +115,17 @@ public class DatabaseResultLoaderTest {
         assertThat(loader.loadInBackground().size()).isEqualTo(1);
     }
 
+    @Test
+    public void testOtherLocale_notMatched() {
+        insertSpecialCase("Data usage");
+        final ContentValues values = new ContentValues();
+        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, "fr_FR");
+        mDb.update(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, values, null, null);
+
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "usage", mSiteMapManager);
+        assertThat(loader.loadInBackground()).isEmpty();
+    }
+
     @Test
     public void testSpecialCaseDash_matchesWordNoDash() {
         insertSpecialCase("wi-fi calling");
@@ -226,6 +238,69 @@ public class DatabaseResultLoaderTest {
         assertThat(actualTitles).isEqualTo(expectedTitles);
     }
 
+    @Test
+    public void testFtsQuery_matchesSameResultsAsLikeQuery() {
+        for (String query : new String[] {"title", "summary", "keywords", "entries"}) {
+            DatabaseResultLoader likeLoader = new DatabaseResultLoader(mContext, query,
+                    null);
+            DatabaseResultLoader ftsLoader = new DatabaseResultLoader(mContext, query,
+                    null, true /* useFtsQuery */);
+            assertThat(ftsLoader.loadInBackground()).isEqualTo(likeLoader.loadInBackground());
+        }
+    }
+
+    @Test
+    public void testFtsQuery_specialCaseMultiWordPrefix_matchesPhrasePrefix() {
+        insertSpecialCase("wi-fi calling");
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "wifi call",
+                mSiteMapManager, true /* useFtsQuery */);
+        assertThat(loader.loadInBackground().size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFtsQuery_DoesNotMatchNonPrefixSubstring() {
+        insertSpecialCase("Photos");
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "hot", mSiteMapManager,
+                true /* useFtsQuery */);
+        assertThat(loader.loadInBackground().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFtsQuery_resultMatchedByMultipleColumns_hasBestRank() {
+        String key = "durr";
+        insertSameValueAllFieldsCase(key);
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, key, null,
+                true /* useFtsQuery */);
+
+        Set<? extends SearchResult> results = loader.loadInBackground();
+        assertThat(results.size()).isEqualTo(1);
+        assertThat(results.iterator().next().rank)
+                .isEqualTo(DatabaseResultLoader.BASE_RANKS[0]);
+    }
+
+    @Test
+    public void testFtsQuery_queryWithOnlySyntax_returnsEmpty() {
+        DatabaseResultLoader loader = new DatabaseResultLoader(mContext, "\"*", mSiteMapManager,
+                true /* useFtsQuery */);
+        assertThat(loader.loadInBackground()).isEmpty();
+    }
+
+    @Test
+    public void testGetBaseRankFromOffsets() {
+        // First word of the title
+        assertThat(DatabaseResultLoader.getBaseRankFromOffsets("2 0 0 5"))
+                .isEqualTo(DatabaseResultLoader.BASE_RANKS[0]);
+        // Second word of the normalized title, and summary
+        assertThat(DatabaseResultLoader.getBaseRankFromOffsets("3 0 6 5 4 0 0 5"))
+                .isEqualTo(DatabaseResultLoader.BASE_RANKS[1]);
+        // Summary only
+        assertThat(DatabaseResultLoader.getBaseRankFromOffsets("5 0 0 5"))
+                .isEqualTo(DatabaseResultLoader.BASE_RANKS[2]);
+        // Keywords only
+        assertThat(DatabaseResultLoader.getBaseRankFromOffsets("9 0 3 5"))
+                .isEqualTo(DatabaseResultLoader.BASE_RANKS[3]);
+    }
+
     private void insertSpecialCase(String specialCase) {
         String normalized = DatabaseIndexingUtils.normalizeHyphen(specialCase);
         normalized = DatabaseIndexingUtils.normalizeString(normalized);
@@ -233,7 +308,7 @@ public class DatabaseResultLoaderTest {
 
         ContentValues values = new ContentValues();
         values.put(IndexDatabaseHelper.IndexColumns.DOCID, normalized.hashCode());
-        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, "en-us");
+        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, Locale.getDefault().toString());
         values.put(IndexDatabaseHelper.IndexColumns.DATA_RANK, 1);
         values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE, specialCase);
         values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE_NORMALIZED, normalized);
@@ -264,7 +339,7 @@ public class DatabaseResultLoaderTest {
 
         ContentValues values = new ContentValues();
         values.put(IndexDatabaseHelper.IndexColumns.DOCID, 1);
-        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, "en-us");
+        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, Locale.getDefault().toString());
         values.put(IndexDatabaseHelper.IndexColumns.DATA_RANK, 1);
         values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE, "alpha_title");
         values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE_NORMALIZED, "alpha title");
@@ -291,7 +366,7 @@ public class DatabaseResultLoaderTest {
 
         values = new ContentValues();
         values.put(IndexDatabaseHelper.IndexColumns.DOCID, 2);
-        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, "en-us");
+        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, Locale.getDefault().toString());
         values.put(IndexDatabaseHelper.IndexColumns.DATA_RANK, 1);
         values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE, "bravo_title");
         values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE_NORMALIZED, "bravo title");
@@ -317,7 +392,7 @@ public class DatabaseResultLoaderTest {
 
         values = new ContentValues();
         values.put(IndexDatabaseHelper.IndexColumns.DOCID, 3);
-        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, "en-us");
+        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, Locale.getDefault().toString());
         values.put(IndexDatabaseHelper.IndexColumns.DATA_RANK, 1);
         values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE, "charlie_title");
         values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE_NORMALIZED, "charlie title");
@@ -348,7 +423,7 @@ public class DatabaseResultLoaderTest {
 
         ContentValues values = new ContentValues();
         values.put(IndexDatabaseHelper.IndexColumns.DOCID, key.hashCode());
-        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, "en-us");
+        values.put(IndexDatabaseHelper.IndexColumns.LOCALE, Locale.getDefault().toString());
         values.put(IndexDatabaseHelper.IndexColumns.DATA_RANK, 1);
         values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE, key);
         values.put(IndexDatabaseHelper.IndexColumns.DATA_TITLE_NORMALIZED, key);
@@ -64,6 +64,7 @@ import org.robolectric.annotation.Config;
 import org.robolectric.util.ActivityController;
 import org.robolectric.util.ReflectionHelpers;
 
+import java.util.HashSet;
 import java.util.Set;
 
 @RunWith(SettingsRobolectricTestRunner.class)
@@ -448,6 +449,19 @@ public class SearchFragmentTest {
         // no crash
     }
 
+    @Test
+    public void onLoadFinished_queryChangedSinceLoaderStarted_shouldCacheUnderLoaderQuery() {
+        final SearchFragment fragment = new SearchFragment();
+        ReflectionHelpers.setField(fragment, "mSearchAdapter", mSearchResultsAdapter);
+        fragment.mQuery = "bright";
+        final MockDBLoader loader = new MockDBLoader(RuntimeEnvironment.application);
+
+        fragment.onLoadFinished(loader, new HashSet<>());
+
+        assertThat(fragment.mResultCache.get(loader.getId(), loader.getQuery())).isNotNull();
+        assertThat(fragment.mResultCache.get(loader.getId(), "bright")).isNull();
+    }
+
     @Test
     public void onSearchResultClicked_shouldLogResultMeta() {
         SearchFragment fragment = new SearchFragment();
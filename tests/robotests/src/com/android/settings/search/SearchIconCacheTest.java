@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.view.ContextThemeWrapper;
+
+import com.android.settings.R;
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class SearchIconCacheTest {
+
+    private static final int ICON = R.drawable.ic_search_24dp;
+
+    private Context mContext;
+    private SearchIconCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mCache = new SearchIconCache(mContext);
+    }
+
+    @Test
+    public void getIcon_noIcon_shouldReturnNull() {
+        assertThat(mCache.getIcon(mContext, null, 0)).isNull();
+        assertThat(mCache.getMissCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void getIcon_secondLoad_shouldHitWithNewInstance() {
+        final Drawable first = mCache.getIcon(mContext, null, ICON);
+        final Drawable second = mCache.getIcon(mContext, null, ICON);
+
+        assertThat(first).isNotNull();
+        assertThat(second).isNotNull();
+        assertThat(second).isNotSameAs(first);
+        assertThat(mCache.getMissCount()).isEqualTo(1);
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+        assertThat(mCache.getBytesHeld()).isGreaterThan(0);
+    }
+
+    @Test
+    public void getIcon_otherTheme_shouldNotShareEntry() {
+        final Context themedContext = new ContextThemeWrapper(mContext, R.style.Theme_Settings);
+        mCache.getIcon(mContext, null, ICON);
+        mCache.getIcon(themedContext, null, ICON);
+
+        assertThat(mCache.getMissCount()).isEqualTo(2);
+        assertThat(mCache.getHitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void getIcon_unknownPackage_shouldReturnNull() {
+        assertThat(mCache.getIcon(mContext, "com.android.unknown", ICON)).isNull();
+    }
+
+    @Test
+    public void packageChanged_shouldEvictPackageIcons() {
+        mCache.getIcon(mContext, mContext.getPackageName(), ICON);
+        assertThat(mCache.getBytesHeld()).isGreaterThan(0);
+
+        final Intent intent = new Intent(Intent.ACTION_PACKAGE_CHANGED,
+                Uri.fromParts("package", mContext.getPackageName(), null));
+        mCache.mPackageReceiver.onReceive(mContext, intent);
+
+        assertThat(mCache.getBytesHeld()).isEqualTo(0);
+    }
+
+    @Test
+    public void packageChanged_otherPackage_shouldKeepIcons() {
+        mCache.getIcon(mContext, mContext.getPackageName(), ICON);
+        final int bytesHeld = mCache.getBytesHeld();
+
+        mCache.invalidatePackage("com.android.other");
+
+        assertThat(mCache.getBytesHeld()).isEqualTo(bytesHeld);
+    }
+}
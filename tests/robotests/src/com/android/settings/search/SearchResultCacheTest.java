@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class SearchResultCacheTest {
+
+    private static final int LOADER_ID = 1;
+    private static final String LOADER_CLASS_NAME = "loader";
+
+    private SearchResultCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new SearchResultCache();
+    }
+
+    @Test
+    public void get_emptyCache_shouldMiss() {
+        assertThat(mCache.get(LOADER_ID, "abc")).isNull();
+        assertThat(mCache.getMissCount()).isEqualTo(1);
+        assertThat(mCache.getHitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void get_exactQuery_shouldHit() {
+        final Set<SearchResult> results = buildResults("Alpha");
+        mCache.put(LOADER_ID, "al", LOADER_CLASS_NAME, results);
+
+        final SearchResultCache.CachedResults cached = mCache.get(LOADER_ID, "al ");
+
+        assertThat(cached.results).isSameAs(results);
+        assertThat(cached.loaderClassName).isEqualTo(LOADER_CLASS_NAME);
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_extendedQuery_noNarrower_shouldMiss() {
+        mCache.put(LOADER_ID, "al", LOADER_CLASS_NAME, buildResults("Alpha"));
+
+        assertThat(mCache.get(LOADER_ID, "alp")).isNull();
+    }
+
+    @Test
+    public void get_extendedQuery_emptyPrefixResults_shouldHitWithNoResults() {
+        mCache.put(LOADER_ID, "xy", LOADER_CLASS_NAME, new HashSet<>());
+
+        assertThat(mCache.get(LOADER_ID, "xyz").results).isEmpty();
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_extendedQuery_shouldNarrowByTitle() {
+        mCache.setNarrower(LOADER_ID, (superset, query) ->
+                SearchResultCache.narrowByTitle(superset, query, wordDiff -> wordDiff));
+        mCache.put(LOADER_ID, "a", LOADER_CLASS_NAME, buildResults("Alpha", "Amber"));
+
+        final Set<? extends SearchResult> narrowed = mCache.get(LOADER_ID, "alp").results;
+
+        assertThat(narrowed).hasSize(1);
+        final SearchResult result = narrowed.iterator().next();
+        assertThat(result.title).isEqualTo("Alpha");
+        assertThat(result.rank).isEqualTo(2);
+    }
+
+    @Test
+    public void clear_shouldDropResults() {
+        mCache.put(LOADER_ID, "al", LOADER_CLASS_NAME, buildResults("Alpha"));
+
+        mCache.clear();
+
+        assertThat(mCache.get(LOADER_ID, "al")).isNull();
+    }
+
+    @Test
+    public void copyWithRank_appResult_keepsAppInfo() {
+        final AppSearchResult.Builder builder = new AppSearchResult.Builder();
+        builder.setAppInfo(new ApplicationInfo())
+                .setTitle("App")
+                .setPayload(new ResultPayload(new Intent()))
+                .setStableId(1);
+        final AppSearchResult result = (AppSearchResult) builder.build();
+
+        final SearchResult copy = SearchResultCache.copyWithRank(result, 3);
+
+        assertThat(copy).isInstanceOf(AppSearchResult.class);
+        assertThat(((AppSearchResult) copy).info).isSameAs(result.info);
+        assertThat(copy.rank).isEqualTo(3);
+    }
+
+    private Set<SearchResult> buildResults(String... titles) {
+        final Set<SearchResult> results = new HashSet<>();
+        for (String title : titles) {
+            results.add(new SearchResult.Builder()
+                    .setTitle(title)
+                    .setPayload(new ResultPayload(new Intent()))
+                    .setStableId(title.hashCode())
+                    .build());
+        }
+        return results;
+    }
+}
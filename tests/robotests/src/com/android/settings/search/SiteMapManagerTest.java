@@ -46,6 +46,7 @@ import org.robolectric.annotation.Config;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.when;
@@ -98,6 +99,7 @@ public class SiteMapManagerTest {
         final String iaTitle = "ia_title";
 
         ContentValues index = new ContentValues();
+        index.put(IndexDatabaseHelper.IndexColumns.LOCALE, Locale.getDefault().toString());
         index.put(IndexDatabaseHelper.IndexColumns.CLASS_NAME, iaClass);
         index.put(IndexDatabaseHelper.IndexColumns.SCREEN_TITLE, iaTitle);
         mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX, null, index);
@@ -131,10 +133,40 @@ public class SiteMapManagerTest {
         assertThat(breadcrumb.get(0)).isEqualTo(title);
     }
 
+    @Test
+    public void buildBreadCrumb_calledTwice_shouldReturnMemoizedBreadcrumb() {
+        final List<String> first = mSiteMapManager.buildBreadCrumb(mContext,
+                CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+        final List<String> second = mSiteMapManager.buildBreadCrumb(mContext,
+                CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    public void buildBreadCrumb_cycleInSiteMap_shouldTerminate() {
+        // Make the root page a child of the deepest page.
+        final ContentValues siteMapPair = new ContentValues();
+        siteMapPair.put(SiteMapColumns.DOCID, STATIC_DB_DEPTH);
+        siteMapPair.put(SiteMapColumns.LOCALE, Locale.getDefault().toString());
+        siteMapPair.put(SiteMapColumns.PARENT_CLASS, CLASS_PREFIX + 0);
+        siteMapPair.put(SiteMapColumns.PARENT_TITLE, TITLE_PREFIX + 0);
+        siteMapPair.put(SiteMapColumns.CHILD_CLASS, CLASS_PREFIX + STATIC_DB_DEPTH);
+        siteMapPair.put(SiteMapColumns.CHILD_TITLE, TITLE_PREFIX + STATIC_DB_DEPTH);
+        mDb.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, null, siteMapPair);
+
+        final List<String> breadcrumb = mSiteMapManager.buildBreadCrumb(mContext,
+                CLASS_PREFIX + 0, TITLE_PREFIX + 0);
+
+        assertThat(breadcrumb.size()).isAtMost(STATIC_DB_DEPTH + 1);
+        assertThat(breadcrumb.get(breadcrumb.size() - 1)).isEqualTo(TITLE_PREFIX + 0);
+    }
+
     private void buildDb() {
         for (int i = 0; i < STATIC_DB_DEPTH; i++) {
             final ContentValues siteMapPair = new ContentValues();
             siteMapPair.put(SiteMapColumns.DOCID, i);
+            siteMapPair.put(SiteMapColumns.LOCALE, Locale.getDefault().toString());
             siteMapPair.put(SiteMapColumns.PARENT_CLASS, CLASS_PREFIX + (i + 1));
             siteMapPair.put(SiteMapColumns.PARENT_TITLE, TITLE_PREFIX + (i + 1));
             siteMapPair.put(SiteMapColumns.CHILD_CLASS, CLASS_PREFIX + i);
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.wifi.AccessPoint;
+import com.android.settingslib.wifi.AccessPointPreference;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class WifiSettingsTest {
+
+    @Test
+    public void getAccessPointKeys_shouldSkipConnectedAndUnreachable() {
+        final AccessPoint connected = makeAccessPoint("00:00:00:00:00:01", true, true);
+        final AccessPoint reachable = makeAccessPoint("00:00:00:00:00:02", false, true);
+        final AccessPoint unreachable = makeAccessPoint("00:00:00:00:00:03", false, false);
+
+        final List<String> keys = WifiSettings.getAccessPointKeys(
+                Arrays.asList(connected, reachable, unreachable));
+
+        assertThat(keys).containsExactly(null,
+                AccessPointPreference.generatePreferenceKey(reachable), null).inOrder();
+    }
+
+    @Test
+    public void getAccessPointKeys_sameAccessPoints_shouldBeEqual() {
+        final AccessPoint ap1 = makeAccessPoint("00:00:00:00:00:01", false, true);
+        final AccessPoint ap2 = makeAccessPoint("00:00:00:00:00:02", false, true);
+
+        assertThat(WifiSettings.getAccessPointKeys(Arrays.asList(ap1, ap2)))
+                .isEqualTo(WifiSettings.getAccessPointKeys(Arrays.asList(ap1, ap2)));
+        assertThat(WifiSettings.getAccessPointKeys(Arrays.asList(ap1, ap2)))
+                .isNotEqualTo(WifiSettings.getAccessPointKeys(Arrays.asList(ap2, ap1)));
+    }
+
+    private static AccessPoint makeAccessPoint(String bssid, boolean active, boolean reachable) {
+        final AccessPoint accessPoint = mock(AccessPoint.class);
+        when(accessPoint.getBssid()).thenReturn(bssid);
+        when(accessPoint.isActive()).thenReturn(active);
+        when(accessPoint.isReachable()).thenReturn(reachable);
+        return accessPoint;
+    }
+}
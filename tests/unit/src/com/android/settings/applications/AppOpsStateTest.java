@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class AppOpsStateTest extends AndroidTestCase {
+    private static final String TAG = AppOpsStateTest.class.getSimpleName();
+
+    // Permissions which are not shown by any template, requested by the synthetic apps.
+    private static final int UNRELATED_PERMISSION_COUNT = 30;
+    private static final int BENCHMARK_ITERATIONS = 5;
+
+    @Mock private Context mContext;
+    @Mock private AppOpsManager mAppOps;
+    @Mock private PackageManager mPm;
+    @Mock private SharedPreferences mPreferences;
+
+    private AppOpsState mState;
+
+    @Override
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.getSystemService(eq(Context.APP_OPS_SERVICE))).thenReturn(mAppOps);
+        when(mContext.getPackageManager()).thenReturn(mPm);
+        when(mContext.getResources()).thenReturn(getContext().getResources());
+        when(mContext.getSharedPreferences(anyString(), anyInt())).thenReturn(mPreferences);
+        when(mPreferences.getBoolean(anyString(), anyBoolean())).thenReturn(true);
+        mState = new AppOpsState(mContext);
+    }
+
+    @SmallTest
+    public void testBuildState_grantedPermissionWithoutOp_addsEntry() {
+        final PackageInfo app = createApp(0, new String[] {
+                "android.permission.UNRELATED",
+                AppOpsManager.opToPermission(AppOpsManager.OP_READ_CONTACTS) });
+        setApps(Collections.singletonList(app));
+
+        final List<AppOpsState.AppOpEntry> entries =
+                mState.buildState(AppOpsState.PERSONAL_TEMPLATE);
+
+        assertEquals(1, entries.size());
+        assertEquals(AppOpsManager.OP_READ_CONTACTS, entries.get(0).getOpEntry(0).getOp());
+        assertEquals(app.packageName, entries.get(0).getPackageOps().getPackageName());
+    }
+
+    @SmallTest
+    public void testBuildState_permissionNotShown_addsNoEntry() {
+        setApps(Collections.singletonList(createApp(0, new String[] {
+                "android.permission.UNRELATED" })));
+
+        assertTrue(mState.buildState(AppOpsState.PERSONAL_TEMPLATE).isEmpty());
+    }
+
+    /**
+     * Logs how long buildState() takes for each template over synthetic sets of up to 500 apps,
+     * which each request all the permissions shown by the template and many unrelated ones.
+     */
+    @LargeTest
+    public void testBuildState_benchmark() {
+        for (int appCount : new int[] { 100, 250, 500 }) {
+            for (AppOpsState.OpsTemplate tpl : AppOpsState.ALL_PERMS_TEMPLATES) {
+                final String[] perms = getRequestedPermissions(tpl);
+                final List<PackageInfo> apps = new ArrayList<>(appCount);
+                for (int i = 0; i < appCount; i++) {
+                    apps.add(createApp(i, perms));
+                }
+                setApps(apps);
+
+                List<AppOpsState.AppOpEntry> entries = mState.buildState(tpl);
+                final long start = SystemClock.elapsedRealtimeNanos();
+                for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                    entries = mState.buildState(tpl);
+                }
+                final long averageMicros = (SystemClock.elapsedRealtimeNanos() - start)
+                        / BENCHMARK_ITERATIONS / 1000;
+                Log.i(TAG, "buildState: " + appCount + " apps, " + perms.length
+                        + " permissions, " + entries.size() + " entries: " + averageMicros
+                        + "us");
+
+                if (tpl.getPermissionIndex().perms.length > 0) {
+                    assertTrue(entries.size() >= appCount);
+                }
+            }
+        }
+    }
+
+    private void setApps(List<PackageInfo> apps) {
+        when(mAppOps.getPackagesForOps(any(int[].class)))
+                .thenReturn(new ArrayList<AppOpsManager.PackageOps>());
+        when(mPm.getPackagesHoldingPermissions(any(String[].class), anyInt())).thenReturn(apps);
+    }
+
+    private static String[] getRequestedPermissions(AppOpsState.OpsTemplate tpl) {
+        final List<String> perms = new ArrayList<>();
+        for (int i = 0; i < UNRELATED_PERMISSION_COUNT; i++) {
+            perms.add("com.example.permission.UNRELATED_" + i);
+        }
+        for (int op : tpl.ops) {
+            final String perm = AppOpsManager.opToPermission(op);
+            if (perm != null) {
+                perms.add(perm);
+            }
+        }
+        return perms.toArray(new String[perms.size()]);
+    }
+
+    private static PackageInfo createApp(int index, String[] requestedPermissions) {
+        final PackageInfo app = new PackageInfo();
+        app.packageName = "com.example.app" + index;
+        app.applicationInfo = new ApplicationInfo();
+        app.applicationInfo.packageName = app.packageName;
+        app.applicationInfo.uid = Process.FIRST_APPLICATION_UID + index;
+        // Not installed, so that the label is the package name.
+        app.applicationInfo.sourceDir = "/nonexistent/" + app.packageName + ".apk";
+        app.requestedPermissions = requestedPermissions;
+        app.requestedPermissionsFlags = new int[requestedPermissions.length];
+        for (int i = 0; i < requestedPermissions.length; i++) {
+            app.requestedPermissionsFlags[i] = PackageInfo.REQUESTED_PERMISSION_GRANTED;
+        }
+        return app;
+    }
+}
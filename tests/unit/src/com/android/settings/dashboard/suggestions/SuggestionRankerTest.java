@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.dashboard.suggestions;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.android.settingslib.drawer.Tile;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SuggestionRankerTest extends AndroidTestCase {
+    private static final String TAG = SuggestionRankerTest.class.getSimpleName();
+
+    private static final int BENCHMARK_ITERATIONS = 5;
+
+    @Mock private EventStore mEventStore;
+
+    private SuggestionFeaturizer mFeaturizer;
+    private SuggestionRanker mRanker;
+
+    @Override
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mEventStore.readMetric(anyString(), anyString(), anyString())).thenAnswer(
+                invocation -> (long) invocation.getArguments()[0].hashCode() & 0xff);
+        mFeaturizer = new SuggestionFeaturizer(mEventStore);
+        mRanker = new SuggestionRanker(mFeaturizer);
+    }
+
+    /**
+     * Logs how long ranking 10, 100 and 1000 suggestions takes from feature maps and sorting
+     * boxed metrics, as was done before, and from the feature matrix.
+     */
+    @LargeTest
+    public void testRank_benchmark() {
+        for (int size : new int[] { 10, 100, 1000 }) {
+            final List<String> pkgNames = new ArrayList<>(size);
+            final List<Tile> suggestions = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                pkgNames.add("com.example.pkg" + i);
+                suggestions.add(new Tile());
+            }
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                rankFromFeatureMaps(new ArrayList<>(suggestions), pkgNames);
+            }
+            final long mapMicros = (SystemClock.elapsedRealtimeNanos() - start)
+                    / BENCHMARK_ITERATIONS / 1000;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                mRanker.rankSuggestions(new ArrayList<>(suggestions), pkgNames);
+            }
+            final long matrixMicros = (SystemClock.elapsedRealtimeNanos() - start)
+                    / BENCHMARK_ITERATIONS / 1000;
+
+            Log.i(TAG, "rankSuggestions: " + size + " suggestions, feature maps " + mapMicros
+                    + "us, feature matrix " + matrixMicros + "us");
+        }
+    }
+
+    private void rankFromFeatureMaps(List<Tile> suggestions, List<String> pkgNames) {
+        final Map<String, Map<String, Double>> features = mFeaturizer.featurize(pkgNames);
+        final Map<Tile, Double> metrics = new HashMap<>();
+        for (int i = 0; i < suggestions.size(); i++) {
+            metrics.put(suggestions.get(i),
+                    mRanker.getRelevanceMetric(features.get(pkgNames.get(i))));
+        }
+        suggestions.sort((t1, t2) -> Double.compare(metrics.get(t2), metrics.get(t1)));
+    }
+}